@@ -0,0 +1,145 @@
+#!/usr/bin/env python3
+"""
+流式对话压测脚本，用于对比平台线程 / 虚拟线程两种模式下的最大并发流数和首token延迟
+
+1. 启动模拟的OpenAI兼容上游（每个请求按固定间隔输出token）:
+       python3 sse_load.py mock --port 9000 --tokens 200 --interval-ms 50
+2. 在系统中创建一个平台，baseUrl 指向 http://127.0.0.1:9000/v1，并在该平台下创建模型
+3. 分别以 spring.threads.virtual.enabled=false / true 启动后端，执行:
+       python3 sse_load.py run --base-url http://127.0.0.1:8080 --cookie <box-session> \\
+           --model-id <id> --streams 500 1000 2000 4000
+   每一档并发输出成功流数、失败数以及首token延迟的p50/p99
+
+只依赖Python标准库
+"""
+import argparse
+import asyncio
+import json
+import statistics
+import time
+import uuid
+
+
+# ======================== 模拟上游 ========================
+
+async def handle_mock(reader, writer, tokens, interval):
+    try:
+        headers = await reader.readuntil(b"\r\n\r\n")
+        length = 0
+        for line in headers.split(b"\r\n"):
+            if line.lower().startswith(b"content-length:"):
+                length = int(line.split(b":")[1])
+        if length:
+            await reader.readexactly(length)
+
+        writer.write(b"HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n"
+                     b"Cache-Control: no-cache\r\nConnection: close\r\n\r\n")
+        for i in range(tokens):
+            chunk = {"id": "mock", "object": "chat.completion.chunk", "model": "mock",
+                     "choices": [{"index": 0, "delta": {"content": f"t{i} "}, "finish_reason": None}]}
+            writer.write(f"data: {json.dumps(chunk)}\n\n".encode())
+            await writer.drain()
+            await asyncio.sleep(interval)
+        done = {"id": "mock", "object": "chat.completion.chunk", "model": "mock",
+                "choices": [{"index": 0, "delta": {}, "finish_reason": "stop"}],
+                "usage": {"prompt_tokens": 10, "completion_tokens": tokens, "total_tokens": tokens + 10}}
+        writer.write(f"data: {json.dumps(done)}\n\ndata: [DONE]\n\n".encode())
+        await writer.drain()
+    except (ConnectionError, asyncio.IncompleteReadError):
+        pass
+    finally:
+        writer.close()
+
+
+async def run_mock(args):
+    server = await asyncio.start_server(
+        lambda r, w: handle_mock(r, w, args.tokens, args.interval_ms / 1000), "0.0.0.0", args.port, backlog=8192)
+    print(f"mock upstream listening on :{args.port}")
+    async with server:
+        await server.serve_forever()
+
+
+# ======================== 压测客户端 ========================
+
+async def http_request(host, port, method, path, cookie, body=None, accept="application/json"):
+    reader, writer = await asyncio.open_connection(host, port)
+    payload = json.dumps(body).encode() if body is not None else b""
+    writer.write((f"{method} {path} HTTP/1.1\r\nHost: {host}:{port}\r\n"
+                  f"Cookie: box-session={cookie}\r\nContent-Type: application/json\r\n"
+                  f"Accept: {accept}\r\nContent-Length: {len(payload)}\r\n"
+                  f"Connection: close\r\n\r\n").encode() + payload)
+    await writer.drain()
+    return reader, writer
+
+
+async def one_stream(host, port, cookie, model_id, timeout):
+    conv = uuid.uuid4().hex
+    reader, writer = await http_request(host, port, "POST", f"/api/conversation/{conv}", cookie)
+    await reader.read()
+    writer.close()
+
+    start = time.perf_counter()
+    reader, writer = await http_request(host, port, "POST", "/api/chat/", cookie,
+                                        {"conversationUuId": conv, "userMessage": "hello", "modelId": model_id},
+                                        accept="text/event-stream")
+    first_token = None
+    try:
+        async with asyncio.timeout(timeout):
+            while True:
+                line = await reader.readline()
+                if not line:
+                    break
+                # 响应为chunked编码，帧的"data:"前缀和内容可能分属不同chunk，只按内容判断
+                if first_token is None and b'{"v"' in line:
+                    first_token = time.perf_counter() - start
+    finally:
+        writer.close()
+    return first_token
+
+
+async def run_level(args, host, port, streams):
+    results = await asyncio.gather(
+        *[one_stream(host, port, args.cookie, args.model_id, args.timeout) for _ in range(streams)],
+        return_exceptions=True)
+    latencies = sorted(r * 1000 for r in results if isinstance(r, float))
+    failed = streams - len(latencies)
+    if latencies:
+        p50 = statistics.median(latencies)
+        p99 = latencies[min(len(latencies) - 1, int(len(latencies) * 0.99))]
+        print(f"streams={streams:<6} ok={len(latencies):<6} failed={failed:<6} "
+              f"first-token p50={p50:.0f}ms p99={p99:.0f}ms")
+    else:
+        print(f"streams={streams:<6} ok=0 failed={failed}")
+
+
+async def run_client(args):
+    base = args.base_url.split("://", 1)[1]
+    host, port = (base.split(":") + ["80"])[:2]
+    for streams in args.streams:
+        await run_level(args, host, int(port), streams)
+        await asyncio.sleep(args.pause)
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    sub = parser.add_subparsers(dest="cmd", required=True)
+
+    mock = sub.add_parser("mock", help="模拟OpenAI兼容的流式上游")
+    mock.add_argument("--port", type=int, default=9000)
+    mock.add_argument("--tokens", type=int, default=200)
+    mock.add_argument("--interval-ms", type=int, default=50)
+
+    run = sub.add_parser("run", help="压测 /api/chat/")
+    run.add_argument("--base-url", default="http://127.0.0.1:8080")
+    run.add_argument("--cookie", required=True, help="登录后的box-session")
+    run.add_argument("--model-id", type=int, required=True)
+    run.add_argument("--streams", type=int, nargs="+", default=[100, 500, 1000])
+    run.add_argument("--timeout", type=float, default=120)
+    run.add_argument("--pause", type=float, default=5, help="每档之间的间隔(s)")
+
+    args = parser.parse_args()
+    asyncio.run(run_mock(args) if args.cmd == "mock" else run_client(args))
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,98 @@
+package ink.whi.backend.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.dao.entity.Model;
+import ink.whi.backend.dao.entity.Platform;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 流式模型缓存
+ * <p>
+ * 缓存模型/平台信息以及构建好的StreamingChatLanguageModel，复用模型内部的HTTP连接池，
+ * 模型或平台信息变更时需要调用evict方法失效
+ *
+ * @author: qing
+ * @Date: 2025/8/24
+ */
+@Slf4j
+@Component
+public class ChatModelCache {
+
+    /**
+     * modelId -> 模型及所属平台
+     */
+    private final Cache<Integer, ModelMeta> metaCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 模型+平台凭证+模型参数 -> 构建好的模型实例
+     */
+    private final Cache<ModelKey, StreamingChatLanguageModel> modelCache = CacheBuilder.newBuilder()
+            .maximumSize(500)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
+    public ModelMeta getMeta(Integer modelId) {
+        return metaCache.getIfPresent(modelId);
+    }
+
+    public void putMeta(Integer modelId, ModelMeta meta) {
+        metaCache.put(modelId, meta);
+    }
+
+    /**
+     * 获取模型实例，不存在时构建并缓存
+     * @param key 缓存key
+     * @param builder 模型构建方法
+     */
+    public StreamingChatLanguageModel getOrBuild(ModelKey key, Supplier<StreamingChatLanguageModel> builder) {
+        StreamingChatLanguageModel model = modelCache.getIfPresent(key);
+        if (model == null) {
+            model = builder.get();
+            modelCache.put(key, model);
+            log.info("构建新的模型实例, modelId: {}", key.modelId());
+        }
+        return model;
+    }
+
+    /**
+     * 失效指定模型
+     * @param modelId 模型ID
+     */
+    public void evictModel(Integer modelId) {
+        metaCache.invalidate(modelId);
+        modelCache.asMap().keySet().removeIf(key -> Objects.equals(key.modelId(), modelId));
+    }
+
+    /**
+     * 失效指定平台下的所有模型
+     * @param platformId 平台ID
+     */
+    public void evictPlatform(Integer platformId) {
+        metaCache.asMap().values().removeIf(meta -> Objects.equals(meta.platform().getId(), platformId));
+        modelCache.asMap().keySet().removeIf(key -> Objects.equals(key.platformId(), platformId));
+    }
+
+    /**
+     * 模型及所属平台
+     */
+    public record ModelMeta(Model model, Platform platform) {
+    }
+
+    /**
+     * 模型实例缓存key，凭证或参数变化都会生成新的实例
+     */
+    public record ModelKey(Integer modelId, Integer platformId, String modelName, String baseUrl, String apiKey,
+                           ModelParams params) {
+    }
+}
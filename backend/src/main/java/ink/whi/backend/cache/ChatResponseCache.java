@@ -0,0 +1,315 @@
+package ink.whi.backend.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.CosineSimilarity;
+import ink.whi.backend.common.dto.message.MessageDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 对话响应缓存（默认关闭）
+ * <p>
+ * 以用户、模型、系统提示词、摘要、最近几条消息和用户问题作为key缓存模型回答，分两级：
+ * 精确匹配按归一化后的文本哈希查找；语义匹配（默认关闭）按上下文分桶，只在相同上下文的少量条目中按问题向量的余弦相似度查找，
+ * 超过阈值即命中。问题向量在chatExecutor中计算，查询最多等待timeoutMs，超时按未命中处理，写入不阻塞调用线程。
+ * 两级缓存都按条数和写入时间淘汰
+ *
+ * @author: qing
+ * @Date: 2025/9/1
+ */
+@Slf4j
+@Component
+public class ChatResponseCache {
+
+    /**
+     * 语义匹配使用的多语言向量模型，开启语义匹配时才存在
+     */
+    @Autowired(required = false)
+    @Qualifier("responseCacheEmbeddingModel")
+    private EmbeddingModel embeddingModel;
+
+    @Resource(name = "chatExecutor")
+    private ExecutorService chatExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.response-cache.enable:false}")
+    private boolean enable;
+
+    /**
+     * 参与key计算的最近消息条数
+     */
+    @Value("${chat.response-cache.context-messages:2}")
+    private int contextMessages;
+
+    @Value("${chat.response-cache.max-size:10000}")
+    private long maxSize;
+
+    @Value("${chat.response-cache.ttl-minutes:60}")
+    private long ttlMinutes;
+
+    @Value("${chat.response-cache.semantic.enable:false}")
+    private boolean semanticEnable;
+
+    /**
+     * 语义匹配的相似度阈值
+     */
+    @Value("${chat.response-cache.semantic.threshold:0.92}")
+    private double semanticThreshold;
+
+    /**
+     * 语义缓存的上下文（桶）数
+     */
+    @Value("${chat.response-cache.semantic.max-size:2000}")
+    private long semanticMaxSize;
+
+    /**
+     * 每个上下文最多保留的问题数，查询时只在桶内逐条比较
+     */
+    @Value("${chat.response-cache.semantic.per-scope:16}")
+    private int semanticPerScope;
+
+    /**
+     * 查询时等待问题向量的最长时间(ms)
+     */
+    @Value("${chat.response-cache.semantic.timeout-ms:300}")
+    private long semanticTimeoutMs;
+
+    private Cache<String, String> exactCache;
+
+    private Cache<String, ScopeEntries> semanticCache;
+
+    private Counter exactHit;
+
+    private Counter semanticHit;
+
+    private Counter miss;
+
+    @PostConstruct
+    public void init() {
+        exactCache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        semanticCache = CacheBuilder.newBuilder()
+                .maximumSize(semanticMaxSize)
+                .expireAfterAccess(ttlMinutes, TimeUnit.MINUTES)
+                .build();
+        if (semanticEnable && embeddingModel == null) {
+            log.warn("未配置语义缓存的向量模型，关闭语义匹配");
+            semanticEnable = false;
+        }
+        GuavaCacheMetrics.monitor(meterRegistry, exactCache, "chat.response.exact");
+        exactHit = meterRegistry.counter("chat.response.cache", "result", "exact");
+        semanticHit = meterRegistry.counter("chat.response.cache", "result", "semantic");
+        miss = meterRegistry.counter("chat.response.cache", "result", "miss");
+    }
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    public int getContextMessages() {
+        return contextMessages;
+    }
+
+    /**
+     * 构建缓存key
+     *
+     * @param userId 用户ID，缓存只在同一用户内命中
+     * @param modelId 模型ID
+     * @param systemMessage 系统提示词
+     * @param summary 会话摘要
+     * @param recent 最近的消息
+     * @param userMessage 用户问题
+     */
+    public Key key(Integer userId, Integer modelId, String systemMessage, String summary, List<MessageDTO> recent,
+                   String userMessage) {
+        StringBuilder scope = new StringBuilder();
+        scope.append(userId).append('\u0000').append(modelId)
+                .append('\u0000').append(normalize(systemMessage)).append('\u0000').append(normalize(summary));
+        for (MessageDTO message : recent) {
+            scope.append('\u0000').append(message.getRole()).append(':').append(normalize(message.getContent()));
+        }
+        String scopeHash = hash(scope.toString());
+        String question = normalize(userMessage);
+        return new Key(scopeHash, hash(scopeHash + '\u0000' + question), question);
+    }
+
+    /**
+     * 查找缓存的回答，先精确匹配再语义匹配
+     * @return 未命中时返回null
+     */
+    public String get(Key key) {
+        String answer = exactCache.getIfPresent(key.exact());
+        if (answer != null) {
+            exactHit.increment();
+            return answer;
+        }
+        if (semanticEnable) {
+            answer = semanticGet(key);
+            if (answer != null) {
+                semanticHit.increment();
+                return answer;
+            }
+        }
+        miss.increment();
+        return null;
+    }
+
+    /**
+     * 相同上下文中与问题最相似且超过阈值的回答，该上下文没有缓存时不计算向量
+     */
+    private String semanticGet(Key key) {
+        ScopeEntries entries = semanticCache.getIfPresent(key.scope());
+        if (entries == null) {
+            return null;
+        }
+        try {
+            Embedding embedding = key.embedding(embeddingModel, chatExecutor).get(semanticTimeoutMs, TimeUnit.MILLISECONDS);
+            return entries.nearest(embedding, semanticThreshold);
+        } catch (TimeoutException e) {
+            log.debug("计算问题向量超时, 按未命中处理");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("语义缓存查询失败", e);
+        }
+        return null;
+    }
+
+    /**
+     * 缓存完整的回答
+     */
+    public void put(Key key, String answer) {
+        if (answer == null || answer.isBlank()) {
+            return;
+        }
+        exactCache.put(key.exact(), answer);
+        if (semanticEnable) {
+            long expireAt = System.nanoTime() + TimeUnit.MINUTES.toNanos(ttlMinutes);
+            key.embedding(embeddingModel, chatExecutor).whenComplete((embedding, e) -> {
+                if (e != null) {
+                    log.warn("计算问题向量失败", e);
+                    return;
+                }
+                semanticCache.asMap().computeIfAbsent(key.scope(), scope -> new ScopeEntries())
+                        .add(new SemanticEntry(embedding, answer, expireAt), semanticPerScope);
+            });
+        }
+    }
+
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static String hash(String text) {
+        return DigestUtils.md5DigestAsHex(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 缓存key
+     * <p>
+     * scope为上下文哈希，语义匹配只在相同scope内进行；问题向量按需异步计算一次，查询和写入共用
+     */
+    public static class Key {
+
+        private final String scope;
+
+        private final String exact;
+
+        private final String question;
+
+        private CompletableFuture<Embedding> embedding;
+
+        Key(String scope, String exact, String question) {
+            this.scope = scope;
+            this.exact = exact;
+            this.question = question;
+        }
+
+        String scope() {
+            return scope;
+        }
+
+        String exact() {
+            return exact;
+        }
+
+        synchronized CompletableFuture<Embedding> embedding(EmbeddingModel model, Executor executor) {
+            if (embedding == null) {
+                embedding = CompletableFuture.supplyAsync(() -> model.embed(question).content(), executor);
+            }
+            return embedding;
+        }
+    }
+
+    /**
+     * 同一上下文下缓存的问题，新写入的在前，超出条数时淘汰最早的
+     */
+    private static class ScopeEntries {
+
+        private final Deque<SemanticEntry> entries = new ArrayDeque<>();
+
+        synchronized void add(SemanticEntry entry, int limit) {
+            long now = System.nanoTime();
+            entries.removeIf(e -> e.expired(now));
+            entries.addFirst(entry);
+            while (entries.size() > limit) {
+                entries.removeLast();
+            }
+        }
+
+        synchronized String nearest(Embedding embedding, double threshold) {
+            long now = System.nanoTime();
+            String best = null;
+            double bestScore = threshold;
+            for (SemanticEntry entry : entries) {
+                if (entry.expired(now)) {
+                    continue;
+                }
+                double score = CosineSimilarity.between(embedding, entry.embedding());
+                if (score >= bestScore) {
+                    best = entry.answer();
+                    bestScore = score;
+                }
+            }
+            return best;
+        }
+    }
+
+    private record SemanticEntry(Embedding embedding, String answer, long expireAt) {
+
+        boolean expired(long now) {
+            return now - expireAt > 0;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package ink.whi.backend.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import ink.whi.backend.common.dto.message.MessageDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 会话历史消息缓存
+ * <p>
+ * 按会话缓存完整的消息列表，新消息写入数据库后追加到缓存，删除消息时失效。
+ * 按消息总数做容量限制，超出后淘汰最久未访问的会话。缓存值不可变，追加时整体替换，
+ * 权重随之重新计算；追加与加载并发时等待加载完成后再追加，按消息ID去重
+ *
+ * @author: qing
+ * @Date: 2025/8/24
+ */
+@Component
+public class MessageHistoryCache {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 缓存的消息总数上限
+     */
+    @Value("${chat.history-cache.max-messages:50000}")
+    private long maxMessages;
+
+    /**
+     * 会话多久未访问后过期（分钟）
+     */
+    @Value("${chat.history-cache.expire-minutes:30}")
+    private long expireMinutes;
+
+    private Cache<String, History> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxMessages)
+                .weigher((String uuid, History history) -> Math.max(1, history.size()))
+                .expireAfterAccess(expireMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(meterRegistry, cache, "chat.history");
+    }
+
+    /**
+     * 获取会话的全部消息，未命中时通过loader加载
+     *
+     * @param uuid   会话UUID
+     * @param loader 从数据库加载
+     * @return 按时间正序的消息快照
+     */
+    public List<MessageDTO> get(String uuid, Supplier<List<MessageDTO>> loader) {
+        try {
+            return cache.get(uuid, () -> new History(loader.get())).snapshot();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 已缓存时返回会话的全部消息，不触发加载
+     *
+     * @param uuid 会话UUID
+     * @return 按时间正序的消息快照，未缓存时返回null
+     */
+    public List<MessageDTO> getIfPresent(String uuid) {
+        History history = cache.getIfPresent(uuid);
+        return history == null ? null : history.snapshot();
+    }
+
+    /**
+     * 追加新消息，会话未缓存时忽略，下次读取时从数据库加载
+     *
+     * @param uuid    会话UUID
+     * @param message 新消息
+     */
+    public void append(String uuid, MessageDTO message) {
+        // computeIfPresent会等待进行中的加载，替换值后按新的消息数重新计算权重
+        cache.asMap().computeIfPresent(uuid, (key, history) -> history.append(message));
+    }
+
+    public void invalidate(String uuid) {
+        cache.invalidate(uuid);
+    }
+
+    private static class History {
+        private final List<MessageDTO> messages;
+
+        History(List<MessageDTO> messages) {
+            this.messages = List.copyOf(messages);
+        }
+
+        List<MessageDTO> snapshot() {
+            return new ArrayList<>(messages);
+        }
+
+        /**
+         * 追加后的新快照，加载结果已包含该消息时原样返回
+         */
+        History append(MessageDTO message) {
+            if (message.getId() != null
+                    && messages.stream().anyMatch(msg -> message.getId().equals(msg.getId()))) {
+                return this;
+            }
+            List<MessageDTO> list = new ArrayList<>(messages.size() + 1);
+            list.addAll(messages);
+            list.add(message);
+            return new History(list);
+        }
+
+        int size() {
+            return messages.size();
+        }
+    }
+}
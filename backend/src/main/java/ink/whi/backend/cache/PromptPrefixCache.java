@@ -0,0 +1,107 @@
+package ink.whi.backend.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import dev.langchain4j.data.message.ChatMessage;
+import ink.whi.backend.common.dto.message.MessageDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 会话的提示词前缀缓存
+ * <p>
+ * 缓存上一轮构建好的系统消息、摘要和历史消息，下一轮只转换新增的消息并追加在后面，
+ * 前缀中的消息对象原样复用，发往平台的前缀保持字节一致，便于命中平台的前缀缓存
+ *
+ * @author: qing
+ * @Date: 2025/9/1
+ */
+@Slf4j
+@Component
+public class PromptPrefixCache {
+
+    /**
+     * uuid -> 上一轮的前缀
+     */
+    private final Cache<String, PromptPrefix> prefixCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 上一轮前缀中第一条历史消息的ID，上下文组装时尽量保持从这条消息开始
+     * @return 没有缓存或前缀不含历史消息时返回null
+     */
+    public Integer anchor(String uuid) {
+        PromptPrefix prefix = prefixCache.getIfPresent(uuid);
+        return prefix == null || prefix.messageIds().isEmpty() ? null : prefix.messageIds().get(0);
+    }
+
+    /**
+     * 构建本轮的消息列表，与上一轮前缀一致的部分直接复用
+     *
+     * @param uuid 会话UUID
+     * @param head 系统消息和摘要，变化时整体重建
+     * @param history 按时间正序的历史消息
+     * @param converter 历史消息转换方法
+     * @return 可追加本轮用户消息的新列表
+     */
+    public List<ChatMessage> build(String uuid, List<ChatMessage> head, List<MessageDTO> history,
+                                   Function<MessageDTO, ChatMessage> converter) {
+        PromptPrefix prev = prefixCache.getIfPresent(uuid);
+        int reused = prev == null ? 0 : prev.commonPrefix(head, history);
+
+        List<ChatMessage> messages = new ArrayList<>(head.size() + history.size() + 1);
+        List<Integer> ids = new ArrayList<>(history.size());
+        if (reused > 0) {
+            messages.addAll(prev.messages().subList(0, prev.headSize() + reused));
+            ids.addAll(prev.messageIds().subList(0, reused));
+        } else {
+            messages.addAll(head);
+        }
+        for (int i = reused; i < history.size(); i++) {
+            messages.add(converter.apply(history.get(i)));
+            ids.add(history.get(i).getId());
+        }
+        log.debug("提示词前缀, uuid: {}, 复用: {}, 新增: {}", uuid, reused, history.size() - reused);
+
+        prefixCache.put(uuid, new PromptPrefix(head.size(), List.copyOf(messages), List.copyOf(ids)));
+        return messages;
+    }
+
+    public void evict(String uuid) {
+        prefixCache.invalidate(uuid);
+    }
+
+    /**
+     * 构建好的前缀
+     *
+     * @param headSize 系统消息和摘要的条数
+     * @param messages 系统消息、摘要和历史消息
+     * @param messageIds 历史消息ID
+     */
+    private record PromptPrefix(int headSize, List<ChatMessage> messages, List<Integer> messageIds) {
+
+        /**
+         * 与本轮相同的历史消息条数，系统消息或摘要变化、历史不是从同一条消息开始时为0
+         */
+        int commonPrefix(List<ChatMessage> head, List<MessageDTO> history) {
+            if (!messages.subList(0, headSize).equals(head)) {
+                return 0;
+            }
+            int n = Math.min(messageIds.size(), history.size());
+            int i = 0;
+            while (i < n && Objects.equals(messageIds.get(i), history.get(i).getId())) {
+                i++;
+            }
+            // 只复用完整的前缀，起点不同时重建
+            return i == messageIds.size() ? i : 0;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ink.whi.backend.cache;
+
+import ink.whi.backend.cache.registry.SseSessionRegistry;
+import ink.whi.backend.common.dto.sse.SessionInfo;
+import ink.whi.backend.helper.SseReplayBuffer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SSE会话缓存
+ * <p>
+ * 保存本节点上生成中的会话，注册和移除同步到SseSessionRegistry，供其他节点查询和停止
+ *
+ * @author: qing
+ * @Date: 2025/8/18
+ */
+@Component
+public class SseEmitterCache {
+
+    private final Map<String, SessionInfo> sessions = new ConcurrentHashMap<>();
+
+    @Autowired
+    private SseSessionRegistry sessionRegistry;
+
+    public SessionInfo put(String uuid, SseEmitter emitter) {
+        return put(uuid, emitter, null);
+    }
+
+    /**
+     * 注册会话，同一uuid下的旧会话被替换后停止生成
+     * @return 新会话，流式处理器直接持有
+     */
+    public SessionInfo put(String uuid, SseEmitter emitter, SseReplayBuffer replayBuffer) {
+        SessionInfo sessionInfo = new SessionInfo(uuid, emitter, replayBuffer);
+        SessionInfo old = sessions.put(uuid, sessionInfo);
+        if (old != null) {
+            old.detach();
+        }
+        sessionRegistry.register(uuid);
+        return sessionInfo;
+    }
+
+    /**
+     * 注册会话，同一uuid下已有生成中的会话时不替换
+     * @return 新会话，已有生成中的会话时返回null
+     */
+    public SessionInfo putIfIdle(String uuid, SseEmitter emitter, SseReplayBuffer replayBuffer) {
+        SessionInfo sessionInfo = new SessionInfo(uuid, emitter, replayBuffer);
+        SessionInfo[] replaced = new SessionInfo[1];
+        SessionInfo current = sessions.compute(uuid, (key, old) -> {
+            if (old != null && old.isRunning()) {
+                return old;
+            }
+            replaced[0] = old;
+            return sessionInfo;
+        });
+        if (current != sessionInfo) {
+            return null;
+        }
+        if (replaced[0] != null) {
+            replaced[0].detach();
+        }
+        sessionRegistry.register(uuid);
+        return sessionInfo;
+    }
+
+    public void remove(String uuid) {
+        SessionInfo old = sessions.remove(uuid);
+        if (old != null) {
+            old.detach();
+            sessionRegistry.unregister(uuid);
+        }
+    }
+
+    /**
+     * 仅当缓存的仍是该会话时移除，避免误删同一uuid下的新请求
+     */
+    public void remove(String uuid, SessionInfo sessionInfo) {
+        sessionInfo.detach();
+        if (sessions.remove(uuid, sessionInfo)) {
+            sessionRegistry.unregister(uuid);
+        }
+    }
+
+    public boolean exist(String uuid) {
+        return sessions.containsKey(uuid);
+    }
+
+    public SessionInfo getSessionInfo(String uuid) {
+        return sessions.get(uuid);
+    }
+
+    public boolean isStop(String uuid) {
+        SessionInfo sessionInfo = sessions.get(uuid);
+        return sessionInfo != null && sessionInfo.isStop();
+    }
+}
@@ -0,0 +1,64 @@
+package ink.whi.backend.cache.registry;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 进程内会话注册中心，单机部署使用
+ *
+ * @author: qing
+ * @Date: 2025/8/30
+ */
+@Component
+@ConditionalOnProperty(name = "chat.session.registry", havingValue = "local", matchIfMissing = true)
+public class LocalSseSessionRegistry implements SseSessionRegistry {
+
+    private final Set<String> active = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> stopped = ConcurrentHashMap.newKeySet();
+
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void register(String uuid) {
+        active.add(uuid);
+        stopped.remove(uuid);
+    }
+
+    @Override
+    public void unregister(String uuid) {
+        active.remove(uuid);
+        stopped.remove(uuid);
+    }
+
+    @Override
+    public boolean isActive(String uuid) {
+        return active.contains(uuid);
+    }
+
+    @Override
+    public boolean isStopped(String uuid) {
+        return stopped.contains(uuid);
+    }
+
+    @Override
+    public void requestStop(String uuid) {
+        if (active.contains(uuid)) {
+            stopped.add(uuid);
+        }
+        for (Consumer<String> listener : listeners) {
+            listener.accept(uuid);
+        }
+    }
+
+    @Override
+    public void onStop(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+}
@@ -0,0 +1,132 @@
+package ink.whi.backend.cache.registry;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 基于Redis的会话注册中心，多节点部署使用
+ * <p>
+ * 会话归属和停止标记保存在带过期时间的key中，停止信号通过pub/sub广播。
+ * 只在注册、停止时访问Redis，生成token的路径上不访问
+ *
+ * @author: qing
+ * @Date: 2025/8/30
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "chat.session.registry", havingValue = "redis")
+public class RedisSseSessionRegistry implements SseSessionRegistry {
+
+    private static final String SESSION_KEY = "chat:sse:session:";
+
+    private static final String STOP_KEY = "chat:sse:stop:";
+
+    private static final String STOP_CHANNEL = "chat:sse:stop";
+
+    /**
+     * 只删除本节点注册的会话，避免误删其他节点上同一uuid的新请求
+     */
+    private static final DefaultRedisScript<Long> UNREGISTER_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1], KEYS[2]) else return 0 end",
+            Long.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
+    /**
+     * 会话key的过期时间，需大于SSE超时时间
+     */
+    @Value("${chat.session.ttl-minutes:15}")
+    private long ttlMinutes;
+
+    /**
+     * 节点标识，默认随机生成
+     */
+    @Value("${chat.session.node-id:}")
+    private String nodeId;
+
+    private RedisMessageListenerContainer container;
+
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = UUID.randomUUID().toString();
+        }
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener((message, pattern) -> {
+            String uuid = new String(message.getBody(), StandardCharsets.UTF_8);
+            for (Consumer<String> listener : listeners) {
+                try {
+                    listener.accept(uuid);
+                } catch (Exception e) {
+                    log.error("处理停止信号失败, uuid: {}", uuid, e);
+                }
+            }
+        }, new ChannelTopic(STOP_CHANNEL));
+        container.afterPropertiesSet();
+        container.start();
+        log.info("Redis会话注册中心已启动, nodeId: {}", nodeId);
+    }
+
+    @PreDestroy
+    public void destroy() throws Exception {
+        container.destroy();
+    }
+
+    @Override
+    public void register(String uuid) {
+        redisTemplate.opsForValue().set(SESSION_KEY + uuid, nodeId, Duration.ofMinutes(ttlMinutes));
+        redisTemplate.delete(STOP_KEY + uuid);
+    }
+
+    @Override
+    public void unregister(String uuid) {
+        redisTemplate.execute(UNREGISTER_SCRIPT, List.of(SESSION_KEY + uuid, STOP_KEY + uuid), nodeId);
+    }
+
+    @Override
+    public boolean isActive(String uuid) {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(SESSION_KEY + uuid));
+    }
+
+    @Override
+    public boolean isStopped(String uuid) {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(STOP_KEY + uuid));
+    }
+
+    @Override
+    public void requestStop(String uuid) {
+        if (isActive(uuid)) {
+            redisTemplate.opsForValue().set(STOP_KEY + uuid, nodeId, Duration.ofMinutes(ttlMinutes));
+        }
+        redisTemplate.convertAndSend(STOP_CHANNEL, uuid);
+    }
+
+    @Override
+    public void onStop(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+}
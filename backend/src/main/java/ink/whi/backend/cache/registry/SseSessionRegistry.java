@@ -0,0 +1,52 @@
+package ink.whi.backend.cache.registry;
+
+import java.util.function.Consumer;
+
+/**
+ * SSE会话注册中心
+ * <p>
+ * 记录会话由哪个节点生成以及是否被停止，并把停止信号广播到所有节点。
+ * 单机部署使用进程内实现，多节点部署使用Redis实现（chat.session.registry=redis），
+ * 停止请求落到任意节点都能中断生成中的会话
+ *
+ * @author: qing
+ * @Date: 2025/8/30
+ */
+public interface SseSessionRegistry {
+
+    /**
+     * 当前节点开始生成会话
+     * @param uuid 会话UUID
+     */
+    void register(String uuid);
+
+    /**
+     * 当前节点的会话结束
+     * @param uuid 会话UUID
+     */
+    void unregister(String uuid);
+
+    /**
+     * 会话是否在任一节点上生成中
+     * @param uuid 会话UUID
+     */
+    boolean isActive(String uuid);
+
+    /**
+     * 会话是否已被请求停止
+     * @param uuid 会话UUID
+     */
+    boolean isStopped(String uuid);
+
+    /**
+     * 请求停止会话，广播到所有节点
+     * @param uuid 会话UUID
+     */
+    void requestStop(String uuid);
+
+    /**
+     * 订阅停止信号，每个节点收到信号后停止本地的会话
+     * @param listener 参数为会话UUID
+     */
+    void onStop(Consumer<String> listener);
+}
@@ -1,22 +1,31 @@
 package ink.whi.backend.common.dto.sse;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import ink.whi.backend.helper.ChatConcurrencyLimiter;
+import ink.whi.backend.helper.SseReplayBuffer;
+import ink.whi.backend.utils.StreamHandle;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * SSE会话信息
+ * <p>
+ * 流式处理器直接持有该对象，每个token只读一次volatile状态，不再按uuid查缓存；
+ * 停止、完成、出错通过CAS切换状态，只有第一个生效
  * 
  * @author: qing
  * @Date: 2025/8/18
  */
-@Data
-@NoArgsConstructor
-@AllArgsConstructor
+@Getter
+@Setter
 public class SessionInfo {
+
+    public enum State {
+        RUNNING, STOPPED, COMPLETED, ERROR
+    }
     
     /**
      * 会话ID
@@ -27,9 +36,80 @@ public class SessionInfo {
      * SSE连接
      */
     private SseEmitter emitter;
-    
+
+    /**
+     * 停止回调，用于立即中断流式响应并保存已生成内容
+     */
+    private volatile Runnable stopHandler;
+
+    /**
+     * 已发送帧的缓冲，用于断线重连补发
+     */
+    private SseReplayBuffer replayBuffer;
+
+    /**
+     * 并发许可，会话结束时释放
+     */
+    private ChatConcurrencyLimiter.Permit permit;
+
+    /**
+     * 上游请求的取消句柄，停止、超时或会话被替换时关闭上游连接
+     */
+    @Setter(AccessLevel.NONE)
+    private final StreamHandle streamHandle = new StreamHandle();
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final AtomicReference<State> state = new AtomicReference<>(State.RUNNING);
+
+    /**
+     * 已从缓存移除或被同一uuid的新请求替换
+     */
+    @Setter(AccessLevel.NONE)
+    private volatile boolean detached;
+
+    public SessionInfo(String sessionId, SseEmitter emitter, SseReplayBuffer replayBuffer) {
+        this.sessionId = sessionId;
+        this.emitter = emitter;
+        this.replayBuffer = replayBuffer;
+    }
+
+    /**
+     * 结束会话
+     * @param target 结束状态
+     * @return 是否由本次调用结束，已结束时返回false
+     */
+    public boolean finish(State target) {
+        return state.compareAndSet(State.RUNNING, target);
+    }
+
+    /**
+     * 是否应继续生成
+     */
+    public boolean isRunning() {
+        return !detached && state.get() == State.RUNNING;
+    }
+
+    public boolean isStop() {
+        return state.get() == State.STOPPED;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * 移除或被替换后不再生成，同时关闭上游连接
+     */
+    public void detach() {
+        this.detached = true;
+        streamHandle.cancel();
+    }
+
     /**
-     * 是否停止标志
+     * 关闭上游连接
      */
-    private boolean isStop;
+    public void cancelUpstream() {
+        streamHandle.cancel();
+    }
 }
@@ -0,0 +1,25 @@
+package ink.whi.backend.common.enums;
+
+import com.baomidou.mybatisplus.annotation.EnumValue;
+import lombok.Getter;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/2
+ */
+@Getter
+public enum IngestJobStatusEnum {
+    PENDING(0, "待执行"),
+    RUNNING(1, "执行中"),
+    DONE(2, "已完成"),
+    FAILED(3, "失败");
+
+    @EnumValue
+    private final int status;
+    private final String desc;
+
+    IngestJobStatusEnum(int status, String desc) {
+        this.status = status;
+        this.desc = desc;
+    }
+}
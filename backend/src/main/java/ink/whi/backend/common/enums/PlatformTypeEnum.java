@@ -18,7 +18,10 @@ public enum PlatformTypeEnum {
     OPENAI_RESPONSE(1, "openai-response"),
     GEMINI(2, "gemini"),
     ANTHROPIC(3, "anthropic"),
-    AZURE_OPENAI(4, "azure_openai");
+    AZURE_OPENAI(4, "azure_openai"),
+    OLLAMA(5, "ollama"),
+    DASHSCOPE(6, "dashscope"),
+    QIANFAN(7, "qianfan");
 
     @EnumValue
     public int type;
@@ -0,0 +1,20 @@
+package ink.whi.backend.common.exception;
+
+import java.io.Serial;
+
+/**
+ * 索引任务的租约已被其他节点接管
+ * 在写入checkpoint时抛出，中断当前节点的执行，任务状态由接管的节点负责
+ *
+ * @author: qing
+ * @Date: 2025/9/2
+ */
+public class LeaseLostException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = 4718815302276649523L;
+
+    public LeaseLostException(Integer jobId) {
+        super("ingest job lease lost, jobId: " + jobId, null, false, false);
+    }
+}
@@ -0,0 +1,20 @@
+package ink.whi.backend.common.exception;
+
+import java.io.Serial;
+
+/**
+ * 流式响应被取消
+ * 在token回调中抛出，用于中断上游模型的HTTP流
+ *
+ * @author: qing
+ * @Date: 2025/8/24
+ */
+public class StreamCancelledException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = -3587162419623045171L;
+
+    public StreamCancelledException(String uuid) {
+        super("stream cancelled, uuid: " + uuid, null, false, false);
+    }
+}
@@ -1,13 +1,104 @@
 package ink.whi.backend.config;
 
+import dev.langchain4j.model.Tokenizer;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.model.openai.OpenAiChatModelName;
+import dev.langchain4j.model.openai.OpenAiEmbeddingModel;
+import dev.langchain4j.model.openai.OpenAiTokenizer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author: qing
  * @Date: 2025/7/29
  */
+@Slf4j
 @Configuration
 public class BeanConfig {
 
+    /**
+     * 对话相关的阻塞任务（如SSE发送）使用的线程池
+     * 开启虚拟线程时每个任务一个虚拟线程，否则使用有界的平台线程池
+     */
+    @Bean(name = "chatExecutor", destroyMethod = "shutdown")
+    public ExecutorService chatExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtual) {
+        if (virtual) {
+            log.info("chatExecutor使用虚拟线程");
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-vt-", 0).factory());
+        }
+        AtomicInteger index = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(32, 32, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(10000),
+                r -> {
+                    Thread thread = new Thread(r, "chat-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 本地向量化线程池，embedAll按分段并发调用共享的ONNX会话，默认与CPU核数相同
+     */
+    @Bean(name = "embeddingExecutor", destroyMethod = "shutdown")
+    public ExecutorService embeddingExecutor(@Value("${kb.embedding.parallelism:0}") int parallelism) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "embedding-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 本地向量模型，知识库检索使用，只加载一次
+     */
+    @Bean
+    @Primary
+    public EmbeddingModel embeddingModel(@Qualifier("embeddingExecutor") ExecutorService embeddingExecutor) {
+        return new AllMiniLmL6V2EmbeddingModel(embeddingExecutor);
+    }
+
+    /**
+     * 响应缓存语义匹配使用的向量模型，开启语义匹配时才创建
+     * 问题多为中文，本地的AllMiniLM只支持英文，这里走OpenAI兼容接口调用多语言模型（如text-embedding-3-small、text-embedding-v3）
+     */
+    @Bean(name = "responseCacheEmbeddingModel")
+    @ConditionalOnProperty(name = "chat.response-cache.semantic.enable", havingValue = "true")
+    public EmbeddingModel responseCacheEmbeddingModel(
+            @Value("${chat.response-cache.semantic.base-url:https://api.openai.com/v1}") String baseUrl,
+            @Value("${chat.response-cache.semantic.api-key:}") String apiKey,
+            @Value("${chat.response-cache.semantic.model-name:text-embedding-3-small}") String modelName) {
+        return OpenAiEmbeddingModel.builder()
+                .baseUrl(baseUrl)
+                .apiKey(apiKey)
+                .modelName(modelName)
+                .timeout(Duration.ofSeconds(10))
+                .maxRetries(0)
+                .build();
+    }
 
+    /**
+     * 本地分词器，上下文预算、消息token数和文档切块共用一个实例，编码表只加载一次
+     */
+    @Bean
+    public Tokenizer tokenizer() {
+        return new OpenAiTokenizer(OpenAiChatModelName.GPT_3_5_TURBO);
+    }
 }
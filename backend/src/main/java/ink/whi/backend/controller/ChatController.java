@@ -7,8 +7,11 @@ import ink.whi.backend.common.dto.chat.ChatReq;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
 
 /**
  * chat接口
@@ -33,6 +36,28 @@ public class ChatController {
         return chatService.streamingChat(request);
     }
 
+    /**
+     * 响应式流式对话接口，客户端消费过慢时中断响应
+     * @param request 请求参数
+     * @return SSE事件流
+     */
+    @PostMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> chatStream(@Valid @RequestBody ChatReq request) {
+        return chatService.reactiveChat(request);
+    }
+
+    /**
+     * 断线重连，补发缺失的内容后继续接收
+     * @param uuid 会话uuid
+     * @param lastEventId 收到的最后一个事件ID
+     * @return SseEmitter 流式响应
+     */
+    @GetMapping("/resume")
+    public SseEmitter resume(@RequestParam String uuid,
+                             @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return chatService.resumeChat(uuid, lastEventId);
+    }
+
     /**
      * 停止响应
      * @param uuid 会话uuid
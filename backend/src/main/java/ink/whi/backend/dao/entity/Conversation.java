@@ -37,4 +37,14 @@ public class Conversation extends BaseEntity {
 
     @TableField(typeHandler = FastjsonTypeHandler.class)
     private ModelParams modelParams;
+
+    /**
+     * 历史对话摘要
+     */
+    private String summary;
+
+    /**
+     * 摘要覆盖到的最后一条消息ID，之后的消息按原文发送
+     */
+    private Integer summaryMessageId;
 }
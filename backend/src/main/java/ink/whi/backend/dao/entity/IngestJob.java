@@ -0,0 +1,63 @@
+package ink.whi.backend.dao.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import ink.whi.backend.common.enums.IngestJobStatusEnum;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+import java.time.LocalDateTime;
+
+/**
+ * 知识库索引任务
+ *
+ * @author: qing
+ * @Date: 2025/9/2
+ */
+@Data
+@TableName("kb_ingest_job")
+@EqualsAndHashCode(callSuper = true)
+public class IngestJob extends BaseEntity {
+
+    private Integer kbId;
+
+    private Integer kbItemId;
+
+    /**
+     * 源文件id
+     */
+    private Integer fileId;
+
+    /**
+     * 文件大小（字节），用于调度排序
+     */
+    private Long fileSize;
+
+    private IngestJobStatusEnum status;
+
+    /**
+     * 已执行次数
+     */
+    private Integer attempts;
+
+    /**
+     * 下次可执行时间，失败重试时按退避时间推后
+     */
+    private LocalDateTime nextRunTime;
+
+    /**
+     * 持有租约的节点
+     */
+    private String leaseOwner;
+
+    /**
+     * 租约到期时间，到期未续约的任务可被其他节点接管
+     */
+    private LocalDateTime leaseExpireTime;
+
+    /**
+     * 已写入向量库的分段数
+     */
+    private Integer checkpoint;
+
+    private String lastError;
+}
@@ -0,0 +1,39 @@
+package ink.whi.backend.dao.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * 知识库去重分段，同一知识库内相同内容只向量化和存储一次
+ *
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+@Data
+@TableName("kb_chunk")
+@EqualsAndHashCode(callSuper = true)
+public class KbChunk extends BaseEntity {
+
+    private Integer kbId;
+
+    /**
+     * 规范化文本和向量模型的SHA-256
+     */
+    private String contentHash;
+
+    /**
+     * 向量库中的分段ID
+     */
+    private String embeddingId;
+
+    /**
+     * 引用数，降为0时删除向量
+     */
+    private Integer refCount;
+
+    /**
+     * 向量是否已写入向量库
+     */
+    private Boolean stored;
+}
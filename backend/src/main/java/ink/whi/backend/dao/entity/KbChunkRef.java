@@ -0,0 +1,28 @@
+package ink.whi.backend.dao.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+
+/**
+ * 条目分段对去重分段的引用
+ *
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+@Data
+@TableName("kb_chunk_ref")
+@EqualsAndHashCode(callSuper = true)
+public class KbChunkRef extends BaseEntity {
+
+    private Integer kbId;
+
+    private Integer kbItemId;
+
+    /**
+     * 条目内的分段序号
+     */
+    private Integer segIndex;
+
+    private String contentHash;
+}
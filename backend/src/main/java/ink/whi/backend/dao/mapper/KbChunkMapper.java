@@ -0,0 +1,13 @@
+package ink.whi.backend.dao.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import ink.whi.backend.dao.entity.KbChunk;
+import org.apache.ibatis.annotations.Mapper;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+@Mapper
+public interface KbChunkMapper extends BaseMapper<KbChunk> {
+}
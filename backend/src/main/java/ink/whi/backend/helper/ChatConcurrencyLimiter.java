@@ -0,0 +1,224 @@
+package ink.whi.backend.helper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流式对话并发限制
+ * <p>
+ * 按用户和平台（API Key）限制同时进行的对话数，超出时按到达顺序公平排队，
+ * 最多等待maxWaitMs，仍拿不到许可则拒绝。没有持有者和排队者的信号量会被移除，避免用户/平台的条目无限增长
+ *
+ * @author: qing
+ * @Date: 2025/8/31
+ */
+@Slf4j
+@Component
+public class ChatConcurrencyLimiter {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 每个用户同时进行的对话数，小于等于0不限制
+     */
+    @Value("${chat.limit.user-streams:4}")
+    private int userStreams;
+
+    /**
+     * 每个平台同时进行的对话数，小于等于0不限制
+     */
+    @Value("${chat.limit.platform-streams:64}")
+    private int platformStreams;
+
+    /**
+     * 排队最长等待时间(ms)
+     */
+    @Value("${chat.limit.max-wait-ms:3000}")
+    private long maxWaitMs;
+
+    private final Map<Integer, Slot> userPermits = new ConcurrentHashMap<>();
+
+    private final Map<Integer, Slot> platformPermits = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private Counter userRejected;
+
+    private Counter platformRejected;
+
+    @PostConstruct
+    public void init() {
+        meterRegistry.gauge("chat.limiter.queued", queued);
+        meterRegistry.gauge("chat.limiter.active", active);
+        userRejected = meterRegistry.counter("chat.limiter.rejected", "scope", "user");
+        platformRejected = meterRegistry.counter("chat.limiter.rejected", "scope", "platform");
+    }
+
+    /**
+     * 获取对话许可，最多等待maxWaitMs
+     *
+     * @param userId 用户ID
+     * @param platformId 平台ID
+     * @return 许可，被拒绝时返回null
+     */
+    public Permit acquire(Integer userId, Integer platformId) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        queued.incrementAndGet();
+        try {
+            Slot user = retain(userPermits, userId, userStreams);
+            if (!tryAcquire(user, deadline)) {
+                unretain(user);
+                userRejected.increment();
+                log.warn("用户并发对话数超限, userId: {}", userId);
+                return null;
+            }
+            Slot platform = retain(platformPermits, platformId, platformStreams);
+            if (!tryAcquire(platform, deadline)) {
+                unretain(platform);
+                release(user);
+                platformRejected.increment();
+                log.warn("平台并发对话数超限, platformId: {}", platformId);
+                return null;
+            }
+            active.incrementAndGet();
+            return new Permit(user, platform);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * 不排队地获取平台许可，用于故障转移和对冲发出的额外请求（用户许可已由首个请求持有）
+     *
+     * @param platformId 平台ID
+     * @return 许可，平台已满时返回null
+     */
+    public Permit tryAcquirePlatform(Integer platformId) {
+        Slot platform = retain(platformPermits, platformId, platformStreams);
+        if (platform != null && !platform.semaphore.tryAcquire()) {
+            unretain(platform);
+            platformRejected.increment();
+            log.warn("平台并发对话数超限, platformId: {}", platformId);
+            return null;
+        }
+        active.incrementAndGet();
+        return new Permit(null, platform);
+    }
+
+    /**
+     * 取出（不存在时创建）信号量并登记一个引用，排队和持有许可期间都算引用
+     */
+    private static Slot retain(Map<Integer, Slot> map, Integer key, int limit) {
+        if (limit <= 0 || key == null) {
+            return null;
+        }
+        return map.compute(key, (k, slot) -> {
+            if (slot == null) {
+                slot = new Slot(map, k, limit);
+            }
+            slot.refs++;
+            return slot;
+        });
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放时移除信号量，此时所有许可都已归还
+     */
+    private static void unretain(Slot slot) {
+        if (slot == null) {
+            return;
+        }
+        slot.owner.computeIfPresent(slot.key, (k, current) -> current == slot && --current.refs == 0 ? null : current);
+    }
+
+    private static void release(Slot slot) {
+        if (slot != null) {
+            slot.semaphore.release();
+            unretain(slot);
+        }
+    }
+
+    private static boolean tryAcquire(Slot slot, long deadline) {
+        if (slot == null) {
+            return true;
+        }
+        try {
+            return slot.semaphore.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 某个用户或平台的信号量，refs只在所属map的compute中修改
+     */
+    private static class Slot {
+
+        private final Map<Integer, Slot> owner;
+
+        private final Integer key;
+
+        private final Semaphore semaphore;
+
+        private int refs;
+
+        private Slot(Map<Integer, Slot> owner, Integer key, int limit) {
+            this.owner = owner;
+            this.key = key;
+            this.semaphore = new Semaphore(limit, true);
+        }
+    }
+
+    /**
+     * 对话许可，对话结束时释放，重复释放无影响
+     */
+    public class Permit {
+
+        private final Slot user;
+
+        private final Slot platform;
+
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private final AtomicBoolean platformReleased = new AtomicBoolean(false);
+
+        private Permit(Slot user, Slot platform) {
+            this.user = user;
+            this.platform = platform;
+        }
+
+        public void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            ChatConcurrencyLimiter.release(user);
+            releasePlatform();
+            active.decrementAndGet();
+        }
+
+        /**
+         * 提前归还平台许可，用户许可保留到对话结束。用于对冲或切换后被放弃的首选实例
+         */
+        public void releasePlatform() {
+            if (platformReleased.compareAndSet(false, true)) {
+                ChatConcurrencyLimiter.release(platform);
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package ink.whi.backend.helper;
+
+import dev.langchain4j.model.chat.listener.ChatModelErrorContext;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 平台请求限流
+ * <p>
+ * 每个平台一个请求桶和一个token桶，token桶按实际返回的TokenUsage扣减（允许欠账，欠账期间新请求等待）。
+ * 平台返回429时按Retry-After提示（没有时指数退避）暂停该平台，并把速率减半，之后每次成功逐步恢复。
+ * 新对话在发往平台前排队，预计等待超过maxWaitMs时直接拒绝
+ *
+ * @author: qing
+ * @Date: 2025/8/31
+ */
+@Slf4j
+@Component
+public class PlatformRateLimiter {
+
+    /**
+     * 匹配错误信息中的重试提示，如 "Please try again in 20s"、"retry after 3 seconds"、"try again in 500ms"
+     */
+    private static final Pattern RETRY_HINT = Pattern.compile(
+            "(?:try again in|retry after)\\s*(\\d+(?:\\.\\d+)?)\\s*(ms|s|sec|seconds?)?", Pattern.CASE_INSENSITIVE);
+
+    private static final double MIN_FACTOR = 0.1;
+
+    private static final double RECOVER_STEP = 0.05;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 每个平台每分钟请求数，小于等于0不限制
+     */
+    @Value("${chat.rate.requests-per-minute:0}")
+    private int requestsPerMinute;
+
+    /**
+     * 每个平台每分钟token数，小于等于0不限制
+     */
+    @Value("${chat.rate.tokens-per-minute:0}")
+    private long tokensPerMinute;
+
+    /**
+     * 排队最长等待时间(ms)
+     */
+    @Value("${chat.rate.max-wait-ms:2000}")
+    private long maxWaitMs;
+
+    /**
+     * 429后的初始/最大暂停时间(ms)
+     */
+    @Value("${chat.rate.initial-cooldown-ms:1000}")
+    private long initialCooldownMs;
+
+    @Value("${chat.rate.max-cooldown-ms:60000}")
+    private long maxCooldownMs;
+
+    private final Map<Integer, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * 获取平台的请求配额，必要时排队等待
+     *
+     * @param platformId 平台ID
+     * @return 等待超过maxWaitMs时返回false
+     */
+    public boolean acquire(Integer platformId) {
+        Bucket bucket = bucket(platformId);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        while (true) {
+            long waitNanos = bucket.tryAcquire();
+            if (waitNanos == 0) {
+                return true;
+            }
+            if (System.nanoTime() + waitNanos > deadline) {
+                meterRegistry.counter("chat.rate.rejected", "platform", String.valueOf(platformId)).increment();
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 不等待地获取平台的请求配额，用于故障转移和对冲，避免阻塞路由定时线程
+     *
+     * @param platformId 平台ID
+     * @return 配额不足时返回false
+     */
+    public boolean tryAcquire(Integer platformId) {
+        if (bucket(platformId).tryAcquire() == 0) {
+            return true;
+        }
+        meterRegistry.counter("chat.rate.rejected", "platform", String.valueOf(platformId)).increment();
+        return false;
+    }
+
+    /**
+     * 构建模型时注册的监听器，用实际token用量和429错误调整该平台的配额
+     *
+     * @param platformId 平台ID
+     */
+    public ChatModelListener listener(Integer platformId) {
+        return new ChatModelListener() {
+            @Override
+            public void onResponse(ChatModelResponseContext context) {
+                TokenUsage usage = context.chatResponse().tokenUsage();
+                bucket(platformId).onSuccess(usage == null || usage.totalTokenCount() == null ? 0 : usage.totalTokenCount());
+            }
+
+            @Override
+            public void onError(ChatModelErrorContext context) {
+                if (!isRateLimited(context.error())) {
+                    return;
+                }
+                long cooldown = bucket(platformId).onRateLimited(retryAfterMs(context.error()));
+                meterRegistry.counter("chat.rate.throttled", "platform", String.valueOf(platformId)).increment();
+                log.warn("平台返回429, platformId: {}, 暂停{}ms", platformId, cooldown);
+            }
+        };
+    }
+
+    private Bucket bucket(Integer platformId) {
+        return buckets.computeIfAbsent(platformId, id -> new Bucket());
+    }
+
+    private static boolean isRateLimited(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            String message = e.getMessage();
+            if (message != null && (message.contains("429") || message.contains("rate_limit")
+                    || message.toLowerCase().contains("too many requests"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 客户端不暴露Retry-After响应头，从错误信息中解析平台给出的重试时间
+     * @return 解析不到时返回-1
+     */
+    private static long retryAfterMs(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e.getMessage() == null) {
+                continue;
+            }
+            Matcher matcher = RETRY_HINT.matcher(e.getMessage());
+            if (matcher.find()) {
+                double value = Double.parseDouble(matcher.group(1));
+                return "ms".equalsIgnoreCase(matcher.group(2)) ? (long) value : (long) (value * 1000);
+            }
+        }
+        return -1;
+    }
+
+    private class Bucket {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * 速率系数，429时减半，成功后逐步恢复到1
+         */
+        private double factor = 1;
+
+        private double requests = requestsPerMinute;
+
+        private double tokens = tokensPerMinute;
+
+        private long lastRefill = System.nanoTime();
+
+        private long blockedUntil;
+
+        private long cooldownMs = initialCooldownMs;
+
+        /**
+         * 尝试获取一次请求配额
+         * @return 0表示成功，否则为需要等待的时间(ns)
+         */
+        long tryAcquire() {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                refill(now);
+                long wait = Math.max(0, blockedUntil - now);
+                if (requestsPerMinute > 0 && requests < 1) {
+                    wait = Math.max(wait, nanosFor(1 - requests, requestsPerMinute));
+                }
+                if (tokensPerMinute > 0 && tokens <= 0) {
+                    wait = Math.max(wait, nanosFor(1 - tokens, tokensPerMinute));
+                }
+                if (wait > 0) {
+                    return wait;
+                }
+                if (requestsPerMinute > 0) {
+                    requests -= 1;
+                }
+                return 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onSuccess(int usedTokens) {
+            lock.lock();
+            try {
+                refill(System.nanoTime());
+                if (tokensPerMinute > 0) {
+                    tokens -= usedTokens;
+                }
+                factor = Math.min(1, factor + RECOVER_STEP);
+                cooldownMs = initialCooldownMs;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long onRateLimited(long retryAfterMs) {
+            lock.lock();
+            try {
+                long cooldown = retryAfterMs > 0 ? Math.min(retryAfterMs, maxCooldownMs) : cooldownMs;
+                cooldownMs = Math.min(maxCooldownMs, cooldownMs * 2);
+                blockedUntil = Math.max(blockedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cooldown));
+                factor = Math.max(MIN_FACTOR, factor / 2);
+                return cooldown;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill(long now) {
+            double minutes = (now - lastRefill) / (double) TimeUnit.MINUTES.toNanos(1);
+            lastRefill = now;
+            if (requestsPerMinute > 0) {
+                requests = Math.min(requestsPerMinute * factor, requests + minutes * requestsPerMinute * factor);
+            }
+            if (tokensPerMinute > 0) {
+                tokens = Math.min(tokensPerMinute * factor, tokens + minutes * tokensPerMinute * factor);
+            }
+        }
+
+        private long nanosFor(double amount, double perMinute) {
+            return (long) (amount / (perMinute * factor) * TimeUnit.MINUTES.toNanos(1));
+        }
+    }
+}
@@ -1,18 +1,29 @@
 package ink.whi.backend.helper;
 
 import ink.whi.backend.cache.SseEmitterCache;
+import ink.whi.backend.cache.registry.SseSessionRegistry;
 import ink.whi.backend.common.dto.sse.SessionInfo;
 import ink.whi.backend.common.enums.SseEventEnum;
 import ink.whi.backend.common.exception.BusinessException;
 import ink.whi.backend.common.status.StatusEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -30,37 +41,202 @@ public class SseEmitterHelper {
     @Autowired
     private SseEmitterCache sseEmitterCache;
 
+    @Autowired
+    private SseSessionRegistry sessionRegistry;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Resource(name = "chatExecutor")
+    private ExecutorService chatExecutor;
+
+    /**
+     * 合并发送：累计多少个token发送一次
+     */
+    @Value("${chat.sse.flush-tokens:16}")
+    private int flushTokens;
+
+    /**
+     * 合并发送：token最长等待时间(ms)
+     */
+    @Value("${chat.sse.flush-interval-ms:30}")
+    private long flushIntervalMs;
+
+    /**
+     * 每个会话保留的最近帧数，用于断线重连补发
+     */
+    @Value("${chat.sse.replay-frames:512}")
+    private int replayFrames;
+
+    /**
+     * 生成结束后会话保留时间(s)
+     */
+    @Value("${chat.sse.resume-retention-seconds:30}")
+    private long resumeRetentionSeconds;
+
+    /**
+     * 断线后等待重连的时间(s)，超时未重连时停止生成并保存已生成内容，<0时一直生成到结束
+     */
+    @Value("${chat.sse.disconnect-grace-seconds:10}")
+    private long disconnectGraceSeconds;
+
+    /**
+     * 所有会话共用的定时flush线程
+     */
+    private ScheduledExecutorService flushScheduler;
+
+    private Counter flushCounter;
+
+    private Counter tokenCounter;
+
+    private Timer flushTimer;
+
+    @PostConstruct
+    public void init() {
+        flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sse-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushCounter = meterRegistry.counter("chat.sse.flush.count");
+        tokenCounter = meterRegistry.counter("chat.sse.flush.tokens");
+        flushTimer = Timer.builder("chat.sse.flush.latency")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        sessionRegistry.onStop(this::stopLocal);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flushScheduler.shutdown();
+    }
+
     /**
      * 创建SseEmitter并缓存
      * @param uuid 会话UUID
      */
     public SseEmitter createEmitter(String uuid) {
+        return createEmitter(uuid, null);
+    }
+
+    /**
+     * 创建SseEmitter并缓存
+     * @param uuid 会话UUID
+     * @param permit 并发许可，会话结束时释放
+     */
+    public SseEmitter createEmitter(String uuid, ChatConcurrencyLimiter.Permit permit) {
         SseEmitter emitter = new SseEmitter(SSE_TIMEOUT);
-        
+        SseReplayBuffer buffer = new SseReplayBuffer(replayFrames, emitter);
+
         // 创建SessionInfo并放入缓存
-        sseEmitterCache.put(uuid, emitter);
+        SessionInfo sessionInfo = sseEmitterCache.put(uuid, emitter, buffer);
+        sessionInfo.setPermit(permit);
+        buffer.setOnDetach(() -> scheduleDisconnectStop(uuid, sessionInfo));
+        bindCallbacks(emitter, uuid, buffer);
+        return emitter;
+    }
 
+    /**
+     * 断线超过宽限时间仍未重连时按停止处理，关闭上游连接，不再为没有客户端的响应计费
+     */
+    private void scheduleDisconnectStop(String uuid, SessionInfo sessionInfo) {
+        if (disconnectGraceSeconds < 0) {
+            return;
+        }
+        flushScheduler.schedule(() -> {
+            if (!sessionInfo.getReplayBuffer().isDetachedFor(TimeUnit.SECONDS.toMillis(disconnectGraceSeconds))) {
+                return;
+            }
+            logger.info("断线{}s未重连，停止生成, uuid: {}", disconnectGraceSeconds, uuid);
+            Runnable stopHandler = sessionInfo.getStopHandler();
+            if (stopHandler != null) {
+                stopHandler.run();
+            } else {
+                sessionInfo.finish(SessionInfo.State.STOPPED);
+                sessionInfo.cancelUpstream();
+            }
+        }, disconnectGraceSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 返回只包含error事件的SseEmitter，用于拒绝请求
+     * @param message 错误信息
+     */
+    public SseEmitter rejectSse(String message) {
+        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT);
+        try {
+            emitter.send(SseEmitter.event().name(SseEventEnum.ERROR.getEvent()).data(message));
+        } catch (IOException e) {
+            log.error("error", e);
+        }
+        emitter.complete();
+        return emitter;
+    }
+
+    /**
+     * 断线重连，补发lastEventId之后的帧后接入实时输出
+     * @param uuid 会话UUID
+     * @param lastEventId 客户端收到的最后一个事件ID
+     */
+    public SseEmitter resumeEmitter(String uuid, long lastEventId) {
+        SessionInfo sessionInfo = sseEmitterCache.getSessionInfo(uuid);
+        if (sessionInfo == null || sessionInfo.getReplayBuffer() == null) {
+            throw BusinessException.newInstance(StatusEnum.RECORDS_NOT_EXISTS, "进行中的响应 " + uuid);
+        }
+
+        SseEmitter emitter = new SseEmitter(SSE_TIMEOUT);
+        SseReplayBuffer buffer = sessionInfo.getReplayBuffer();
+        bindCallbacks(emitter, uuid, buffer);
+        if (!buffer.attach(emitter, lastEventId)) {
+            logger.warn("缺失的帧已被覆盖, uuid: {}, lastEventId: {}", uuid, lastEventId);
+            try {
+                emitter.send(SseEmitter.event().name(SseEventEnum.ERROR.getEvent()).data("断线时间过长，请刷新会话"));
+            } catch (IOException e) {
+                log.error("error", e);
+            }
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    /**
+     * 连接断开时解绑连接，宽限时间内可以重连，超时未重连时停止生成
+     */
+    private void bindCallbacks(SseEmitter emitter, String uuid, SseReplayBuffer buffer) {
         emitter.onCompletion(() -> {
             logger.info("response complete for uuid: {}", uuid);
-            sseEmitterCache.remove(uuid);
+            buffer.detach(emitter);
         });
         emitter.onTimeout(() -> {
             logger.warn("sseEmitter on timeout:{} for uuid: {}", emitter.getTimeout(), uuid);
-            sseEmitterCache.remove(uuid);
+            buffer.detach(emitter);
         });
-        emitter.onError(
-                throwable -> {
-                    try {
-                        log.error("sseEmitter on error for uuid: {}", uuid, throwable);
-                        emitter.send(SseEmitter.event().name(SseEventEnum.ERROR.getEvent()).data(throwable.getMessage()));
-                        sseEmitterCache.remove(uuid);
-                    } catch (IOException e) {
-                        log.error("error", e);
-                    }
-                }
-        );
+        emitter.onError(throwable -> {
+            log.warn("sseEmitter on error for uuid: {}, {}", uuid, throwable.getMessage());
+            buffer.detach(emitter);
+        });
+    }
 
-        return emitter;
+    /**
+     * 生成结束后延迟移除会话，保留一段时间供刚断线的客户端取回结尾
+     * @param uuid 会话UUID
+     * @param sessionInfo 结束的会话
+     */
+    public void releaseSession(String uuid, SessionInfo sessionInfo) {
+        if (sessionInfo.getPermit() != null) {
+            sessionInfo.getPermit().release();
+        }
+        flushScheduler.schedule(() -> sseEmitterCache.remove(uuid, sessionInfo),
+                resumeRetentionSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 创建token合并写入器
+     * @param buffer 会话的帧缓冲
+     */
+    public SseTokenWriter createTokenWriter(SseReplayBuffer buffer) {
+        return new SseTokenWriter(buffer, flushTokens, flushIntervalMs, flushScheduler, chatExecutor,
+                flushCounter, tokenCounter, flushTimer);
     }
 
     /**
@@ -87,30 +263,50 @@ public class SseEmitterHelper {
     }
 
     /**
-     * 通过UUID停止SSE连接
+     * 通过UUID停止SSE连接，停止信号广播到所有节点，由生成该会话的节点处理
      * @param uuid 会话UUID
      */
     public void stopSse(String uuid) {
-        SessionInfo sessionInfo = sseEmitterCache.getSessionInfo(uuid);
-        
-        if (sessionInfo == null) {
+        if (!sessionRegistry.isActive(uuid)) {
             logger.warn("SessionInfo not found for uuid: {}", uuid);
             return;
         }
-        
-        // 设置停止状态，让流处理逻辑检测并优雅停止
-        sseEmitterCache.setStopStatus(uuid);
+        sessionRegistry.requestStop(uuid);
         logger.info("停止信号已发送, uuid: {}", uuid);
     }
+
+    /**
+     * 收到停止信号，会话不在本节点时忽略
+     * @param uuid 会话UUID
+     */
+    private void stopLocal(String uuid) {
+        SessionInfo sessionInfo = sseEmitterCache.getSessionInfo(uuid);
+        if (sessionInfo == null) {
+            return;
+        }
+
+        // 立即发送停止事件、保存已生成内容并关闭连接
+        Runnable stopHandler = sessionInfo.getStopHandler();
+        if (stopHandler != null) {
+            stopHandler.run();
+        } else {
+            // 处理器还未注册：设置停止状态并取消句柄，之后发起的上游请求立即关闭
+            sessionInfo.finish(SessionInfo.State.STOPPED);
+            sessionInfo.cancelUpstream();
+        }
+    }
     
     /**
-     * 检查会话是否停止
+     * 检查会话是否停止，会话可以在任一节点上
      * @param uuid 会话UUID
      * @return 是否停止
      */
     public boolean isSessionStopped(String uuid) {
         SessionInfo sessionInfo = sseEmitterCache.getSessionInfo(uuid);
-        return sessionInfo != null && sessionInfo.isStop();
+        if (sessionInfo != null) {
+            return sessionInfo.isStop();
+        }
+        return sessionRegistry.isStopped(uuid);
     }
     
     /**
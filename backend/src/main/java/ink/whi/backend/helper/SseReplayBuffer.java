@@ -0,0 +1,245 @@
+package ink.whi.backend.helper;
+
+import ink.whi.backend.common.enums.SseEventEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 可续传的SSE帧缓冲
+ * <p>
+ * 每个token帧带有单调递增的事件ID，最近capacity帧保存在环形缓冲区中。帧在这里拼成完整的SSE事件字节，
+ * 作为一次写入发送（SseEventBuilder会把前缀、数据和结尾分三次写入，每次都触发flush），补发时直接复用。
+ * 客户端断线后携带Last-Event-ID重连，先补发缺失的帧再接入实时流；断线时回调onDetach，由调用方决定多久未重连后停止生成
+ *
+ * @author: qing
+ * @Date: 2025/8/30
+ */
+@Slf4j
+public class SseReplayBuffer {
+
+    private static final byte[] ID_PREFIX = "id:".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] DATA_PREFIX = "\ndata:".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] EVENT_END = "\n\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 完整的SSE事件：id:N\ndata:{"v":"..."}\n\n
+     */
+    private final byte[][] frames;
+
+    /**
+     * 下一帧的事件ID，从1开始
+     */
+    private long nextId = 1;
+
+    /**
+     * 当前连接，断线后为null
+     */
+    private SseEmitter emitter;
+
+    /**
+     * 结束事件，为null表示正常完成
+     */
+    private SseEventEnum endEvent;
+
+    private String endData;
+
+    private boolean finished;
+
+    /**
+     * 断线时间(nanoTime)，有连接时为0
+     */
+    private long detachedAt;
+
+    /**
+     * 断线回调，在持有锁时调用，不应阻塞
+     */
+    private volatile Runnable onDetach;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public SseReplayBuffer(int capacity, SseEmitter emitter) {
+        this.frames = new byte[Math.max(1, capacity)][];
+        this.emitter = emitter;
+    }
+
+    public void setOnDetach(Runnable onDetach) {
+        this.onDetach = onDetach;
+    }
+
+    /**
+     * 缓存并发送一帧
+     * @param data   UTF-8编码的 {"v": "..."}，返回后即可复用
+     * @param length 数据长度(byte)
+     */
+    public void send(byte[] data, int length) {
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            long id = nextId++;
+            byte[] frame = frame(id, data, length);
+            frames[(int) (id % frames.length)] = frame;
+            if (emitter != null) {
+                try {
+                    send(emitter, frame);
+                } catch (Exception e) {
+                    // 客户端已断开，继续缓存等待重连
+                    log.info("SSE连接已断开，等待重连, lastEventId: {}", id - 1);
+                    markDetached();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 结束流，发送结束事件（可选）并关闭当前连接
+     * @param event 结束事件，正常完成时为null
+     * @param data 事件数据
+     */
+    public void finish(SseEventEnum event, String data) {
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            endEvent = event;
+            endData = data;
+            if (emitter != null) {
+                sendEnd(emitter);
+                emitter = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 重连：补发lastEventId之后的帧，流未结束时接管后续输出
+     *
+     * @param newEmitter 新连接
+     * @param lastEventId 客户端收到的最后一个事件ID
+     * @return 缺失的帧已被覆盖时返回false
+     */
+    public boolean attach(SseEmitter newEmitter, long lastEventId) {
+        lock.lock();
+        try {
+            long oldest = Math.max(1, nextId - frames.length);
+            if (lastEventId + 1 < oldest || lastEventId >= nextId) {
+                return false;
+            }
+            for (long id = lastEventId + 1; id < nextId; id++) {
+                send(newEmitter, frames[(int) (id % frames.length)]);
+            }
+            if (finished) {
+                sendEnd(newEmitter);
+                return true;
+            }
+            if (emitter != null) {
+                // 旧连接还未检测到断开，直接关闭
+                emitter.complete();
+            }
+            emitter = newEmitter;
+            detachedAt = 0;
+            return true;
+        } catch (Exception e) {
+            log.warn("SSE重连补发失败", e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 连接断开，只解绑当前连接
+     * @param closed 已断开的连接
+     */
+    public void detach(SseEmitter closed) {
+        lock.lock();
+        try {
+            if (emitter == closed) {
+                markDetached();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 未结束且断线已超过timeoutMs
+     */
+    public boolean isDetachedFor(long timeoutMs) {
+        lock.lock();
+        try {
+            return !finished && emitter == null && detachedAt != 0
+                    && System.nanoTime() - detachedAt >= TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void markDetached() {
+        emitter = null;
+        if (finished || detachedAt != 0) {
+            return;
+        }
+        detachedAt = System.nanoTime();
+        Runnable callback = onDetach;
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    public boolean isFinished() {
+        lock.lock();
+        try {
+            return finished;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sendEnd(SseEmitter target) {
+        try {
+            if (endEvent != null) {
+                target.send(SseEmitter.event().name(endEvent.getEvent()).data(endData != null ? endData : ""));
+            }
+            target.complete();
+        } catch (Exception e) {
+            log.error("发送SSE结束事件失败", e);
+        }
+    }
+
+    private static byte[] frame(long id, byte[] data, int length) {
+        byte[] idBytes = Long.toString(id).getBytes(StandardCharsets.US_ASCII);
+        byte[] frame = new byte[ID_PREFIX.length + idBytes.length + DATA_PREFIX.length + length + EVENT_END.length];
+        int pos = 0;
+        for (byte[] part : new byte[][]{ID_PREFIX, idBytes, DATA_PREFIX}) {
+            System.arraycopy(part, 0, frame, pos, part.length);
+            pos += part.length;
+        }
+        System.arraycopy(data, 0, frame, pos, length);
+        System.arraycopy(EVENT_END, 0, frame, pos + length, EVENT_END.length);
+        return frame;
+    }
+
+    /**
+     * 以原始字节发送完整的事件，由ByteArrayHttpMessageConverter一次写出
+     */
+    private static void send(SseEmitter target, byte[] frame) throws IOException {
+        target.send(Set.of(new ResponseBodyEmitter.DataWithMediaType(frame, MediaType.TEXT_EVENT_STREAM)));
+    }
+}
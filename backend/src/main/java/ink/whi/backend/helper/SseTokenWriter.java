@@ -0,0 +1,240 @@
+package ink.whi.backend.helper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SSE token合并写入器
+ * <p>
+ * 按会话缓冲模型输出的token，累计达到flushTokens个或等待超过flushIntervalMs后合并成一帧 {"v": "..."} 发送，
+ * 避免每个token都触发一次servlet flush。帧直接编码为UTF-8写入复用的字节缓冲区，不经过中间String，
+ * 经由SseReplayBuffer编号发送，断线重连时可补发
+ *
+ * @author: qing
+ * @Date: 2025/8/24
+ */
+@Slf4j
+public class SseTokenWriter {
+
+    private final SseReplayBuffer buffer;
+
+    private final int flushTokens;
+
+    private final long flushIntervalMs;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 执行定时flush的线程池，避免慢客户端阻塞共用的定时线程
+     */
+    private final Executor flushExecutor;
+
+    private final Counter flushCounter;
+
+    private final Counter tokenCounter;
+
+    private final Timer flushTimer;
+
+    /**
+     * 待发送的token内容
+     */
+    private final StringBuilder pending = new StringBuilder();
+
+    /**
+     * 复用的帧缓冲区，存放UTF-8编码的 {"v": "..."}，不够时扩容
+     */
+    private byte[] frame = new byte[256];
+
+    private int pendingTokens;
+
+    private ScheduledFuture<?> scheduledFlush;
+
+    private boolean closed;
+
+    /**
+     * 使用ReentrantLock而不是synchronized，虚拟线程阻塞在send上时不会占住载体线程
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public SseTokenWriter(SseReplayBuffer buffer, int flushTokens, long flushIntervalMs, ScheduledExecutorService scheduler,
+                          Executor flushExecutor, Counter flushCounter, Counter tokenCounter, Timer flushTimer) {
+        this.buffer = buffer;
+        this.flushTokens = Math.max(1, flushTokens);
+        this.flushIntervalMs = flushIntervalMs;
+        this.scheduler = scheduler;
+        this.flushExecutor = flushExecutor;
+        this.flushCounter = flushCounter;
+        this.tokenCounter = tokenCounter;
+        this.flushTimer = flushTimer;
+    }
+
+    /**
+     * 写入一个token，达到数量阈值立即发送，否则等待定时发送
+     * @param token 模型输出的token
+     */
+    public void write(String token) {
+        if (token == null || token.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            pending.append(token);
+            pendingTokens++;
+
+            if (pendingTokens >= flushTokens || flushIntervalMs <= 0) {
+                flush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = scheduler.schedule(() -> flushExecutor.execute(this::flush),
+                        flushIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 发送缓冲区中的全部token
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (closed || pendingTokens == 0) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            try {
+                // 编码时可能扩容，先编码再取缓冲区
+                int length = encodeFrame();
+                buffer.send(frame, length);
+            } catch (Exception e) {
+                // 吞掉异常，否则会被onError捕获
+                log.error("发送SSE数据失败", e);
+            } finally {
+                flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                flushCounter.increment();
+                tokenCounter.increment(pendingTokens);
+                pending.setLength(0);
+                pendingTokens = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 发送剩余token并关闭，之后的写入会被忽略
+     * 在发送stop事件或complete之前调用，保证token顺序
+     */
+    public void close() {
+        lock.lock();
+        try {
+            flush();
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 将待发送的token编码到帧缓冲区
+     *
+     * @return 帧长度(byte)
+     */
+    private int encodeFrame() {
+        // 每个字符最多编码为6个字节（控制字符转义）
+        int maxLength = pending.length() * 6 + 8;
+        if (frame.length < maxLength) {
+            frame = Arrays.copyOf(frame, Math.max(maxLength, frame.length * 2));
+        }
+        byte[] out = frame;
+        int pos = ascii(out, 0, "{\"v\":\"");
+        for (int i = 0; i < pending.length(); i++) {
+            char c = pending.charAt(i);
+            if (c < 0x80) {
+                String escaped = escape(c);
+                if (escaped == null) {
+                    out[pos++] = (byte) c;
+                } else {
+                    pos = ascii(out, pos, escaped);
+                }
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xc0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < pending.length()
+                    && Character.isLowSurrogate(pending.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, pending.charAt(++i));
+                out[pos++] = (byte) (0xf0 | (cp >> 18));
+                out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理项，与String.getBytes一致替换为?
+                out[pos++] = '?';
+            } else {
+                out[pos++] = (byte) (0xe0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return ascii(out, pos, "\"}");
+    }
+
+    private static int ascii(byte[] out, int pos, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            out[pos++] = (byte) text.charAt(i);
+        }
+        return pos;
+    }
+
+    /**
+     * JSON字符串中需要转义的ASCII字符
+     *
+     * @return 转义后的内容，不需要转义时返回null
+     */
+    private static String escape(char c) {
+        return switch (c) {
+            case '"' -> "\\\"";
+            case '\\' -> "\\\\";
+            case '\n' -> "\\n";
+            case '\r' -> "\\r";
+            case '\t' -> "\\t";
+            default -> c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+        };
+    }
+
+    /**
+     * 将token内容序列化为 {"v": "..."}，用于响应式接口的ServerSentEvent
+     *
+     * @param out     输出缓冲区
+     * @param content token内容
+     */
+    public static void appendFrame(StringBuilder out, CharSequence content) {
+        out.append("{\"v\":\"");
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            String escaped = c < 0x80 ? escape(c) : null;
+            if (escaped == null) {
+                out.append(c);
+            } else {
+                out.append(escaped);
+            }
+        }
+        out.append("\"}");
+    }
+}
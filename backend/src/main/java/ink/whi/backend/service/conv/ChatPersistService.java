@@ -0,0 +1,415 @@
+package ink.whi.backend.service.conv;
+
+import ink.whi.backend.common.dto.chat.ChatReq;
+import ink.whi.backend.dao.entity.Conversation;
+import ink.whi.backend.dao.entity.Message;
+import ink.whi.backend.utils.JsonUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 对话记录异步持久化
+ * <p>
+ * 每轮对话的用户消息、AI消息和会话更新时间作为一个整体放入有界队列，由后台线程攒批后在一个事务中写入，
+ * 把数据库耗时从模型回调线程上移走。队列满时在调用线程同步写入（背压），关闭时会写完队列中剩余的数据。
+ * 写入完成后才追加到历史缓存，同一会话的下一轮对话读取历史前通过{@link #awaitWritten}等待上一轮写完。
+ * 单轮写入失败时按指数退避重新入队，重试用尽或关闭时仍未写入的对话追加到死信文件，下次启动时重新提交
+ *
+ * @author: qing
+ * @Date: 2025/8/24
+ */
+@Slf4j
+@Service
+public class ChatPersistService {
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ConversationService conversationService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 队列容量
+     */
+    @Value("${chat.persist.queue-capacity:10000}")
+    private int queueCapacity;
+
+    /**
+     * 每批最多写入的对话轮数
+     */
+    @Value("${chat.persist.batch-size:200}")
+    private int batchSize;
+
+    /**
+     * 攒批等待时间(ms)
+     */
+    @Value("${chat.persist.flush-interval-ms:50}")
+    private long flushIntervalMs;
+
+    /**
+     * 入队等待时间(ms)，超时后同步写入
+     */
+    @Value("${chat.persist.offer-timeout-ms:100}")
+    private long offerTimeoutMs;
+
+    /**
+     * 单轮写入失败后的最多重试次数
+     */
+    @Value("${chat.persist.max-retries:3}")
+    private int maxRetries;
+
+    /**
+     * 首次重试的等待时间(ms)，之后每次翻倍
+     */
+    @Value("${chat.persist.retry-backoff-ms:500}")
+    private long retryBackoffMs;
+
+    /**
+     * 死信文件，每行一轮对话(JSON)
+     */
+    @Value("${chat.persist.dead-letter-file:data/chat-persist-dead-letter.jsonl}")
+    private String deadLetterFile;
+
+    private BlockingQueue<ChatTurn> queue;
+
+    /**
+     * 会话UUID -> 该会话已提交、尚未写完的对话
+     */
+    private final Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 等待重试的对话，关闭时写入死信文件
+     */
+    private final Set<ChatTurn> retrying = ConcurrentHashMap.newKeySet();
+
+    private Thread writer;
+
+    private ScheduledExecutorService retryScheduler;
+
+    private volatile boolean running;
+
+    private Counter turnCounter;
+
+    private Counter syncCounter;
+
+    private Counter retryCounter;
+
+    private Counter deadLetterCounter;
+
+    private Timer flushTimer;
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        meterRegistry.gaugeCollectionSize("chat.persist.queue.size", List.of(), queue);
+        turnCounter = meterRegistry.counter("chat.persist.turns");
+        syncCounter = meterRegistry.counter("chat.persist.sync");
+        retryCounter = meterRegistry.counter("chat.persist.retry");
+        deadLetterCounter = meterRegistry.counter("chat.persist.dead-letter");
+        flushTimer = meterRegistry.timer("chat.persist.flush");
+
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-persist-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        writer = new Thread(this::runLoop, "chat-persist");
+        writer.start();
+        replayDeadLetters();
+    }
+
+    /**
+     * 提交一轮对话
+     *
+     * @param conv         会话
+     * @param request      用户请求
+     * @param aiMessage    AI回复
+     * @param inputTokens  用户消息token数
+     * @param outputTokens AI回复token数
+     * @param afterCommit  写入成功后的回调（可选）
+     */
+    public void submit(Conversation conv, ChatReq request, String aiMessage, Integer inputTokens, Integer outputTokens,
+                       Runnable afterCommit) {
+        Date now = new Date();
+        Message userMsg = messageService.buildUserMessage(request, conv.getUserId(), inputTokens);
+        userMsg.setCreateTime(now);
+        Message aiMsg = messageService.buildAiMessage(aiMessage, request, conv.getUserId(), outputTokens);
+        aiMsg.setCreateTime(now);
+        ChatTurn turn = new ChatTurn(conv.getId(), conv.getUuid(), List.of(userMsg, aiMsg), afterCommit,
+                new CompletableFuture<>(), 0);
+        track(turn.uuid(), turn.written());
+        enqueue(turn);
+    }
+
+    /**
+     * 放入写入队列，队列已满或正在关闭时在当前线程写入
+     */
+    private void enqueue(ChatTurn turn) {
+        boolean queued = false;
+        if (running) {
+            try {
+                queued = queue.offer(turn, offerTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!queued) {
+            // 队列已满或正在关闭，在当前线程写入
+            syncCounter.increment();
+            flush(List.of(turn));
+        }
+    }
+
+    /**
+     * 登记未写完的对话，同步写入可能先于队列中更早的对话完成，因此与之前的对话合并等待
+     */
+    private void track(String uuid, CompletableFuture<Void> written) {
+        CompletableFuture<Void> barrier = pending.compute(uuid,
+                (key, previous) -> previous == null ? written : CompletableFuture.allOf(previous, written));
+        barrier.whenComplete((v, e) -> pending.remove(uuid, barrier));
+    }
+
+    /**
+     * 等待会话已提交的对话写入数据库并追加到历史缓存
+     *
+     * @param uuid      会话UUID
+     * @param timeoutMs 最长等待时间(ms)，超时后按已写入的历史继续
+     */
+    public void awaitWritten(String uuid, long timeoutMs) {
+        CompletableFuture<Void> barrier = pending.get(uuid);
+        if (barrier == null) {
+            return;
+        }
+        try {
+            barrier.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("等待上一轮对话写入超时, uuid: {}", uuid);
+        } catch (ExecutionException e) {
+            // 写入失败已在flush中记录，并已写入死信文件
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runLoop() {
+        List<ChatTurn> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                ChatTurn first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                // 关闭时被中断，继续把剩余数据写完
+                running = false;
+            } catch (Exception e) {
+                log.error("对话持久化失败", e);
+            } finally {
+                batch.clear();
+            }
+        }
+        log.info("对话持久化线程退出");
+    }
+
+    /**
+     * 在一个事务中写入一批对话，失败时逐条重试，避免一条坏数据拖累整批
+     */
+    private void flush(List<ChatTurn> batch) {
+        try {
+            flushTimer.record(() -> writeBatch(batch));
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                retryOrDeadLetter(batch.get(0), e);
+                return;
+            }
+            log.warn("批量持久化失败，逐条重试, size: {}", batch.size(), e);
+            for (ChatTurn turn : batch) {
+                flush(List.of(turn));
+            }
+            return;
+        }
+
+        turnCounter.increment(batch.size());
+        for (ChatTurn turn : batch) {
+            messageService.appendToCache(turn.messages());
+            turn.written().complete(null);
+            if (turn.afterCommit() != null) {
+                try {
+                    turn.afterCommit().run();
+                } catch (Exception e) {
+                    log.error("持久化回调执行失败, convId: {}", turn.convId(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 单轮写入失败：未超过重试次数时退避后重新入队，否则写入死信文件
+     */
+    private void retryOrDeadLetter(ChatTurn turn, Exception e) {
+        if (turn.attempt() < maxRetries && running) {
+            long delay = retryBackoffMs << turn.attempt();
+            log.warn("对话持久化失败，{}ms后第{}次重试, convId: {}", delay, turn.attempt() + 1, turn.convId(), e);
+            ChatTurn next = turn.retry();
+            retrying.add(next);
+            retryCounter.increment();
+            try {
+                retryScheduler.schedule(() -> {
+                    if (retrying.remove(next)) {
+                        enqueue(next);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+                return;
+            } catch (RejectedExecutionException rejected) {
+                // 正在关闭
+                retrying.remove(next);
+            }
+        }
+        log.error("对话持久化失败，写入死信文件, convId: {}", turn.convId(), e);
+        deadLetter(turn);
+        turn.written().completeExceptionally(e);
+    }
+
+    /**
+     * 追加到死信文件，下次启动时重新提交
+     */
+    private synchronized void deadLetter(ChatTurn turn) {
+        deadLetterCounter.increment();
+        String line = JsonUtil.toStr(new DeadLetter(turn.convId(), turn.uuid(), turn.messages())) + "\n";
+        try {
+            Path path = Paths.get(deadLetterFile);
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            Files.writeString(path, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // 死信文件也写不进去时只能留在日志里
+            log.error("写入死信文件失败, convId: {}, turn: {}", turn.convId(), line, e);
+        }
+    }
+
+    /**
+     * 启动时重新提交死信文件中的对话，再次失败的会重新写入死信文件
+     */
+    private synchronized void replayDeadLetters() {
+        Path path = Paths.get(deadLetterFile);
+        if (!Files.exists(path)) {
+            return;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+            Files.delete(path);
+        } catch (IOException e) {
+            log.error("读取死信文件失败: {}", path, e);
+            return;
+        }
+        log.info("重新提交死信文件中的{}轮对话", lines.size());
+        for (String line : lines) {
+            if (line.isBlank()) {
+                continue;
+            }
+            DeadLetter letter = JsonUtil.toObj(line, DeadLetter.class);
+            ChatTurn turn = new ChatTurn(letter.convId(), letter.uuid(), letter.messages(), null,
+                    new CompletableFuture<>(), 0);
+            track(turn.uuid(), turn.written());
+            enqueue(turn);
+        }
+    }
+
+    private void writeBatch(List<ChatTurn> batch) {
+        List<Message> messages = new ArrayList<>(batch.size() * 2);
+        Set<Integer> convIds = new LinkedHashSet<>();
+        for (ChatTurn turn : batch) {
+            messages.addAll(turn.messages());
+            convIds.add(turn.convId());
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            messageService.saveBatchMessages(messages);
+            conversationService.touch(convIds, new Date());
+        });
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        running = false;
+        retryScheduler.shutdownNow();
+        writer.join(TimeUnit.SECONDS.toMillis(30));
+
+        List<ChatTurn> unwritten = new ArrayList<>(retrying);
+        retrying.clear();
+        queue.drainTo(unwritten);
+        if (!unwritten.isEmpty()) {
+            log.warn("关闭时仍有{}轮对话未写入，写入死信文件", unwritten.size());
+            for (ChatTurn turn : unwritten) {
+                deadLetter(turn);
+                turn.written().completeExceptionally(new IllegalStateException("persist service stopped"));
+            }
+        }
+    }
+
+    /**
+     * 一轮对话
+     *
+     * @param convId      会话ID
+     * @param uuid        会话UUID
+     * @param messages    用户消息和AI消息
+     * @param afterCommit 写入成功后的回调
+     * @param written     写入并追加到缓存后完成，写入死信文件时异常完成
+     * @param attempt     已重试次数
+     */
+    private record ChatTurn(Integer convId, String uuid, List<Message> messages, Runnable afterCommit,
+                            CompletableFuture<Void> written, int attempt) {
+
+        ChatTurn retry() {
+            return new ChatTurn(convId, uuid, messages, afterCommit, written, attempt + 1);
+        }
+    }
+
+    /**
+     * 死信文件中的一轮对话
+     */
+    record DeadLetter(Integer convId, String uuid, List<Message> messages) {
+    }
+}
@@ -1,28 +1,46 @@
 package ink.whi.backend.service.conv;
 
+import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.model.chat.StreamingChatLanguageModel;
 import dev.langchain4j.model.output.TokenUsage;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.service.TokenStream;
 import ink.whi.backend.agent.interfaces.ChatAssistant;
+import ink.whi.backend.cache.ChatModelCache;
+import ink.whi.backend.cache.ChatResponseCache;
 import ink.whi.backend.common.dto.chat.ChatReq;
 import ink.whi.backend.common.dto.message.MessageDTO;
+import ink.whi.backend.common.dto.sse.SessionInfo;
 import ink.whi.backend.common.enums.MsgRoleEnum;
+import ink.whi.backend.common.enums.SseEventEnum;
 import ink.whi.backend.common.exception.BusinessException;
 import ink.whi.backend.common.status.StatusEnum;
+import ink.whi.backend.helper.ChatConcurrencyLimiter;
+import ink.whi.backend.helper.PlatformRateLimiter;
 import ink.whi.backend.helper.SseEmitterHelper;
 import ink.whi.backend.dao.entity.Conversation;
+import ink.whi.backend.service.model.ModelRouter;
 import ink.whi.backend.service.model.ModelService;
+import ink.whi.backend.service.model.PlatformService;
 import ink.whi.backend.utils.LLMService;
+import ink.whi.backend.utils.TaskScope;
 import io.micrometer.common.util.StringUtils;
+import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 
 
 /**
@@ -42,30 +60,193 @@ public class ChatService {
     @Autowired
     private ModelService modelService;
 
+    @Autowired
+    private ModelRouter modelRouter;
+
+    @Autowired
+    private PlatformService platformService;
+
     @Autowired
     private SseEmitterHelper sseEmitterHelper;
 
     @Autowired
     private LLMService llmService;
 
+    @Autowired
+    private ContextAssembler contextAssembler;
+
+    @Autowired
+    private SummaryService summaryService;
+
+    @Autowired
+    private ChatPersistService chatPersistService;
+
+    @Autowired
+    private ChatConcurrencyLimiter concurrencyLimiter;
+
+    @Autowired
+    private PlatformRateLimiter platformRateLimiter;
+
+    @Autowired
+    private ChatResponseCache responseCache;
+
+    @Resource(name = "chatExecutor")
+    private ExecutorService chatExecutor;
+
+    /**
+     * 预取会话、模型和历史消息的超时时间(ms)
+     */
+    @Value("${chat.prefetch.timeout-ms:5000}")
+    private long prefetchTimeoutMs;
+
+    private static final String REJECT_MESSAGE = "当前进行中的对话过多，请稍后再试";
+
+    private static final String BUSY_MESSAGE = "该会话正在生成中，请稍后再试";
+
     private static final String PROMPT = """
             你是一个智能的AI助手，能够帮助用户回答问题、提供信息和解决问题。
             """;
 
     public SseEmitter streamingChat(ChatReq request) {
         // check
+        ChatContext context = prefetch(request);
+        Conversation conv = context.conv();
+
+        // 命中响应缓存时直接回放，不占用平台配额
+        ChatResponseCache.Key cacheKey = cacheKey(context, request);
+        String cached = cacheKey == null ? null : responseCache.get(cacheKey);
+        if (cached != null) {
+            SseEmitter emitter = sseEmitterHelper.createEmitter(request.getConversationUuId());
+            sseEmitterHelper.startSse(emitter);
+            llmService.replayResponse(conv.getUuid(), cached);
+            persistTurn(conv, request, cached, null, null);
+            return emitter;
+        }
+
+        // 按平台配额和用户/平台并发数限流，超时未拿到许可时返回error事件
+        ChatConcurrencyLimiter.Permit permit = acquirePermit(conv, context);
+        if (permit == null) {
+            return sseEmitterHelper.rejectSse(REJECT_MESSAGE);
+        }
+
+        SseEmitter emitter = sseEmitterHelper.createEmitter(request.getConversationUuId(), permit);
+        try {
+            // Send begin event to signal streaming start
+            sseEmitterHelper.startSse(emitter);
+
+            // build model，同名模型跨平台故障转移
+            StreamingChatLanguageModel chatModel = modelRouter.route(context.meta(), conv.getModelParams(), permit);
+            TokenStream tokenStream = buildTokenStream(context, chatModel, request);
+
+            llmService.registerStreamingHandler(tokenStream, conv.getUuid(), persistHandler(conv, request, chatModel, context.meta().platform().getId(), cacheKey));
+        } catch (RuntimeException e) {
+            sseEmitterHelper.releaseSession(conv.getUuid(), sseEmitterHelper.getSessionInfo(conv.getUuid()));
+            throw e;
+        }
+        return emitter;
+    }
+
+    /**
+     * 响应式流式对话，事件协议与streamingChat一致
+     *
+     * @param request 请求参数
+     * @return SSE事件流，订阅时才获取许可并请求模型，未订阅时不占用许可
+     */
+    public Flux<ServerSentEvent<String>> reactiveChat(ChatReq request) {
+        ChatContext context = prefetch(request);
+        Conversation conv = context.conv();
+
+        ChatResponseCache.Key cacheKey = cacheKey(context, request);
+        String cached = cacheKey == null ? null : responseCache.get(cacheKey);
+        if (cached != null) {
+            return llmService.replayFlux(cached)
+                    .doOnComplete(() -> persistTurn(conv, request, cached, null, null));
+        }
+
+        return Flux.defer(() -> {
+            // 同一会话已有生成中的请求时直接拒绝，不占用配额
+            SessionInfo live = sseEmitterHelper.getSessionInfo(conv.getUuid());
+            if (live != null && live.isRunning()) {
+                return Flux.just(ServerSentEvent.builder(BUSY_MESSAGE).event(SseEventEnum.ERROR.getEvent()).build());
+            }
+            ChatConcurrencyLimiter.Permit permit = acquirePermit(conv, context);
+            if (permit == null) {
+                return Flux.just(ServerSentEvent.builder(REJECT_MESSAGE).event(SseEventEnum.ERROR.getEvent()).build());
+            }
+
+            try {
+                StreamingChatLanguageModel chatModel = modelRouter.route(context.meta(), conv.getModelParams(), permit);
+                TokenStream tokenStream = buildTokenStream(context, chatModel, request);
+
+                return llmService.streamFlux(tokenStream, conv.getUuid(), persistHandler(conv, request, chatModel, context.meta().platform().getId(), cacheKey))
+                        .doFinally(signal -> permit.release());
+            } catch (RuntimeException e) {
+                permit.release();
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * 先获取并发许可，再按平台配额排队，被并发数拒绝的请求不消耗平台配额
+     * @return 被拒绝时返回null
+     */
+    private ChatConcurrencyLimiter.Permit acquirePermit(Conversation conv, ChatContext context) {
+        Integer platformId = context.meta().platform().getId();
+        ChatConcurrencyLimiter.Permit permit = concurrencyLimiter.acquire(conv.getUserId(), platformId);
+        if (permit != null && !platformRateLimiter.acquire(platformId)) {
+            permit.release();
+            return null;
+        }
+        return permit;
+    }
+
+    /**
+     * 并发查询会话、模型/平台和历史消息，任一失败时取消其余查询
+     * <p>
+     * 历史消息等上一轮写入完成后加载，会话权限校验通过后才会被组装进上下文和响应缓存key；
+     * 模型所属平台的归属在返回前校验，之后才会读取响应缓存或占用平台配额
+     *
+     * @param request 请求参数
+     */
+    private ChatContext prefetch(ChatReq request) {
+        try (TaskScope scope = new TaskScope(chatExecutor)) {
+            Future<ChatModelCache.ModelMeta> meta = scope.fork(() -> modelService.getModelMeta(request.getModelId()));
+            Future<List<MessageDTO>> history = scope.fork(() -> {
+                // 上一轮对话异步写入，写完后才在历史缓存中可见
+                chatPersistService.awaitWritten(request.getConversationUuId(), prefetchTimeoutMs);
+                return messageService.queryMessageList(request.getConversationUuId());
+            });
+
+            // 权限校验在当前线程执行，失败时close会取消其余查询
+            Conversation conv = checkRequest(request);
+            scope.join(prefetchTimeoutMs);
+            ChatModelCache.ModelMeta modelMeta = meta.resultNow();
+            platformService.checkStatus(modelMeta.platform());
+            return new ChatContext(conv, modelMeta, history.resultNow());
+        }
+    }
+
+    /**
+     * 预取的对话上下文
+     *
+     * @param conv 会话
+     * @param meta 模型及所属平台
+     * @param history 会话全部消息，按时间正序
+     */
+    private record ChatContext(Conversation conv, ChatModelCache.ModelMeta meta, List<MessageDTO> history) {
+    }
+
+    private Conversation checkRequest(ChatReq request) {
         Conversation conv = conversationService.getAndCheck(request.getConversationUuId());
         if (StringUtils.isBlank(request.getUserMessage())) {
             throw BusinessException.newInstance(StatusEnum.ILLEGAL_ARGUMENTS, "用户请求不能为空");
         }
+        return conv;
+    }
 
-        SseEmitter emitter = sseEmitterHelper.createEmitter(request.getConversationUuId());
-        // Send begin event to signal streaming start
-        sseEmitterHelper.startSse(emitter);
-
-        // build model
-        StreamingChatLanguageModel chatModel = modelService.buildStreamChatLanguagesModel(request.getModelId(), conv.getModelParams());
-
+    private TokenStream buildTokenStream(ChatContext context, StreamingChatLanguageModel chatModel, ChatReq request) {
+        Conversation conv = context.conv();
         // TODO tools
 //        buildTools(request.getToolList());
         ChatAssistant chatAssistant = AiServices.builder(ChatAssistant.class)
@@ -73,24 +254,70 @@ public class ChatService {
 //                .tools()
                 .build();
 
-        // TODO 上下文限制
-        if (conv.getModelParams() != null && conv.getModelParams().getContextWindow() != null) {
+        // 按token预算选取历史消息
+        List<MessageDTO> messages = contextAssembler.assemble(conv, context.history(), PROMPT, request.getUserMessage());
+        // 复用上一轮的消息前缀，只追加新增的历史
+        List<ChatMessage> chatMessages = llmService.buildChatMessages(conv.getUuid(), messages, PROMPT, conv.getSummary());
+        chatMessages.add(MsgRoleEnum.User.createMessage(request.getUserMessage()));
+
+        return chatAssistant.chatMessages(chatMessages);
+    }
+
+    /**
+     * 响应缓存的key，未开启或请求带图片/工具时返回null
+     */
+    private ChatResponseCache.Key cacheKey(ChatContext context, ChatReq request) {
+        if (!responseCache.isEnable() || !CollectionUtils.isEmpty(request.getImageUrls())
+                || !CollectionUtils.isEmpty(request.getToolList())) {
+            return null;
         }
+        Conversation conv = context.conv();
+        List<MessageDTO> recent = MessageService.recentMessages(context.history(), conv.getSummaryMessageId(),
+                responseCache.getContextMessages());
+        return responseCache.key(conv.getUserId(), request.getModelId(), PROMPT, conv.getSummary(), recent, request.getUserMessage());
+    }
 
-        List<MessageDTO> messages = messageService.queryMessageList(conv.getUuid());
-        List<ChatMessage> chatMessages = llmService.buildChatMessages(messages, PROMPT);
-        chatMessages.add(MsgRoleEnum.User.createMessage(request.getUserMessage()));
+    /**
+     * 对话完成或停止后的持久化回调
+     *
+     * @param platformId 模型所属平台ID，摘要请求占用该平台的配额
+     * @param cacheKey   响应缓存的key，为空时不缓存
+     */
+    private BiConsumer<AiMessage, TokenUsage> persistHandler(Conversation conv, ChatReq request,
+                                                            StreamingChatLanguageModel chatModel, Integer platformId,
+                                                            ChatResponseCache.Key cacheKey) {
+        return (aiMessage, tokenUsage) -> {
+            // 停止时tokenUsage为空，只缓存完整的回答
+            if (cacheKey != null && tokenUsage != null) {
+                responseCache.put(cacheKey, aiMessage.text());
+            }
+            // 写入后历史过长时后台压缩为摘要
+            persistTurn(conv, request, aiMessage.text(), tokenUsage,
+                    () -> summaryService.summarizeIfNeeded(conv.getUuid(), platformId, chatModel));
+        };
+    }
 
-        TokenStream tokenStream = chatAssistant.chatMessages(chatMessages);
+    /**
+     * 用户消息、AI消息和会话时间在同一事务中异步写入
+     * <p>
+     * 用户消息只记录自身的token数；平台未返回输出token数（如中途停止）时按已生成的内容本地计算
+     */
+    private void persistTurn(Conversation conv, ChatReq request, String answer, TokenUsage tokenUsage, Runnable afterCommit) {
+        Integer outputTokens = Optional.ofNullable(tokenUsage).map(TokenUsage::outputTokenCount)
+                .orElseGet(() -> contextAssembler.estimateTokens(answer));
+        chatPersistService.submit(conv, request, answer, contextAssembler.estimateTokens(request.getUserMessage()),
+                outputTokens, afterCommit);
+    }
 
-        llmService.registerStreamingHandler(tokenStream, emitter, conv.getUuid(), (aiMessage, tokenUsage) -> {
-            Optional<TokenUsage> option = Optional.ofNullable(tokenUsage);
-            // TODO 考虑事务
-            messageService.saveUserMessage(request, option.map(TokenUsage::inputTokenCount).orElse(0));
-            messageService.saveAiMessage(aiMessage.text(), request, option.map(TokenUsage::outputTokenCount).orElse(0));
-            conversationService.updateTime(conv);
-        });
-        return emitter;
+    /**
+     * 断线重连，补发Last-Event-ID之后的内容
+     *
+     * @param uuid 会话UUID
+     * @param lastEventId 客户端收到的最后一个事件ID，为空时从头补发
+     */
+    public SseEmitter resumeChat(String uuid, Long lastEventId) {
+        conversationService.getAndCheck(uuid);
+        return sseEmitterHelper.resumeEmitter(uuid, lastEventId == null ? 0 : lastEventId);
     }
 
     public void stopChat(String uuid) {
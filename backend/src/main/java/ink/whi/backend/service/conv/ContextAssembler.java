@@ -0,0 +1,159 @@
+package ink.whi.backend.service.conv;
+
+import dev.langchain4j.model.Tokenizer;
+import ink.whi.backend.cache.PromptPrefixCache;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.common.dto.message.MessageDTO;
+import ink.whi.backend.common.enums.MsgRoleEnum;
+import ink.whi.backend.dao.entity.Conversation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 上下文组装
+ * <p>
+ * 按token预算从最新的消息往前选取历史消息，contextWindow限制对话轮数，maxTokens为模型输出预留空间。
+ * 窗口需要前移时一次多丢弃slideMessages条，之后几轮的起点保持不变，提示词前缀才能被复用
+ *
+ * @author: qing
+ * @Date: 2025/8/24
+ */
+@Slf4j
+@Service
+public class ContextAssembler {
+
+    @Autowired
+    private PromptPrefixCache promptPrefixCache;
+
+    @Autowired
+    private Tokenizer tokenizer;
+
+    /**
+     * 每轮请求的上下文token预算
+     */
+    @Value("${chat.context.max-tokens:16000}")
+    private int maxContextTokens;
+
+    /**
+     * 最多读取的历史消息条数
+     */
+    @Value("${chat.context.max-messages:64}")
+    private int maxMessages;
+
+    /**
+     * 窗口前移时额外丢弃的消息条数
+     */
+    @Value("${chat.context.slide-messages:8}")
+    private int slideMessages;
+
+    /**
+     * 组装本轮请求的历史消息，已被摘要覆盖的消息不再读取
+     *
+     * @param conv          会话
+     * @param history       预取的会话全部消息，按时间正序
+     * @param systemMessage 系统提示词
+     * @param userMessage   本轮用户消息
+     * @return 按时间正序的历史消息
+     */
+    public List<MessageDTO> assemble(Conversation conv, List<MessageDTO> history, String systemMessage, String userMessage) {
+        ModelParams params = conv.getModelParams();
+        int limit = maxMessages;
+        int budget = maxContextTokens - estimateTokens(systemMessage) - estimateTokens(conv.getSummary())
+                - estimateTokens(userMessage);
+        if (params != null) {
+            // contextWindow 为保留的对话轮数，一轮包含用户和AI两条消息
+            if (params.getContextWindow() != null && params.getContextWindow() > 0) {
+                limit = Math.min(limit, params.getContextWindow() * 2);
+            }
+            if (params.getMaxTokens() != null && params.getMaxTokens() > 0) {
+                budget -= params.getMaxTokens();
+            }
+        }
+        if (limit <= 0 || budget <= 0) {
+            return Collections.emptyList();
+        }
+
+        List<MessageDTO> recent = MessageService.recentMessages(history, conv.getSummaryMessageId(), limit);
+        return slide(fitBudget(recent, budget), promptPrefixCache.anchor(conv.getUuid()), conv.getSummaryMessageId());
+    }
+
+    /**
+     * 上一轮的起点仍在窗口内时从起点开始；起点已被挤出窗口时，多丢弃slideMessages条消息，留出后续几轮追加的空间
+     *
+     * @param window 按预算选取的消息
+     * @param anchor 上一轮第一条历史消息的ID
+     * @param summaryMessageId 摘要覆盖到的最后一条消息ID，起点被摘要覆盖时前缀本就需要重建，不额外丢弃
+     */
+    private List<MessageDTO> slide(List<MessageDTO> window, Integer anchor, Integer summaryMessageId) {
+        if (anchor == null || window.isEmpty() || slideMessages <= 0) {
+            return window;
+        }
+        for (int i = 0; i < window.size(); i++) {
+            if (Objects.equals(window.get(i).getId(), anchor)) {
+                return window.subList(i, window.size());
+            }
+        }
+        Integer first = window.get(0).getId();
+        if (first == null || first < anchor || (summaryMessageId != null && anchor <= summaryMessageId)) {
+            return window;
+        }
+        return alignToUser(window, Math.min(slideMessages, window.size()));
+    }
+
+    /**
+     * 从最新的消息往前选取，直到超出预算
+     *
+     * @param messages 按时间正序的消息
+     * @param budget   token预算
+     */
+    public List<MessageDTO> fitBudget(List<MessageDTO> messages, int budget) {
+        int start = messages.size();
+        int used = 0;
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            int tokens = countTokens(messages.get(i));
+            if (used + tokens > budget) {
+                break;
+            }
+            used += tokens;
+            start = i;
+        }
+
+        log.debug("上下文组装完成, 消息数: {}/{}, token: {}/{}", messages.size() - start, messages.size(), used, budget);
+        return alignToUser(messages, start);
+    }
+
+    /**
+     * 保证上下文以用户消息开头，避免出现没有提问的回答
+     */
+    private static List<MessageDTO> alignToUser(List<MessageDTO> messages, int start) {
+        while (start < messages.size() && !Objects.equals(messages.get(start).getRole(), MsgRoleEnum.User.getRole())) {
+            start++;
+        }
+        return messages.subList(start, messages.size());
+    }
+
+    /**
+     * 使用入库时记录的token数，没有记录时按内容计算
+     * 旧版本用户消息记录的是整次请求的输入token，升级时由sql/migration/message_user_tokens.sql置空
+     */
+    public int countTokens(MessageDTO message) {
+        Integer tokens = message.getTokens();
+        if (tokens == null || tokens <= 0) {
+            return estimateTokens(message.getContent());
+        }
+        return tokens;
+    }
+
+    /**
+     * 使用本地分词器计算token数
+     */
+    public int estimateTokens(String content) {
+        return content == null || content.isEmpty() ? 0 : tokenizer.estimateTokenCountInText(content);
+    }
+}
@@ -1,5 +1,6 @@
 package ink.whi.backend.service.conv;
 
+import com.baomidou.mybatisplus.extension.handlers.FastjsonTypeHandler;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import ink.whi.backend.common.context.ReqInfoContext;
 import ink.whi.backend.common.dto.chat.ModelParams;
@@ -10,6 +11,7 @@ import ink.whi.backend.dao.entity.Conversation;
 import ink.whi.backend.dao.mapper.ChatMapper;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
@@ -41,17 +43,13 @@ public class ConversationService extends ServiceImpl<ChatMapper, Conversation> {
                 .maxTokens(req.getMaxTokens())
                 .contextWindow(req.getContextWindow())
                 .build();
-        conv.setModelParams(params);
 
-        if (req.getTitle() != null) {
-            conv.setTitle(req.getTitle());
-        }
-
-        if (req.getSystemMessage() != null) {
-            conv.setSystemMessage(req.getSystemMessage());
-        }       
-
-        updateById(conv);
+        // 只更新编辑的字段，避免覆盖后台写入的摘要
+        lambdaUpdate().eq(Conversation::getId, conv.getId())
+                .set(Conversation::getModelParams, params, "typeHandler=" + FastjsonTypeHandler.class.getName())
+                .set(req.getTitle() != null, Conversation::getTitle, req.getTitle())
+                .set(req.getSystemMessage() != null, Conversation::getSystemMessage, req.getSystemMessage())
+                .update();
     }
 
     public void deleteConv(String uuid) {
@@ -76,6 +74,42 @@ public class ConversationService extends ServiceImpl<ChatMapper, Conversation> {
 
     public void updateTime(Conversation conv) {
         conv.setUpdateTime(new Date());
-        updateById(conv);
+        // 只更新时间，避免覆盖后台写入的摘要
+        lambdaUpdate().eq(Conversation::getId, conv.getId())
+                .set(Conversation::getUpdateTime, conv.getUpdateTime())
+                .update();
+    }
+
+    /**
+     * 批量更新会话时间
+     *
+     * @param ids  会话ID
+     * @param time 更新时间
+     */
+    public void touch(Collection<Integer> ids, Date time) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        lambdaUpdate().in(Conversation::getId, ids)
+                .set(Conversation::getUpdateTime, time)
+                .update();
+    }
+
+    public Conversation getByUuid(String uuid) {
+        return lambdaQuery().eq(Conversation::getUuid, uuid).oneOpt().orElse(null);
+    }
+
+    /**
+     * 更新历史对话摘要
+     *
+     * @param id               会话ID
+     * @param summary          摘要
+     * @param summaryMessageId 摘要覆盖到的最后一条消息ID
+     */
+    public void updateSummary(Integer id, String summary, Integer summaryMessageId) {
+        lambdaUpdate().eq(Conversation::getId, id)
+                .set(Conversation::getSummary, summary)
+                .set(Conversation::getSummaryMessageId, summaryMessageId)
+                .update();
     }
 }
@@ -1,6 +1,7 @@
 package ink.whi.backend.service.conv;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import ink.whi.backend.cache.MessageHistoryCache;
 import ink.whi.backend.common.context.ReqInfoContext;
 import ink.whi.backend.dao.converter.MessageConverter;
 import ink.whi.backend.common.dto.chat.ChatReq;
@@ -8,8 +9,10 @@ import ink.whi.backend.common.dto.message.MessageDTO;
 import ink.whi.backend.common.enums.MsgRoleEnum;
 import ink.whi.backend.dao.entity.Message;
 import ink.whi.backend.dao.mapper.MessageMapper;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -21,20 +24,67 @@ import java.util.List;
 @Service
 public class MessageService extends ServiceImpl<MessageMapper, Message> {
 
+    @Autowired
+    private MessageHistoryCache historyCache;
+
+    /**
+     * 查询会话的全部消息，优先读缓存
+     *
+     * @param uuid 会话UUID
+     */
     public List<MessageDTO> queryMessageList(String uuid) {
-        List<Message> list = lambdaQuery().eq(Message::getConversationUuid, uuid)
-                .orderByAsc(Message::getCreateTime)
-                .list();
-        return MessageConverter.toDTOList(list);
+        return historyCache.get(uuid, () -> {
+            List<Message> list = lambdaQuery().eq(Message::getConversationUuid, uuid)
+                    .orderByAsc(Message::getCreateTime)
+                    .orderByAsc(Message::getId)
+                    .list();
+            return MessageConverter.toDTOList(list);
+        });
+    }
+
+    /**
+     * 查询afterId之后的消息，按时间正序返回
+     *
+     * @param uuid    会话UUID
+     * @param afterId 起始消息ID（不含），为空时查询全部
+     */
+    public List<MessageDTO> queryMessagesAfter(String uuid, Integer afterId) {
+        List<MessageDTO> list = queryMessageList(uuid);
+        if (afterId == null) {
+            return list;
+        }
+        return list.stream().filter(msg -> msg.getId() > afterId).toList();
     }
-    
+
+    /**
+     * 截取afterId之后最近的limit条消息，按时间正序返回
+     *
+     * @param messages 按时间正序的消息
+     * @param afterId  起始消息ID（不含），为空时不限制
+     * @param limit    最大条数
+     */
+    public static List<MessageDTO> recentMessages(List<MessageDTO> messages, Integer afterId, int limit) {
+        List<MessageDTO> list = afterId == null ? messages
+                : messages.stream().filter(msg -> msg.getId() > afterId).toList();
+        return list.subList(Math.max(0, list.size() - limit), list.size());
+    }
+
     public void deleteAllMessages(String uuid) {
         lambdaUpdate().eq(Message::getConversationUuid, uuid).remove();
+        historyCache.invalidate(uuid);
     }
 
     public void saveUserMessage(ChatReq req, Integer token) {
+        saveAndCache(buildUserMessage(req, ReqInfoContext.getUserId(), token));
+    }
+
+    public void saveAiMessage(String aiMessage, ChatReq request, Integer token) {
+        saveAndCache(buildAiMessage(aiMessage, request, ReqInfoContext.getUserId(), token));
+    }
+
+    public Message buildUserMessage(ChatReq req, Integer userId, Integer token) {
         Message message = new Message();
-        message.setUserId(ReqInfoContext.getUserId());
+        message.setUserId(userId);
         message.setContent(req.getUserMessage());
         message.setRole(MsgRoleEnum.User);
         message.setConversationUuid(req.getConversationUuId());
@@ -45,19 +95,19 @@ public class MessageService extends ServiceImpl<MessageMapper, Message> {
         if (req.getImageUrls() != null && !req.getImageUrls().isEmpty()) {
             message.setAttachments(String.join(",", req.getImageUrls()));
         }
-        save(message);
+        return message;
     }
 
-    public void saveAiMessage(String aiMessage, ChatReq request, Integer token) {
+    public Message buildAiMessage(String aiMessage, ChatReq request, Integer userId, Integer token) {
         Message message = new Message();
-        message.setUserId(ReqInfoContext.getUserId());
+        message.setUserId(userId);
         message.setContent(aiMessage);
         message.setRole(MsgRoleEnum.Assistant);
         message.setConversationUuid(request.getConversationUuId());
         message.setModelId(request.getModelId());
 
         message.setTokens(token);
-        save(message);
+        return message;
     }
 
     public void saveMessage(String content, MsgRoleEnum role, String uuid, Integer modelId) {
@@ -67,7 +117,40 @@ public class MessageService extends ServiceImpl<MessageMapper, Message> {
         message.setRole(role);
         message.setConversationUuid(uuid);
         message.setModelId(modelId);
+        saveAndCache(message);
+    }
+
+    /**
+     * 写入数据库并追加到历史缓存
+     */
+    private void saveAndCache(Message message) {
+        Date now = new Date();
+        message.setCreateTime(now);
+        message.setUpdateTime(now);
         save(message);
+        historyCache.append(message.getConversationUuid(), MessageConverter.toDTO(message));
+    }
+
+    /**
+     * 批量写入，需在事务提交后调用appendToCache
+     *
+     * @param messages 按写入顺序排列的消息
+     */
+    public void saveBatchMessages(List<Message> messages) {
+        Date now = new Date();
+        for (Message message : messages) {
+            if (message.getCreateTime() == null) {
+                message.setCreateTime(now);
+            }
+            message.setUpdateTime(now);
+        }
+        saveBatch(messages);
+    }
+
+    public void appendToCache(List<Message> messages) {
+        for (Message message : messages) {
+            historyCache.append(message.getConversationUuid(), MessageConverter.toDTO(message));
+        }
     }
 
     public Message getLastMessage() {
@@ -0,0 +1,218 @@
+package ink.whi.backend.service.conv;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import ink.whi.backend.common.dto.message.MessageDTO;
+import ink.whi.backend.common.enums.MsgRoleEnum;
+import ink.whi.backend.dao.entity.Conversation;
+import ink.whi.backend.helper.ChatConcurrencyLimiter;
+import ink.whi.backend.helper.PlatformRateLimiter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.langchain4j.data.message.SystemMessage.systemMessage;
+import static dev.langchain4j.data.message.UserMessage.userMessage;
+
+/**
+ * 历史对话摘要
+ * <p>
+ * 对话完成后在后台检查未被摘要覆盖的消息，超过阈值时把较早的消息连同已有摘要压缩成新的摘要，
+ * 之后的请求只发送摘要和最近的消息。摘要请求优先级低于对话：不排队地获取平台并发许可和请求配额，拿不到时跳过，
+ * 下一轮对话完成后再检查
+ *
+ * @author: qing
+ * @Date: 2025/8/24
+ */
+@Slf4j
+@Service
+public class SummaryService {
+
+    private static final String SUMMARY_PROMPT = """
+            你是一个对话摘要助手。请将已有摘要和新的对话内容合并为一份简洁的摘要，
+            保留用户的关键信息、偏好、结论和未解决的问题，省略寒暄和重复内容，直接输出摘要正文。
+            """;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ConversationService conversationService;
+
+    @Autowired
+    private ContextAssembler contextAssembler;
+
+    @Autowired
+    private ChatConcurrencyLimiter concurrencyLimiter;
+
+    @Autowired
+    private PlatformRateLimiter platformRateLimiter;
+
+    /**
+     * 是否开启摘要
+     */
+    @Value("${chat.summary.enable:true}")
+    private boolean enable;
+
+    /**
+     * 未摘要消息的token数超过该值时触发摘要
+     */
+    @Value("${chat.summary.trigger-tokens:6000}")
+    private int triggerTokens;
+
+    /**
+     * 保留原文的最近消息条数
+     */
+    @Value("${chat.summary.keep-messages:6}")
+    private int keepMessages;
+
+    /**
+     * 正在摘要的会话，避免同一会话重复提交
+     */
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService executor = new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(256), new SummaryThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+
+    /**
+     * 提交后台摘要任务，只有超过阈值时才会调用模型
+     *
+     * @param uuid       会话UUID
+     * @param platformId 模型所属平台ID
+     * @param chatModel  当前会话使用的模型
+     */
+    public void summarizeIfNeeded(String uuid, Integer platformId, StreamingChatLanguageModel chatModel) {
+        if (!enable || !running.add(uuid)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    summarize(uuid, platformId, chatModel);
+                } catch (Exception e) {
+                    log.error("生成对话摘要失败, uuid: {}", uuid, e);
+                } finally {
+                    running.remove(uuid);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.remove(uuid);
+            log.warn("摘要队列已满，跳过, uuid: {}", uuid);
+        }
+    }
+
+    private void summarize(String uuid, Integer platformId, StreamingChatLanguageModel chatModel) throws Exception {
+        Conversation conv = conversationService.getByUuid(uuid);
+        if (conv == null) {
+            return;
+        }
+
+        List<MessageDTO> messages = messageService.queryMessagesAfter(uuid, conv.getSummaryMessageId());
+        int tokens = messages.stream().mapToInt(contextAssembler::countTokens).sum();
+        if (tokens < triggerTokens || messages.size() <= keepMessages) {
+            return;
+        }
+
+        // 保留最近的消息，且保留部分从用户消息开始
+        int end = messages.size() - keepMessages;
+        while (end > 0 && !Objects.equals(messages.get(end).getRole(), MsgRoleEnum.User.getRole())) {
+            end--;
+        }
+        if (end <= 0) {
+            return;
+        }
+        List<MessageDTO> toSummarize = messages.subList(0, end);
+
+        // 先检查并发再扣请求配额，平台已满时不消耗配额
+        ChatConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquirePlatform(platformId);
+        if (permit == null) {
+            log.info("平台繁忙，跳过摘要, uuid: {}", uuid);
+            return;
+        }
+        String summary;
+        try {
+            if (!platformRateLimiter.tryAcquire(platformId)) {
+                log.info("平台配额不足，跳过摘要, uuid: {}", uuid);
+                return;
+            }
+            summary = callModel(chatModel, buildPrompt(conv.getSummary(), toSummarize));
+        } finally {
+            permit.release();
+        }
+        if (summary == null || summary.isBlank()) {
+            return;
+        }
+        conversationService.updateSummary(conv.getId(), summary, toSummarize.get(toSummarize.size() - 1).getId());
+        log.info("对话摘要已更新, uuid: {}, 压缩消息数: {}, token: {}", uuid, toSummarize.size(), tokens);
+    }
+
+    private List<ChatMessage> buildPrompt(String oldSummary, List<MessageDTO> messages) {
+        StringBuilder content = new StringBuilder();
+        if (oldSummary != null && !oldSummary.isBlank()) {
+            content.append("已有摘要：\n").append(oldSummary).append("\n\n");
+        }
+        content.append("新的对话内容：\n");
+        for (MessageDTO message : messages) {
+            content.append(message.getRole()).append(": ").append(message.getContent()).append('\n');
+        }
+
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        chatMessages.add(systemMessage(SUMMARY_PROMPT));
+        chatMessages.add(userMessage(content.toString()));
+        return chatMessages;
+    }
+
+    private String callModel(StreamingChatLanguageModel chatModel, List<ChatMessage> messages) throws Exception {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        chatModel.chat(messages, new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse response) {
+                future.complete(response.aiMessage().text());
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                future.completeExceptionally(error);
+            }
+        });
+        return future.get(2, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    private static class SummaryThreadFactory implements ThreadFactory {
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "conv-summary-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
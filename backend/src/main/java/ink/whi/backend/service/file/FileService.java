@@ -47,4 +47,8 @@ public class FileService {
 
         return baseFile;
     }
+
+    public BaseFile getById(Integer id) {
+        return fileMapper.selectById(id);
+    }
 }
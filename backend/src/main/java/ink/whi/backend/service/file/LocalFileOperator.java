@@ -8,6 +8,19 @@ import dev.langchain4j.data.document.parser.apache.pdfbox.ApachePdfBoxDocumentPa
 import dev.langchain4j.data.document.parser.apache.poi.ApachePoiDocumentParser;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.ArrayUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
 
 
 @Slf4j
@@ -15,6 +28,11 @@ public class LocalFileOperator {
 
     public static final String[] POI_DOC_TYPES = {"doc", "docx", "ppt", "pptx", "xls", "xlsx"};
 
+    /**
+     * 文本文件每段的字符数
+     */
+    private static final int TEXT_SECTION_CHARS = 16 * 1024;
+
     public static Document loadDocument(String filePath, String ext) {
         try {
             Document result = null;
@@ -31,4 +49,65 @@ public class LocalFileOperator {
             throw e;
         }
     }
+
+    /**
+     * 分段读取文档，每读出一段就交给consumer处理，不在内存中保留整篇文档
+     * <p>
+     * PDF按页读取，解析缓存使用临时文件；文本文件按行累积到固定长度；Office文档无法流式解析，整篇作为一段
+     *
+     * @param filePath 文件路径
+     * @param ext 文件扩展名
+     * @param consumer 段落文本处理
+     * @return 不支持的文件类型返回false
+     */
+    public static boolean streamSections(String filePath, String ext, Consumer<String> consumer) {
+        try {
+            if (ext.equalsIgnoreCase("txt")) {
+                streamText(filePath, consumer);
+            } else if (ext.equalsIgnoreCase("pdf")) {
+                streamPdf(filePath, consumer);
+            } else if (ArrayUtils.contains(POI_DOC_TYPES, ext)) {
+                consumer.accept(loadDocument(filePath, ext).text());
+            } else {
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("load document error: {}", e.getMessage(), e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void streamPdf(String filePath, Consumer<String> consumer) throws IOException {
+        try (PDDocument document = PDDocument.load(new File(filePath), MemoryUsageSetting.setupTempFileOnly())) {
+            PDFTextStripper stripper = new PDFTextStripper();
+            for (int page = 1; page <= document.getNumberOfPages(); page++) {
+                stripper.setStartPage(page);
+                stripper.setEndPage(page);
+                String text = stripper.getText(document);
+                if (!text.isBlank()) {
+                    consumer.accept(text);
+                }
+            }
+        }
+    }
+
+    private static void streamText(String filePath, Consumer<String> consumer) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(Path.of(filePath)), StandardCharsets.UTF_8))) {
+            StringBuilder section = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                section.append(line).append('\n');
+                // 在空行处分段，过长时强制分段
+                if (section.length() >= TEXT_SECTION_CHARS && (line.isBlank() || section.length() >= TEXT_SECTION_CHARS * 2)) {
+                    consumer.accept(section.toString());
+                    section.setLength(0);
+                }
+            }
+            if (!section.toString().isBlank()) {
+                consumer.accept(section.toString());
+            }
+        }
+    }
 }
@@ -0,0 +1,200 @@
+package ink.whi.backend.service.knowledgeBase;
+
+import com.baomidou.mybatisplus.extension.conditions.update.LambdaUpdateChainWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import ink.whi.backend.common.enums.IngestJobStatusEnum;
+import ink.whi.backend.dao.entity.BaseFile;
+import ink.whi.backend.dao.entity.IngestJob;
+import ink.whi.backend.dao.entity.KnowledgeBaseItem;
+import ink.whi.backend.dao.mapper.IngestJobMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * 知识库索引任务表
+ * <p>
+ * 任务持久化在数据库中，节点通过租约领取：领取和续约都是带版本条件的更新（attempts每次领取加1），
+ * 同一任务同时只会被一个节点执行；节点宕机后租约到期，任务由其他节点接管并从checkpoint继续
+ *
+ * @author: qing
+ * @Date: 2025/9/2
+ */
+@Slf4j
+@Service
+public class IngestJobService extends ServiceImpl<IngestJobMapper, IngestJob> {
+
+    /**
+     * 租约时长(ms)，执行期间每批写入和每次轮询时续约
+     */
+    @Value("${kb.ingest.lease-ms:60000}")
+    private long leaseMs;
+
+    /**
+     * 最多执行次数，超过后标记为失败
+     */
+    @Value("${kb.ingest.max-attempts:5}")
+    private int maxAttempts;
+
+    /**
+     * 失败重试的初始/最大退避时间(ms)，每次失败翻倍
+     */
+    @Value("${kb.ingest.initial-backoff-ms:5000}")
+    private long initialBackoffMs;
+
+    @Value("${kb.ingest.max-backoff-ms:600000}")
+    private long maxBackoffMs;
+
+    /**
+     * 创建索引任务，需与条目在同一事务中调用
+     *
+     * @param item 知识库条目
+     * @param baseFile 源文件
+     */
+    public IngestJob enqueue(KnowledgeBaseItem item, BaseFile baseFile) {
+        IngestJob job = new IngestJob();
+        job.setKbId(item.getKbId());
+        job.setKbItemId(item.getId());
+        job.setFileId(baseFile.getId());
+        job.setFileSize(baseFile.getFileSize());
+        job.setStatus(IngestJobStatusEnum.PENDING);
+        job.setAttempts(0);
+        job.setCheckpoint(0);
+        job.setNextRunTime(LocalDateTime.now());
+        save(job);
+        return job;
+    }
+
+    public boolean existsForItem(Integer kbItemId) {
+        return lambdaQuery().eq(IngestJob::getKbItemId, kbItemId).count() > 0;
+    }
+
+    /**
+     * 领取可执行的任务：到期的待执行任务，以及租约已过期的执行中任务
+     *
+     * @param nodeId 当前节点
+     * @param limit 最多领取数
+     * @return 领取成功的任务
+     */
+    public List<IngestJob> claim(String nodeId, int limit) {
+        LocalDateTime now = LocalDateTime.now();
+        List<IngestJob> candidates = lambdaQuery()
+                .and(w -> w.eq(IngestJob::getStatus, IngestJobStatusEnum.PENDING).le(IngestJob::getNextRunTime, now)
+                        .or()
+                        .eq(IngestJob::getStatus, IngestJobStatusEnum.RUNNING).lt(IngestJob::getLeaseExpireTime, now))
+                .orderByAsc(IngestJob::getNextRunTime)
+                .last("limit " + limit * 2)
+                .list();
+
+        return candidates.stream()
+                .filter(job -> tryClaim(job, nodeId))
+                .limit(limit)
+                .toList();
+    }
+
+    private boolean tryClaim(IngestJob job, String nodeId) {
+        LocalDateTime expire = LocalDateTime.now().plus(leaseMs, ChronoUnit.MILLIS);
+        boolean claimed = lambdaUpdate()
+                .set(IngestJob::getStatus, IngestJobStatusEnum.RUNNING)
+                .set(IngestJob::getLeaseOwner, nodeId)
+                .set(IngestJob::getLeaseExpireTime, expire)
+                .setSql("attempts = attempts + 1")
+                .eq(IngestJob::getId, job.getId())
+                .eq(IngestJob::getStatus, job.getStatus())
+                .eq(IngestJob::getAttempts, job.getAttempts())
+                .update();
+        if (claimed) {
+            if (job.getStatus() == IngestJobStatusEnum.RUNNING) {
+                log.warn("接管租约过期的索引任务, jobId: {}, 原节点: {}", job.getId(), job.getLeaseOwner());
+            }
+            job.setStatus(IngestJobStatusEnum.RUNNING);
+            job.setLeaseOwner(nodeId);
+            job.setLeaseExpireTime(expire);
+            job.setAttempts(job.getAttempts() + 1);
+        }
+        return claimed;
+    }
+
+    public boolean exhausted(IngestJob job) {
+        return job.getAttempts() > maxAttempts;
+    }
+
+    /**
+     * 续约
+     * @return 租约已被其他节点接管时返回false
+     */
+    public boolean renew(IngestJob job) {
+        return ownedUpdate(job)
+                .set(IngestJob::getLeaseExpireTime, LocalDateTime.now().plus(leaseMs, ChronoUnit.MILLIS))
+                .update();
+    }
+
+    /**
+     * 记录已写入的分段数并续约
+     * @return 租约已被其他节点接管时返回false
+     */
+    public boolean checkpoint(IngestJob job, int segments) {
+        boolean owned = ownedUpdate(job)
+                .set(IngestJob::getCheckpoint, segments)
+                .set(IngestJob::getLeaseExpireTime, LocalDateTime.now().plus(leaseMs, ChronoUnit.MILLIS))
+                .update();
+        if (owned) {
+            job.setCheckpoint(segments);
+        }
+        return owned;
+    }
+
+    /**
+     * 标记任务完成
+     * @return 租约已失效或任务已删除时返回false
+     */
+    public boolean complete(IngestJob job) {
+        return ownedUpdate(job)
+                .set(IngestJob::getStatus, IngestJobStatusEnum.DONE)
+                .set(IngestJob::getLeaseOwner, null)
+                .set(IngestJob::getLeaseExpireTime, null)
+                .set(IngestJob::getLastError, null)
+                .update();
+    }
+
+    /**
+     * 执行失败，未超过最大次数时按指数退避重新排队
+     *
+     * @return 任务最终状态，租约已失效时返回null
+     */
+    public IngestJobStatusEnum fail(IngestJob job, Throwable error) {
+        boolean retry = job.getAttempts() < maxAttempts;
+        IngestJobStatusEnum status = retry ? IngestJobStatusEnum.PENDING : IngestJobStatusEnum.FAILED;
+        long backoff = Math.min(maxBackoffMs, initialBackoffMs << Math.min(20, Math.max(0, job.getAttempts() - 1)));
+        boolean owned = ownedUpdate(job)
+                .set(IngestJob::getStatus, status)
+                .set(IngestJob::getNextRunTime, LocalDateTime.now().plus(retry ? backoff : 0, ChronoUnit.MILLIS))
+                .set(IngestJob::getLeaseOwner, null)
+                .set(IngestJob::getLeaseExpireTime, null)
+                .set(IngestJob::getLastError, StringUtils.abbreviate(String.valueOf(error.getMessage()), 500))
+                .update();
+        if (!owned) {
+            return null;
+        }
+        if (retry) {
+            log.warn("索引任务失败, {}ms后重试, jobId: {}, attempts: {}", backoff, job.getId(), job.getAttempts());
+        }
+        return status;
+    }
+
+    /**
+     * 只更新当前节点持有的租约
+     */
+    private LambdaUpdateChainWrapper<IngestJob> ownedUpdate(IngestJob job) {
+        return lambdaUpdate()
+                .eq(IngestJob::getId, job.getId())
+                .eq(IngestJob::getStatus, IngestJobStatusEnum.RUNNING)
+                .eq(IngestJob::getLeaseOwner, job.getLeaseOwner())
+                .eq(IngestJob::getAttempts, job.getAttempts());
+    }
+}
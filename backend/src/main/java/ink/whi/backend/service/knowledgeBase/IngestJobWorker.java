@@ -0,0 +1,129 @@
+package ink.whi.backend.service.knowledgeBase;
+
+import ink.whi.backend.common.enums.EmbeddingStatusEnum;
+import ink.whi.backend.common.enums.IngestJobStatusEnum;
+import ink.whi.backend.common.exception.LeaseLostException;
+import ink.whi.backend.dao.entity.IngestJob;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 索引任务领取
+ * <p>
+ * 定时按本节点空闲的工作线程数从任务表领取任务，交给IngestionScheduler执行，并为执行中的任务续约
+ *
+ * @author: qing
+ * @Date: 2025/9/2
+ */
+@Slf4j
+@Component
+public class IngestJobWorker {
+
+    @Resource
+    private IngestJobService ingestJobService;
+
+    @Resource
+    private IngestionScheduler ingestionScheduler;
+
+    @Resource
+    private KnowledgeBaseItemService knowledgeBaseItemService;
+
+    /**
+     * 节点标识，默认随机生成
+     */
+    @Value("${kb.ingest.node-id:}")
+    private String nodeId;
+
+    @Value("${kb.ingest.poll-interval-ms:2000}")
+    private long pollIntervalMs;
+
+    /**
+     * jobId -> 本节点领取的任务
+     */
+    private final Map<Integer, IngestJob> running = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService poller;
+
+    @PostConstruct
+    public void init() {
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = UUID.randomUUID().toString();
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "kb-ingest-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::poll, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("索引任务领取已启动, nodeId: {}", nodeId);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        poller.shutdownNow();
+    }
+
+    private void poll() {
+        try {
+            for (IngestJob job : running.values()) {
+                if (!ingestJobService.renew(job)) {
+                    log.warn("索引任务租约已失效, jobId: {}", job.getId());
+                }
+            }
+
+            int idle = ingestionScheduler.idleSlots();
+            if (idle <= 0) {
+                return;
+            }
+            List<IngestJob> jobs = ingestJobService.claim(nodeId, idle);
+            for (IngestJob job : jobs) {
+                running.put(job.getId(), job);
+                long size = job.getFileSize() == null ? 0 : job.getFileSize();
+                if (!ingestionScheduler.submit(job.getKbId(), size, () -> execute(job))) {
+                    // 本地队列已满，留给租约到期后重新领取
+                    running.remove(job.getId());
+                }
+            }
+        } catch (Exception e) {
+            log.error("领取索引任务失败", e);
+        }
+    }
+
+    /**
+     * 执行任务，失败时抛出由调度器计数
+     */
+    private void execute(IngestJob job) {
+        try {
+            if (ingestJobService.exhausted(job)) {
+                // 多次在执行中宕机或超时的任务
+                throw new IllegalStateException("超过最大执行次数");
+            }
+            knowledgeBaseItemService.indexItem(job);
+            knowledgeBaseItemService.completeIndex(job);
+        } catch (LeaseLostException e) {
+            log.warn("索引任务已被其他节点接管, jobId: {}", job.getId());
+            throw e;
+        } catch (RuntimeException e) {
+            IngestJobStatusEnum status = ingestJobService.fail(job, e);
+            if (status != null) {
+                knowledgeBaseItemService.updateItemStatus(job.getKbItemId(),
+                        status == IngestJobStatusEnum.FAILED ? EmbeddingStatusEnum.FAILED : EmbeddingStatusEnum.PENDING);
+            }
+            throw e;
+        } finally {
+            running.remove(job.getId());
+        }
+    }
+}
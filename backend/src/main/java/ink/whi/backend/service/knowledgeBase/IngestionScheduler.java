@@ -0,0 +1,232 @@
+package ink.whi.backend.service.knowledgeBase;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 知识库文档索引调度
+ * <p>
+ * 文档解析和向量化使用独立的工作线程，不占用公共ForkJoinPool。排队总数有上限；
+ * 各知识库轮流出队，避免一次批量上传占满所有线程；同一知识库内小文档优先，等待过久的大文档逐步提前
+ *
+ * @author: qing
+ * @Date: 2025/9/2
+ */
+@Slf4j
+@Component
+public class IngestionScheduler {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 同时索引的文档数
+     */
+    @Value("${kb.ingest.parallelism:2}")
+    private int parallelism;
+
+    /**
+     * 排队文档数上限
+     */
+    @Value("${kb.ingest.queue-capacity:1000}")
+    private int queueCapacity;
+
+    /**
+     * 不超过该大小(byte)的文档优先处理
+     */
+    @Value("${kb.ingest.small-doc-bytes:1048576}")
+    private long smallDocBytes;
+
+    /**
+     * 大文档每等待该时间(ms)提升一级，不会被小文档一直插队
+     */
+    @Value("${kb.ingest.aging-ms:60000}")
+    private long agingMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * kbId -> 该知识库排队的文档
+     */
+    private final Map<Integer, List<Job>> queues = new HashMap<>();
+
+    /**
+     * 有排队文档的知识库，按轮转顺序出队
+     */
+    private final Deque<Integer> ring = new ArrayDeque<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean running;
+
+    private long sequence;
+
+    private Counter succeeded;
+
+    private Counter failed;
+
+    private Counter bytes;
+
+    private Timer duration;
+
+    @PostConstruct
+    public void init() {
+        meterRegistry.gauge("kb.ingest.queue.size", queued);
+        meterRegistry.gauge("kb.ingest.active", active);
+        succeeded = meterRegistry.counter("kb.ingest.completed", "result", "success");
+        failed = meterRegistry.counter("kb.ingest.completed", "result", "failed");
+        bytes = meterRegistry.counter("kb.ingest.bytes");
+        duration = meterRegistry.timer("kb.ingest.duration");
+
+        running = true;
+        for (int i = 0; i < Math.max(1, parallelism); i++) {
+            Thread worker = new Thread(this::runLoop, "kb-ingest-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * 空闲的工作线程数（扣除已排队的任务）
+     */
+    public int idleSlots() {
+        return Math.max(0, Math.max(1, parallelism) - active.get() - queued.get());
+    }
+
+    /**
+     * 提交索引任务
+     *
+     * @param kbId 知识库ID
+     * @param sizeBytes 文档大小，用于排序
+     * @param task 索引任务，异常由任务自己处理
+     * @return 队列已满时返回false
+     */
+    public boolean submit(Integer kbId, long sizeBytes, Runnable task) {
+        lock.lock();
+        try {
+            if (!running || queued.get() >= queueCapacity) {
+                return false;
+            }
+            List<Job> queue = queues.get(kbId);
+            if (queue == null) {
+                queue = new ArrayList<>();
+                queues.put(kbId, queue);
+                ring.addLast(kbId);
+            }
+            queue.add(new Job(sequence++, sizeBytes, System.currentTimeMillis(), task));
+            queued.incrementAndGet();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Job take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (ring.isEmpty()) {
+                notEmpty.await();
+            }
+            Integer kbId = ring.pollFirst();
+            // 排序随等待时间变化，出队时按当前顺序选取
+            List<Job> queue = queues.get(kbId);
+            int best = 0;
+            long now = System.currentTimeMillis();
+            for (int i = 1; i < queue.size(); i++) {
+                if (rank(queue.get(i), now) < rank(queue.get(best), now)) {
+                    best = i;
+                }
+            }
+            Job job = queue.remove(best);
+            if (queue.isEmpty()) {
+                queues.remove(kbId);
+            } else {
+                ring.addLast(kbId);
+            }
+            queued.decrementAndGet();
+            return job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runLoop() {
+        while (running) {
+            Job job;
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            active.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                job.task().run();
+                succeeded.increment();
+                bytes.increment(job.sizeBytes());
+            } catch (Exception e) {
+                failed.increment();
+                log.error("索引任务异常", e);
+            } finally {
+                duration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 排队的索引任务
+     *
+     * @param seq 提交顺序
+     * @param sizeBytes 文档大小
+     * @param submitTime 提交时间
+     * @param task 索引任务
+     */
+    private record Job(long seq, long sizeBytes, long submitTime, Runnable task) {
+    }
+
+    /**
+     * 同一知识库内的出队顺序：小文档在前，大文档按等待时间逐级提前，同级按提交顺序
+     */
+    private long rank(Job job, long now) {
+        long level = job.sizeBytes() <= smallDocBytes ? 0 : 1 + Math.min(job.sizeBytes() / smallDocBytes, 8);
+        if (level > 0 && agingMs > 0) {
+            level = Math.max(0, level - (now - job.submitTime()) / agingMs);
+        }
+        return (level << 48) | job.seq();
+    }
+}
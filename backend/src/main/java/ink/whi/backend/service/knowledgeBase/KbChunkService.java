@@ -0,0 +1,218 @@
+package ink.whi.backend.service.knowledgeBase;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.google.common.collect.Lists;
+import ink.whi.backend.dao.entity.KbChunk;
+import ink.whi.backend.dao.entity.IngestJob;
+import ink.whi.backend.dao.entity.KbChunkRef;
+import ink.whi.backend.dao.mapper.IngestJobMapper;
+import ink.whi.backend.dao.mapper.KbChunkMapper;
+import ink.whi.backend.dao.mapper.KbChunkRefMapper;
+import ink.whi.backend.dao.mapper.KnowledgeBaseItemMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 知识库分段去重
+ * <p>
+ * 分段按规范化文本和向量模型计算哈希，同一知识库内相同内容只向量化和存储一次，条目分段通过引用表指向它；
+ * 引用按(条目, 分段序号)唯一，重放同一批次不会重复计数。引用数降为0时删除分段记录和向量，
+ * 重新出现的内容使用新的向量ID，不会被正在进行的删除误删。登记引用时锁定条目的索引任务，
+ * 与删除条目（先删任务再释放引用）串行，已删除的条目不会重新登记引用
+ *
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+@Slf4j
+@Service
+public class KbChunkService extends ServiceImpl<KbChunkMapper, KbChunk> {
+
+    private static final int IN_BATCH = 500;
+
+    @Autowired
+    private KbChunkRefMapper kbChunkRefMapper;
+
+    @Autowired
+    private IngestJobMapper ingestJobMapper;
+
+    @Autowired
+    private KnowledgeBaseItemMapper knowledgeBaseItemMapper;
+
+    /**
+     * 分段内容哈希，忽略首尾空白和连续空白的差异
+     *
+     * @param text 分段文本
+     * @param modelId 向量模型标识，模型不同向量不可复用
+     */
+    public static String contentHash(String text, String modelId) {
+        String normalized = text.strip().replaceAll("\\s+", " ");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(modelId.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return HexFormat.of().formatHex(digest.digest(normalized.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 登记条目一批连续分段的引用，并返回每个分段对应的去重分段
+     * <p>
+     * 返回的分段未写入向量库（stored为false）时需由调用方向量化写入后调用{@link #markStored}
+     *
+     * @param kbId 知识库ID
+     * @param kbItemId 条目ID
+     * @param fromIndex 第一个分段的序号
+     * @param hashes 各分段的内容哈希
+     * @return 与hashes一一对应的去重分段
+     * @throws IllegalStateException 条目或其索引任务已被删除
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public List<KbChunk> acquire(Integer kbId, Integer kbItemId, int fromIndex, List<String> hashes) {
+        // 删除条目时先删除任务再释放引用，锁住任务行后两者不会交错
+        List<IngestJob> jobs = ingestJobMapper.selectList(Wrappers.<IngestJob>lambdaQuery()
+                .eq(IngestJob::getKbItemId, kbItemId)
+                .last("for update"));
+        if (jobs.isEmpty() || knowledgeBaseItemMapper.selectById(kbItemId) == null) {
+            throw new IllegalStateException("条目或索引任务已删除, kbItemId: " + kbItemId);
+        }
+
+        // 中断重放时已登记的引用不再计数
+        Set<Integer> registered = kbChunkRefMapper.selectList(Wrappers.<KbChunkRef>lambdaQuery()
+                        .eq(KbChunkRef::getKbItemId, kbItemId)
+                        .between(KbChunkRef::getSegIndex, fromIndex, fromIndex + hashes.size() - 1))
+                .stream()
+                .map(KbChunkRef::getSegIndex)
+                .collect(Collectors.toSet());
+
+        Map<String, Integer> increments = new LinkedHashMap<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            if (registered.contains(fromIndex + i)) {
+                continue;
+            }
+            KbChunkRef ref = new KbChunkRef();
+            ref.setKbId(kbId);
+            ref.setKbItemId(kbItemId);
+            ref.setSegIndex(fromIndex + i);
+            ref.setContentHash(hashes.get(i));
+            kbChunkRefMapper.insert(ref);
+            increments.merge(hashes.get(i), 1, Integer::sum);
+        }
+        increments.forEach((hash, count) -> increment(kbId, hash, count));
+
+        Map<String, KbChunk> chunks = lambdaQuery()
+                .eq(KbChunk::getKbId, kbId)
+                .in(KbChunk::getContentHash, new HashSet<>(hashes))
+                .list()
+                .stream()
+                .collect(Collectors.toMap(KbChunk::getContentHash, Function.identity()));
+        List<KbChunk> result = new ArrayList<>(hashes.size());
+        for (String hash : hashes) {
+            KbChunk chunk = chunks.get(hash);
+            if (chunk == null) {
+                throw new IllegalStateException("分段记录不存在, kbId: " + kbId + ", hash: " + hash);
+            }
+            result.add(chunk);
+        }
+        return result;
+    }
+
+    private void increment(Integer kbId, String hash, int count) {
+        while (true) {
+            boolean updated = lambdaUpdate()
+                    .setSql("ref_count = ref_count + " + count)
+                    .eq(KbChunk::getKbId, kbId)
+                    .eq(KbChunk::getContentHash, hash)
+                    .update();
+            if (updated) {
+                return;
+            }
+            KbChunk chunk = new KbChunk();
+            chunk.setKbId(kbId);
+            chunk.setContentHash(hash);
+            chunk.setEmbeddingId(UUID.randomUUID().toString());
+            chunk.setRefCount(count);
+            chunk.setStored(false);
+            try {
+                save(chunk);
+                return;
+            } catch (DuplicateKeyException e) {
+                // 其他条目同时写入了相同内容，改为累加引用数
+            }
+        }
+    }
+
+    /**
+     * 标记向量已写入向量库
+     */
+    public void markStored(List<Integer> chunkIds) {
+        if (chunkIds.isEmpty()) {
+            return;
+        }
+        lambdaUpdate().set(KbChunk::getStored, true).in(KbChunk::getId, chunkIds).update();
+    }
+
+    /**
+     * 释放条目的全部引用
+     *
+     * @param kbItemId 条目ID
+     * @return 引用数降为0、需要从向量库删除的向量ID
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public List<String> release(Integer kbItemId) {
+        List<KbChunkRef> refs = kbChunkRefMapper.selectList(Wrappers.<KbChunkRef>lambdaQuery()
+                .eq(KbChunkRef::getKbItemId, kbItemId));
+        if (refs.isEmpty()) {
+            return List.of();
+        }
+        Integer kbId = refs.get(0).getKbId();
+        Map<String, Long> decrements = refs.stream()
+                .collect(Collectors.groupingBy(KbChunkRef::getContentHash, Collectors.counting()));
+        decrements.forEach((hash, count) -> lambdaUpdate()
+                .setSql("ref_count = ref_count - " + count)
+                .eq(KbChunk::getKbId, kbId)
+                .eq(KbChunk::getContentHash, hash)
+                .update());
+        kbChunkRefMapper.delete(Wrappers.<KbChunkRef>lambdaQuery().eq(KbChunkRef::getKbItemId, kbItemId));
+
+        List<String> removed = new ArrayList<>();
+        for (List<String> hashes : Lists.partition(new ArrayList<>(decrements.keySet()), IN_BATCH)) {
+            List<KbChunk> orphans = lambdaQuery()
+                    .eq(KbChunk::getKbId, kbId)
+                    .in(KbChunk::getContentHash, hashes)
+                    .le(KbChunk::getRefCount, 0)
+                    .list();
+            for (KbChunk chunk : orphans) {
+                // 条件删除，期间被重新引用的分段保留
+                boolean deleted = lambdaUpdate()
+                        .eq(KbChunk::getId, chunk.getId())
+                        .le(KbChunk::getRefCount, 0)
+                        .remove();
+                if (deleted) {
+                    removed.add(chunk.getEmbeddingId());
+                }
+            }
+        }
+        log.info("释放条目分段引用, kbItemId: {}, 引用数: {}, 删除分段: {}", kbItemId, refs.size(), removed.size());
+        return removed;
+    }
+}
@@ -1,14 +1,16 @@
 package ink.whi.backend.service.knowledgeBase;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
 import ink.whi.backend.common.dto.knowledgeBase.ProcessSetting;
 import ink.whi.backend.dao.converter.KnowledgeBaseItemConverter;
 import ink.whi.backend.common.dto.knowledgeBase.KbItemDto;
 import ink.whi.backend.common.enums.EmbeddingStatusEnum;
 import ink.whi.backend.common.exception.BusinessException;
+import ink.whi.backend.common.exception.LeaseLostException;
 import ink.whi.backend.common.status.StatusEnum;
 import ink.whi.backend.dao.entity.BaseFile;
+import ink.whi.backend.dao.entity.IngestJob;
 import ink.whi.backend.dao.entity.KnowledgeBase;
 import ink.whi.backend.dao.entity.KnowledgeBaseItem;
 import ink.whi.backend.dao.mapper.KnowledgeBaseItemMapper;
@@ -18,14 +20,16 @@ import ink.whi.backend.service.file.FileService;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -47,6 +51,16 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
     @Resource
     private EmbeddingRagService embeddingRAGService;
 
+    @Resource
+    private IngestJobService ingestJobService;
+
+    /**
+     * 自身代理，批量上传时逐个文档走事务
+     */
+    @Lazy
+    @Resource
+    private KnowledgeBaseItemService self;
+
     /**
      * 根据知识库ID查询条目列表
      *
@@ -80,9 +94,8 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
             throw BusinessException.newInstance(StatusEnum.ILLEGAL_ARGUMENTS_MIXED, "文档不能为空");
         }
 
-        List<KnowledgeBaseItem> items = new ArrayList<>();
         for (MultipartFile doc : docs) {
-            uploadDoc(kbId, doc);
+            self.uploadDoc(kbId, doc);
         }
 
         return true;
@@ -98,52 +111,100 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
         // 2. 将文件转为kb item并保存
         KnowledgeBaseItem item = saveItemFormFile(baseFile, kb);
 
-        // 3. 异步索引文档
-        asyncIndexDocument(baseFile, item);
+        // 3. 与条目在同一事务中创建索引任务，由IngestJobWorker领取执行
+        ingestJobService.enqueue(item, baseFile);
         return getById(item.getId());
     }
 
     /**
-     * 异步索引文档
-     *
-     * @param baseFile 文件信息
-     * @param item     知识库条目
+     * 启动时为没有索引任务的未完成条目补建任务，切分中的条目先清除已写入的向量
      */
-    private void asyncIndexDocument(BaseFile baseFile, KnowledgeBaseItem item) {
-        CompletableFuture.runAsync(() -> {
-            try {
-                // 更新状态为切分中
-                updateItemStatus(item.getId(), EmbeddingStatusEnum.SPLITTING);
-
-                // 1. 使用fileOperator加载文档
-                Document document = LocalFileOperator.loadDocument(baseFile.getPath(), baseFile.getExt());
-                if (document == null) {
-                    updateItemStatus(item.getId(), EmbeddingStatusEnum.FAILED);
-                    return;
-                }
-
-                // 2. 设置文档元数据
-                document.metadata().put("kbItemId", item.getId().toString());
-                document.metadata().put("kbId", item.getKbId().toString());
-
-                // 3. DocumentSplitter & 4. EmbeddingStoreIngestor
-                KnowledgeBase kb = knowledgeBaseService.getById(item.getKbId());
-                ProcessSetting settings = ProcessSetting.builder()
-                        .blockSize(kb.getBlockSize())
-                        .maxOverlap(kb.getMaxOverlap())
-                        .processType(kb.getProcessType())
-                        .build();
-                embeddingRAGService.ingest(document, settings);
-
-                // 更新状态为已索引
-                updateItemStatus(item.getId(), EmbeddingStatusEnum.INDEXED);
-
-                // todo 设置item 向量数
-            } catch (Exception e) {
-                log.error("索引文档失败: {}", e.getMessage(), e);
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumePendingItems() {
+        List<KnowledgeBaseItem> items = lambdaQuery()
+                .in(KnowledgeBaseItem::getEmbeddingStatus, EmbeddingStatusEnum.PENDING, EmbeddingStatusEnum.SPLITTING)
+                .orderByAsc(KnowledgeBaseItem::getId)
+                .list();
+        int created = 0;
+        for (KnowledgeBaseItem item : items) {
+            if (ingestJobService.existsForItem(item.getId())) {
+                continue;
+            }
+            BaseFile baseFile = fileService.getById(item.getSourceId());
+            if (baseFile == null) {
                 updateItemStatus(item.getId(), EmbeddingStatusEnum.FAILED);
+                continue;
+            }
+            if (item.getEmbeddingStatus() == EmbeddingStatusEnum.SPLITTING) {
+                embeddingRAGService.removeByItem(item.getId());
+                updateItemStatus(item.getId(), EmbeddingStatusEnum.PENDING);
+            }
+            try {
+                ingestJobService.enqueue(item, baseFile);
+                created++;
+            } catch (DuplicateKeyException e) {
+                // 其他节点已补建
+            }
+        }
+        if (created > 0) {
+            log.info("补建未完成条目的索引任务: {}", created);
+        }
+    }
+
+    /**
+     * 执行索引任务，从任务的checkpoint继续，每批写入后记录进度并续约
+     *
+     * @param job 已领取的索引任务
+     * @throws LeaseLostException 租约已被其他节点接管
+     */
+    public void indexItem(IngestJob job) {
+        KnowledgeBaseItem item = getById(job.getKbItemId());
+        BaseFile baseFile = fileService.getById(job.getFileId());
+        if (item == null || baseFile == null) {
+            throw new IllegalStateException("条目或源文件不存在, jobId: " + job.getId());
+        }
+
+        // 更新状态为切分中
+        updateItemStatus(item.getId(), EmbeddingStatusEnum.SPLITTING);
+
+        // 1. 设置文档元数据
+        Metadata metadata = new Metadata();
+        metadata.put("kbItemId", item.getId().toString());
+        metadata.put("kbId", item.getKbId().toString());
+
+        // 2. 分段读取文档，切分、向量化并分批写入
+        KnowledgeBase kb = knowledgeBaseService.getById(item.getKbId());
+        ProcessSetting settings = ProcessSetting.builder()
+                .blockSize(kb.getBlockSize())
+                .maxOverlap(kb.getMaxOverlap())
+                .processType(kb.getProcessType())
+                .build();
+        try (EmbeddingRagService.Ingestion ingestion = embeddingRAGService.openIngestion(metadata, settings, job.getCheckpoint(), segments -> {
+            if (!ingestJobService.checkpoint(job, segments)) {
+                throw new LeaseLostException(job.getId());
+            }
+        })) {
+            if (!LocalFileOperator.streamSections(baseFile.getPath(), baseFile.getExt(), ingestion)) {
+                throw new IllegalStateException("不支持的文件类型: " + baseFile.getExt());
             }
-        });
+            ingestion.complete();
+        }
+
+        // todo 设置item 向量数
+    }
+
+    /**
+     * 完成索引任务并将条目标记为已索引，仅当任务仍由当前节点持有时更新
+     *
+     * @param job 已执行完的索引任务
+     * @throws LeaseLostException 租约已被其他节点接管或任务已删除
+     */
+    @Transactional
+    public void completeIndex(IngestJob job) {
+        if (!ingestJobService.complete(job)) {
+            throw new LeaseLostException(job.getId());
+        }
+        updateItemStatus(job.getKbItemId(), EmbeddingStatusEnum.INDEXED);
     }
 
     public KnowledgeBaseItem saveItemFormFile(BaseFile file, KnowledgeBase kb) {
@@ -167,7 +228,7 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
      * @param itemId 状态
      * @param status 状态
      */
-    private void updateItemStatus(Integer itemId, EmbeddingStatusEnum status) {
+    public void updateItemStatus(Integer itemId, EmbeddingStatusEnum status) {
         KnowledgeBaseItem item = new KnowledgeBaseItem();
         item.setId(itemId);
         item.setEmbeddingStatus(status);
@@ -195,8 +256,11 @@ public class KnowledgeBaseItemService extends ServiceImpl<KnowledgeBaseItemMappe
         // 检查权限
         knowledgeBaseService.getAndCheck(item.getKbId().intValue());
 
-        // 删除条目
+        // 删除条目和索引任务，执行中的任务在下次写入checkpoint或登记分段引用时中断
         removeById(itemId);
+        ingestJobService.lambdaUpdate().eq(IngestJob::getKbItemId, item.getId()).remove();
+        // 释放分段引用，不再被引用的向量一并删除；任务行已删除，执行中的任务无法再登记引用
+        embeddingRAGService.removeByItem(item.getId());
         return true;
     }
 }
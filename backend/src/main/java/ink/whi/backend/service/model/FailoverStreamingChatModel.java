@@ -0,0 +1,372 @@
+package ink.whi.backend.service.model;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.output.Response;
+import ink.whi.backend.common.exception.StreamCancelledException;
+import ink.whi.backend.helper.ChatConcurrencyLimiter;
+import ink.whi.backend.utils.StreamHandle;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 跨平台故障转移/对冲的流式模型
+ * <p>
+ * 按顺序尝试同名模型的多个平台实例：首token超时或出错时切换到下一个实例（故障转移）；
+ * 开启对冲时，首token等待超过hedgeDelay就并发请求下一个实例。最先返回token的请求胜出，
+ * 其余请求通过各自的取消句柄立即关闭上游连接。胜出后的错误直接返回，不再切换，避免内容重复。
+ * 发往备份实例的请求先获取该平台的并发许可和请求配额，拿不到则跳过该实例，请求结束或被放弃时释放；
+ * 首选实例的平台许可由调用方持有，首选实例被放弃时提前归还其中的平台许可，用户许可仍保留到对话结束
+ *
+ * @author: qing
+ * @Date: 2025/8/31
+ */
+@Slf4j
+public class FailoverStreamingChatModel implements StreamingChatLanguageModel {
+
+    private final List<ModelRouter.Candidate> candidates;
+
+    /**
+     * 调用方为首选实例持有的许可，可能为null
+     */
+    private final ChatConcurrencyLimiter.Permit primaryPermit;
+
+    private final ModelRouter router;
+
+    private final ScheduledExecutorService scheduler;
+
+    public FailoverStreamingChatModel(List<ModelRouter.Candidate> candidates, ChatConcurrencyLimiter.Permit primaryPermit,
+                                      ModelRouter router, ScheduledExecutorService scheduler) {
+        this.candidates = candidates;
+        this.primaryPermit = primaryPermit;
+        this.router = router;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void chat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+        // 调用线程绑定的会话句柄，定时器线程发起的对冲/切换请求也登记到它下面
+        StreamHandle handle = StreamHandle.current();
+        new Race(chatRequest, handler, handle == null ? new StreamHandle() : handle).startNext();
+    }
+
+    /**
+     * 旧接口，转为chat调用
+     */
+    @Override
+    public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+        chat(ChatRequest.builder().messages(messages).build(), new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                handler.onNext(partialResponse);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse completeResponse) {
+                handler.onComplete(Response.from(completeResponse.aiMessage(), completeResponse.tokenUsage(),
+                        completeResponse.finishReason()));
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                handler.onError(error);
+            }
+        });
+    }
+
+    /**
+     * 一次对话请求中各实例的竞争状态
+     */
+    private class Race {
+
+        private final ChatRequest request;
+
+        private final StreamingChatResponseHandler handler;
+
+        private final StreamHandle handle;
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final List<Attempt> running = new ArrayList<>();
+
+        private int next;
+
+        private Attempt winner;
+
+        private boolean done;
+
+        private ScheduledFuture<?> hedgeTimer;
+
+        private ScheduledFuture<?> timeoutTimer;
+
+        Race(ChatRequest request, StreamingChatResponseHandler handler, StreamHandle handle) {
+            this.request = request;
+            this.handler = handler;
+            this.handle = handle;
+        }
+
+        /**
+         * 启动下一个实例，没有可用实例时返回false
+         */
+        boolean startNext() {
+            Attempt attempt;
+            lock.lock();
+            try {
+                if (done || winner != null) {
+                    return false;
+                }
+                ModelRouter.Candidate candidate = null;
+                ChatConcurrencyLimiter.Permit permit = null;
+                boolean primary = false;
+                while (candidate == null && next < candidates.size()) {
+                    ModelRouter.Candidate current = candidates.get(next);
+                    // 首选实例的许可由调用方持有
+                    if (next++ == 0) {
+                        candidate = current;
+                        permit = primaryPermit;
+                        primary = true;
+                    } else if ((permit = router.acquireBackup(current)) != null) {
+                        candidate = current;
+                    } else {
+                        log.warn("备份实例并发或配额已满, 跳过: {}", current);
+                    }
+                }
+                if (candidate == null) {
+                    return false;
+                }
+                attempt = new Attempt(this, candidate, handle.child(), permit, primary);
+                running.add(attempt);
+                scheduleTimers(candidate);
+            } finally {
+                lock.unlock();
+            }
+            try {
+                attempt.handle.run(() -> attempt.candidate.model().chat(request, attempt));
+            } catch (Exception e) {
+                attempt.onError(e);
+            }
+            return true;
+        }
+
+        private void scheduleTimers(ModelRouter.Candidate candidate) {
+            cancelTimers();
+            if (next < candidates.size()) {
+                long hedgeDelay = router.hedgeDelayMs(candidate);
+                if (hedgeDelay > 0) {
+                    hedgeTimer = scheduler.schedule(this::onHedge, hedgeDelay, TimeUnit.MILLISECONDS);
+                }
+            }
+            timeoutTimer = scheduler.schedule(this::onFirstTokenTimeout, candidate.firstTokenTimeoutMs(),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        private void cancelTimers() {
+            if (hedgeTimer != null) {
+                hedgeTimer.cancel(false);
+            }
+            if (timeoutTimer != null) {
+                timeoutTimer.cancel(false);
+            }
+        }
+
+        private void onHedge() {
+            if (startNext()) {
+                router.recordHedge();
+            }
+        }
+
+        /**
+         * 首token超时，放弃正在等待的请求，切换到下一个实例
+         */
+        private void onFirstTokenTimeout() {
+            lock.lock();
+            try {
+                if (done || winner != null) {
+                    return;
+                }
+                running.forEach(Attempt::abandon);
+                running.clear();
+            } finally {
+                lock.unlock();
+            }
+            log.warn("首token超时, 切换实例");
+            router.recordFailover();
+            if (!startNext()) {
+                fail(new IllegalStateException("模型响应超时"));
+            }
+        }
+
+        /**
+         * 首个token到达，决定胜出者
+         * @return 该请求是否为胜出者
+         */
+        boolean claim(Attempt attempt) {
+            lock.lock();
+            try {
+                if (winner == null && !done && !attempt.abandoned) {
+                    winner = attempt;
+                    cancelTimers();
+                    running.stream().filter(other -> other != attempt).forEach(Attempt::abandon);
+                    running.clear();
+                    router.recordFirstToken(attempt.candidate, System.nanoTime() - attempt.startNanos);
+                }
+                return winner == attempt;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onAttemptError(Attempt attempt, Throwable error) {
+            boolean failover;
+            lock.lock();
+            try {
+                if (done || attempt.abandoned) {
+                    return;
+                }
+                if (winner == attempt) {
+                    done = true;
+                    failover = false;
+                } else {
+                    running.remove(attempt);
+                    // 还有其他请求在等待首token时交给它们，否则切换到下一个实例
+                    if (!running.isEmpty()) {
+                        return;
+                    }
+                    failover = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (failover) {
+                log.warn("模型请求失败, 切换实例: {}", error.getMessage());
+                router.recordFailover();
+                if (startNext()) {
+                    return;
+                }
+            }
+            fail(error);
+        }
+
+        void onAttemptComplete(Attempt attempt, ChatResponse response) {
+            lock.lock();
+            try {
+                // 没有输出token直接完成的请求也可以胜出
+                if (done || (winner != null && winner != attempt) || attempt.abandoned) {
+                    return;
+                }
+                winner = attempt;
+                done = true;
+                cancelTimers();
+                running.stream().filter(other -> other != attempt).forEach(Attempt::abandon);
+            } finally {
+                lock.unlock();
+            }
+            handler.onCompleteResponse(response);
+        }
+
+        private void fail(Throwable error) {
+            lock.lock();
+            try {
+                done = true;
+                cancelTimers();
+                running.forEach(Attempt::abandon);
+                running.clear();
+            } finally {
+                lock.unlock();
+            }
+            handler.onError(error);
+        }
+    }
+
+    /**
+     * 单个实例的请求
+     */
+    private static class Attempt implements StreamingChatResponseHandler {
+
+        private final Race race;
+
+        private final ModelRouter.Candidate candidate;
+
+        private final StreamHandle handle;
+
+        /**
+         * 该实例的平台许可，首选实例为调用方的许可
+         */
+        private final ChatConcurrencyLimiter.Permit permit;
+
+        /**
+         * 首选实例只归还平台许可，用户许可由调用方在对话结束时释放
+         */
+        private final boolean primary;
+
+        private final long startNanos = System.nanoTime();
+
+        private volatile boolean abandoned;
+
+        Attempt(Race race, ModelRouter.Candidate candidate, StreamHandle handle, ChatConcurrencyLimiter.Permit permit,
+                boolean primary) {
+            this.race = race;
+            this.candidate = candidate;
+            this.handle = handle;
+            this.permit = permit;
+            this.primary = primary;
+        }
+
+        /**
+         * 放弃该请求并关闭上游连接
+         */
+        void abandon() {
+            abandoned = true;
+            handle.cancel();
+            release();
+        }
+
+        private void release() {
+            if (permit == null) {
+                return;
+            }
+            if (primary) {
+                permit.releasePlatform();
+            } else {
+                permit.release();
+            }
+        }
+
+        @Override
+        public void onPartialResponse(String token) {
+            if (abandoned || !race.claim(this)) {
+                // 不支持取消句柄的平台靠抛出异常中断落败请求的上游流
+                handle.cancel();
+                throw new StreamCancelledException(candidate.toString());
+            }
+            race.handler.onPartialResponse(token);
+        }
+
+        @Override
+        public void onCompleteResponse(ChatResponse response) {
+            release();
+            race.onAttemptComplete(this, response);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            release();
+            // 落败或超时被放弃的请求，关闭连接引起的异常不影响结果
+            if (abandoned) {
+                return;
+            }
+            race.onAttemptError(this, error);
+        }
+    }
+}
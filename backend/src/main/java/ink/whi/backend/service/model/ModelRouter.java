@@ -0,0 +1,272 @@
+package ink.whi.backend.service.model;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import ink.whi.backend.cache.ChatModelCache;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.common.exception.BusinessException;
+import ink.whi.backend.dao.entity.Model;
+import ink.whi.backend.dao.entity.Platform;
+import ink.whi.backend.helper.ChatConcurrencyLimiter;
+import ink.whi.backend.helper.PlatformRateLimiter;
+import ink.whi.backend.service.model.adapter.StreamingModelAdapterRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模型路由
+ * <p>
+ * 同一用户在不同平台下创建的同名模型视为等价模型，请求优先发往所选模型，
+ * 首token超时或出错时切换到等价模型，开启对冲时按该模型首token延迟的p95提前请求下一个实例。
+ * 没有可用等价模型时直接返回所选模型；切换和对冲发出的请求同样占用目标平台的并发许可和请求配额
+ *
+ * @author: qing
+ * @Date: 2025/8/31
+ */
+@Slf4j
+@Service
+public class ModelRouter {
+
+    /**
+     * 统计首token延迟的样本数
+     */
+    private static final int LATENCY_WINDOW = 128;
+
+    /**
+     * 样本数不足时使用配置的初始对冲延迟
+     */
+    private static final int MIN_SAMPLES = 20;
+
+    @Resource
+    private ModelService modelService;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private StreamingModelAdapterRegistry adapterRegistry;
+
+    @Resource
+    private ChatConcurrencyLimiter concurrencyLimiter;
+
+    @Resource
+    private PlatformRateLimiter platformRateLimiter;
+
+    @Value("${chat.routing.enable:false}")
+    private boolean enable;
+
+    /**
+     * 首token超时时间(ms)，超时后切换实例；各平台适配器可以放宽（如Ollama不短于其请求超时）
+     */
+    @Value("${chat.routing.first-token-timeout-ms:120000}")
+    private long firstTokenTimeoutMs;
+
+    @Value("${chat.routing.hedge.enable:false}")
+    private boolean hedgeEnable;
+
+    /**
+     * 样本不足时的对冲延迟(ms)
+     */
+    @Value("${chat.routing.hedge.initial-delay-ms:3000}")
+    private long hedgeInitialDelayMs;
+
+    /**
+     * 对冲延迟下限(ms)，避免成倍放大请求量
+     */
+    @Value("${chat.routing.hedge.min-delay-ms:500}")
+    private long hedgeMinDelayMs;
+
+    /**
+     * modelId -> 等价模型ID
+     */
+    private final Cache<Integer, List<Integer>> equivalents = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    private final Map<Integer, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private Counter failoverCounter;
+
+    private Counter hedgeCounter;
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "model-router");
+            thread.setDaemon(true);
+            return thread;
+        });
+        failoverCounter = meterRegistry.counter("chat.routing.failover");
+        hedgeCounter = meterRegistry.counter("chat.routing.hedge");
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * 构建带故障转移的流式模型
+     *
+     * @param meta 所选模型及平台
+     * @param params 会话的模型参数
+     * @param permit 调用方持有的许可，首选实例被放弃时提前归还其中的平台许可，可以为null
+     */
+    public StreamingChatLanguageModel route(ChatModelCache.ModelMeta meta, ModelParams params,
+                                            ChatConcurrencyLimiter.Permit permit) {
+        StreamingChatLanguageModel primary = modelService.buildStreamChatLanguagesModel(meta, params);
+        if (!enable) {
+            return primary;
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        candidates.add(new Candidate(meta.model().getId(), meta.platform().getId(), primary,
+                firstTokenTimeoutMs(meta.platform())));
+        for (Integer modelId : equivalentModelIds(meta.model())) {
+            try {
+                ChatModelCache.ModelMeta alt = modelService.getModelMeta(modelId);
+                if (Boolean.FALSE.equals(alt.platform().getEnable())) {
+                    continue;
+                }
+                candidates.add(new Candidate(modelId, alt.platform().getId(),
+                        modelService.buildStreamChatLanguagesModel(alt, params), firstTokenTimeoutMs(alt.platform())));
+            } catch (BusinessException e) {
+                log.info("跳过不可用的等价模型, modelId: {}, {}", modelId, e.getMessage());
+            }
+        }
+        // 没有备份实例时无需切换，卡住的流由会话的空闲超时中止
+        if (candidates.size() == 1) {
+            return primary;
+        }
+        return new FailoverStreamingChatModel(candidates, permit, this, scheduler);
+    }
+
+    private long firstTokenTimeoutMs(Platform platform) {
+        return adapterRegistry.get(platform.getPlatformType()).firstTokenTimeoutMs(firstTokenTimeoutMs);
+    }
+
+    private List<Integer> equivalentModelIds(Model model) {
+        try {
+            return equivalents.get(model.getId(), () -> modelService.lambdaQuery()
+                    .eq(Model::getUserId, model.getUserId())
+                    .eq(Model::getName, model.getName())
+                    .ne(Model::getId, model.getId())
+                    .list().stream()
+                    .filter(alt -> !Objects.equals(alt.getPlatformId(), model.getPlatformId()))
+                    .map(Model::getId)
+                    .toList());
+        } catch (ExecutionException e) {
+            log.warn("查询等价模型失败, modelId: {}", model.getId(), e);
+            return List.of();
+        }
+    }
+
+    /**
+     * 为切换/对冲发往备份实例的请求获取平台并发许可和请求配额，不排队等待
+     * <p>
+     * 首选实例的许可在进入对话时已获取，这里只处理额外发出的请求
+     *
+     * @return 许可，任一限制不满足时返回null，调用方跳过该实例
+     */
+    ChatConcurrencyLimiter.Permit acquireBackup(Candidate candidate) {
+        ChatConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquirePlatform(candidate.platformId());
+        if (permit == null) {
+            return null;
+        }
+        if (!platformRateLimiter.tryAcquire(candidate.platformId())) {
+            permit.release();
+            return null;
+        }
+        return permit;
+    }
+
+    /**
+     * 对冲延迟，取该实例首token延迟的p95
+     * @return 未开启对冲时返回0
+     */
+    long hedgeDelayMs(Candidate candidate) {
+        if (!hedgeEnable) {
+            return 0;
+        }
+        LatencyWindow window = latencies.get(candidate.modelId());
+        long p95 = window == null ? -1 : window.percentile(0.95);
+        return p95 < 0 ? hedgeInitialDelayMs : Math.max(hedgeMinDelayMs, p95);
+    }
+
+    void recordFirstToken(Candidate candidate, long nanos) {
+        latencies.computeIfAbsent(candidate.modelId(), id -> new LatencyWindow())
+                .add(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    void recordFailover() {
+        failoverCounter.increment();
+    }
+
+    void recordHedge() {
+        hedgeCounter.increment();
+    }
+
+    /**
+     * 路由候选实例
+     *
+     * @param modelId 模型ID
+     * @param platformId 平台ID
+     * @param model 构建好的流式模型
+     * @param firstTokenTimeoutMs 该实例的首token超时时间(ms)
+     */
+    public record Candidate(Integer modelId, Integer platformId, StreamingChatLanguageModel model,
+                            long firstTokenTimeoutMs) {
+        @Override
+        public String toString() {
+            return "model:" + modelId + "@platform:" + platformId;
+        }
+    }
+
+    /**
+     * 最近LATENCY_WINDOW次首token延迟
+     */
+    private static class LatencyWindow {
+        private final long[] samples = new long[LATENCY_WINDOW];
+
+        private int next;
+
+        private int count;
+
+        synchronized void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % LATENCY_WINDOW;
+            count = Math.min(count + 1, LATENCY_WINDOW);
+        }
+
+        synchronized long percentile(double p) {
+            int size = count;
+            if (size < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) (size * p))];
+        }
+    }
+}
@@ -2,7 +2,7 @@ package ink.whi.backend.service.model;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import dev.langchain4j.model.chat.StreamingChatLanguageModel;
-import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import ink.whi.backend.cache.ChatModelCache;
 import ink.whi.backend.common.context.ReqInfoContext;
 import ink.whi.backend.common.dto.chat.ModelParams;
 import ink.whi.backend.common.dto.model.ModelUpdateReq;
@@ -15,6 +15,9 @@ import ink.whi.backend.dao.entity.Model;
 import ink.whi.backend.dao.entity.BaseEntity;
 import ink.whi.backend.dao.entity.Platform;
 import ink.whi.backend.dao.mapper.ModelMapper;
+import ink.whi.backend.helper.PlatformRateLimiter;
+import ink.whi.backend.service.model.adapter.StreamingModelAdapter;
+import ink.whi.backend.service.model.adapter.StreamingModelAdapterRegistry;
 import jakarta.annotation.Resource;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.BeanUtils;
@@ -39,6 +42,15 @@ public class ModelService extends ServiceImpl<ModelMapper, Model> {
     @Resource
     private PlatformService platformService;
 
+    @Resource
+    private ChatModelCache chatModelCache;
+
+    @Resource
+    private PlatformRateLimiter platformRateLimiter;
+
+    @Resource
+    private StreamingModelAdapterRegistry adapterRegistry;
+
     public Model createModel(ModelCreReq req) {
         // check
         platformService.getOrThrow(req.getPlatformId());
@@ -82,6 +94,42 @@ public class ModelService extends ServiceImpl<ModelMapper, Model> {
     }
 
     public StreamingChatLanguageModel buildStreamChatLanguagesModel(Integer modelId, ModelParams params) {
+        return buildStreamChatLanguagesModel(getModelMeta(modelId), params);
+    }
+
+    /**
+     * 使用已查询的模型信息构建流式模型
+     * @param meta 模型及所属平台
+     * @param params 会话的模型参数
+     */
+    public StreamingChatLanguageModel buildStreamChatLanguagesModel(ChatModelCache.ModelMeta meta, ModelParams params) {
+        Model model = meta.model();
+        Platform platform = meta.platform();
+        platformService.checkStatus(platform);
+
+        StreamingModelAdapter adapter = adapterRegistry.get(platform.getPlatformType());
+
+        // 只有temperature和maxTokens影响模型实例
+        ModelParams buildParams = params == null ? null
+                : ModelParams.builder().temperature(params.getTemperature()).maxTokens(params.getMaxTokens()).build();
+        ChatModelCache.ModelKey key = new ChatModelCache.ModelKey(model.getId(), platform.getId(), model.getName(),
+                platform.getBaseUrl(), platform.getApiKey(), buildParams);
+        // 用实际token用量和429错误调整平台配额
+        return chatModelCache.getOrBuild(key, () -> adapter.build(model, platform, buildParams,
+                List.of(platformRateLimiter.listener(platform.getId()))));
+    }
+
+    /**
+     * 获取模型及所属平台，优先读缓存；缓存命中时同样校验平台归属
+     * @param modelId 模型ID
+     */
+    public ChatModelCache.ModelMeta getModelMeta(Integer modelId) {
+        ChatModelCache.ModelMeta meta = chatModelCache.getMeta(modelId);
+        if (meta != null) {
+            platformService.checkStatus(meta.platform());
+            return meta;
+        }
+
         Model model = getById(modelId);
         if (model == null) {
             throw BusinessException.newInstance(StatusEnum.ILLEGAL_ARGUMENTS_MIXED, "模型不存在");
@@ -89,27 +137,9 @@ public class ModelService extends ServiceImpl<ModelMapper, Model> {
         Platform platform = platformService.getById(model.getPlatformId());
         platformService.checkStatus(platform);
 
-        // TODO 支持其他平台
-        if(!platform.getPlatformType().getName().contains("openai")){
-            throw BusinessException.newInstance(StatusEnum.ILLEGAL_ARGUMENTS_MIXED, "目前只支持OpenAI格式");
-        }
-
-        var builder = OpenAiStreamingChatModel.builder()
-                .apiKey(platform.getApiKey())
-                .baseUrl(platform.getBaseUrl())
-                .modelName(model.getName());
-
-        if (params != null) {
-            // 应用模型配置参数（如果有）
-            if (params.getTemperature() != null) {
-                builder.temperature(params.getTemperature());
-            }
-
-            if (params.getMaxTokens() != null) {
-                builder.maxTokens(params.getMaxTokens());
-            }
-        }
-        return builder.build();
+        meta = new ChatModelCache.ModelMeta(model, platform);
+        chatModelCache.putMeta(modelId, meta);
+        return meta;
     }
 
     public Model getByName(String name, Integer platformId) {
@@ -132,15 +162,18 @@ public class ModelService extends ServiceImpl<ModelMapper, Model> {
         BeanUtils.copyProperties(req, record);
         record.setType(ModelTypeEnum.of(req.getType()));
         updateById(record);
+        chatModelCache.evictModel(record.getId());
     }
 
     public void deleteModel(Integer modelId) {
         removeById(modelId);
+        chatModelCache.evictModel(modelId);
     }
 
     @Transactional
     public void deleteAll(Integer platformId) {
         List<Model> models = getModelsByPlatformId(platformId);
         removeBatchByIds(models.stream().map(Model::getId).toList());
+        chatModelCache.evictPlatform(platformId);
     }
 }
\ No newline at end of file
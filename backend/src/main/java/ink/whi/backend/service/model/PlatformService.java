@@ -1,6 +1,7 @@
 package ink.whi.backend.service.model;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import ink.whi.backend.cache.ChatModelCache;
 import ink.whi.backend.common.context.ReqInfoContext;
 import ink.whi.backend.common.dto.platform.PlatformCreateReq;
 import ink.whi.backend.common.dto.platform.PlatformUpdateReq;
@@ -27,6 +28,9 @@ public class PlatformService extends ServiceImpl<PlatformMapper, Platform> {
     @Resource
     private ModelService modelService;
 
+    @Resource
+    private ChatModelCache chatModelCache;
+
     /**
      * 创建平台
      * @param req 创建请求
@@ -103,6 +107,8 @@ public class PlatformService extends ServiceImpl<PlatformMapper, Platform> {
         }
 
         updateById(platform);
+        // 凭证变更后重新构建模型
+        chatModelCache.evictPlatform(platform.getId());
     }
 
     /**
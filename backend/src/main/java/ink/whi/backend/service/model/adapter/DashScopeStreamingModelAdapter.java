@@ -0,0 +1,50 @@
+package ink.whi.backend.service.model.adapter;
+
+import dev.langchain4j.community.model.dashscope.QwenStreamingChatModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.common.enums.PlatformTypeEnum;
+import ink.whi.backend.dao.entity.Model;
+import ink.whi.backend.dao.entity.Platform;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 阿里云百炼（DashScope）通义千问
+ *
+ * @author: qing
+ * @Date: 2025/8/31
+ */
+@Component
+public class DashScopeStreamingModelAdapter implements StreamingModelAdapter {
+
+    @Override
+    public Set<PlatformTypeEnum> supports() {
+        return Set.of(PlatformTypeEnum.DASHSCOPE);
+    }
+
+    @Override
+    public StreamingChatLanguageModel build(Model model, Platform platform, ModelParams params, List<ChatModelListener> listeners) {
+        var builder = QwenStreamingChatModel.builder()
+                .apiKey(platform.getApiKey())
+                .modelName(model.getName())
+                .listeners(listeners);
+        if (platform.getBaseUrl() != null && !platform.getBaseUrl().isBlank()) {
+            builder.baseUrl(platform.getBaseUrl());
+        }
+
+        if (params != null) {
+            if (params.getTemperature() != null) {
+                builder.temperature(params.getTemperature().floatValue());
+            }
+
+            if (params.getMaxTokens() != null) {
+                builder.maxTokens(params.getMaxTokens());
+            }
+        }
+        return builder.build();
+    }
+}
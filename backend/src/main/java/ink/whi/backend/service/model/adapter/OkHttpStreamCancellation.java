@@ -0,0 +1,133 @@
+package ink.whi.backend.service.model.adapter;
+
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import ink.whi.backend.utils.StreamHandle;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OpenAI流式请求的取消
+ * <p>
+ * 当前版本的OpenAiStreamingChatModel经openai4j内部的OkHttpClient发起请求，不能替换HTTP客户端，
+ * 这里在构建后换掉该OkHttpClient：请求入队时取出调用线程绑定的StreamHandle，在Dispatcher线程中恢复，
+ * 拦截器把Call登记到句柄上，取消时直接cancel该Call，连接关闭，上游停止生成。
+ * 响应流在Dispatcher线程中同步读完，读完后解除登记
+ *
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+@Slf4j
+public final class OkHttpStreamCancellation {
+
+    /**
+     * 并发由ChatConcurrencyLimiter控制，这里不再按host限制
+     */
+    private static final int MAX_REQUESTS = 1024;
+
+    /**
+     * 当前线程是否为Dispatcher线程。流结束时Dispatcher会在该线程上启动排队的请求，此时不能沿用本线程的句柄
+     */
+    private static final ThreadLocal<Boolean> DISPATCHING = new ThreadLocal<>();
+
+    private static final ThreadLocal<Closeable> ATTACHED = new ThreadLocal<>();
+
+    private static final Dispatcher DISPATCHER = dispatcher();
+
+    private OkHttpStreamCancellation() {
+    }
+
+    /**
+     * 为模型启用取消，失败时记录告警并原样返回（停止仍会在下一个token到达时生效）
+     */
+    public static OpenAiStreamingChatModel install(OpenAiStreamingChatModel model) {
+        try {
+            Field clientField = OpenAiStreamingChatModel.class.getDeclaredField("client");
+            clientField.setAccessible(true);
+            Object client = clientField.get(model);
+            Field okHttpField = client.getClass().getDeclaredField("okHttpClient");
+            okHttpField.setAccessible(true);
+            okHttpField.set(client, cancellable((OkHttpClient) okHttpField.get(client)));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("OpenAI流式请求无法启用取消: {}", e.getMessage());
+        }
+        return model;
+    }
+
+    /**
+     * 包装OkHttpClient，经它发起的异步请求登记到发起线程绑定的StreamHandle
+     */
+    public static OkHttpClient cancellable(OkHttpClient client) {
+        return client.newBuilder()
+                .dispatcher(DISPATCHER)
+                .addInterceptor(OkHttpStreamCancellation::intercept)
+                .build();
+    }
+
+    private static Response intercept(Interceptor.Chain chain) throws IOException {
+        StreamHandle handle = StreamHandle.current();
+        if (handle != null && Boolean.TRUE.equals(DISPATCHING.get())) {
+            Call call = chain.call();
+            Closeable cancel = call::cancel;
+            // 已取消时attach会立即cancel，下面的proceed直接失败
+            if (handle.attach(cancel)) {
+                ATTACHED.set(cancel);
+            }
+        }
+        return chain.proceed(chain.request());
+    }
+
+    private static Dispatcher dispatcher() {
+        AtomicInteger index = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+                    Thread thread = new Thread(r, "openai-stream-" + index.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }) {
+            @Override
+            public void execute(Runnable command) {
+                super.execute(withHandle(command));
+            }
+        };
+        Dispatcher dispatcher = new Dispatcher(executor);
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS);
+        return dispatcher;
+    }
+
+    /**
+     * 在Dispatcher线程中恢复入队线程的句柄
+     */
+    private static Runnable withHandle(Runnable command) {
+        StreamHandle handle = Boolean.TRUE.equals(DISPATCHING.get()) ? null : StreamHandle.current();
+        return () -> {
+            DISPATCHING.set(true);
+            try {
+                if (handle == null) {
+                    command.run();
+                } else {
+                    handle.run(command);
+                }
+            } finally {
+                DISPATCHING.remove();
+                Closeable attached = ATTACHED.get();
+                if (attached != null) {
+                    ATTACHED.remove();
+                    handle.detach(attached);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,69 @@
+package ink.whi.backend.service.model.adapter;
+
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.ollama.OllamaStreamingChatModel;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.common.enums.PlatformTypeEnum;
+import ink.whi.backend.dao.entity.Model;
+import ink.whi.backend.dao.entity.Platform;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ollama本地模型，baseUrl为空时使用本机默认地址，不需要apiKey
+ *
+ * @author: qing
+ * @Date: 2025/8/31
+ */
+@Component
+public class OllamaStreamingModelAdapter implements StreamingModelAdapter {
+
+    private static final String DEFAULT_BASE_URL = "http://localhost:11434";
+
+    /**
+     * 本地模型首次加载较慢，单独设置超时时间
+     */
+    @Value("${chat.ollama.timeout-seconds:300}")
+    private long timeoutSeconds;
+
+    @Override
+    public Set<PlatformTypeEnum> supports() {
+        return Set.of(PlatformTypeEnum.OLLAMA);
+    }
+
+    /**
+     * 首次加载模型可能接近请求超时时间，首token超时不能比它更短
+     */
+    @Override
+    public long firstTokenTimeoutMs(long defaultTimeoutMs) {
+        return Math.max(defaultTimeoutMs, TimeUnit.SECONDS.toMillis(timeoutSeconds));
+    }
+
+    @Override
+    public StreamingChatLanguageModel build(Model model, Platform platform, ModelParams params, List<ChatModelListener> listeners) {
+        String baseUrl = platform.getBaseUrl() == null || platform.getBaseUrl().isBlank()
+                ? DEFAULT_BASE_URL : platform.getBaseUrl();
+        var builder = OllamaStreamingChatModel.builder()
+                .baseUrl(baseUrl)
+                .modelName(model.getName())
+                .timeout(Duration.ofSeconds(timeoutSeconds))
+                .listeners(listeners);
+
+        if (params != null) {
+            if (params.getTemperature() != null) {
+                builder.temperature(params.getTemperature());
+            }
+
+            if (params.getMaxTokens() != null) {
+                builder.numPredict(params.getMaxTokens());
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,50 @@
+package ink.whi.backend.service.model.adapter;
+
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.common.enums.PlatformTypeEnum;
+import ink.whi.backend.dao.entity.Model;
+import ink.whi.backend.dao.entity.Platform;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * OpenAI兼容接口（含Azure OpenAI等兼容网关）
+ *
+ * @author: qing
+ * @Date: 2025/8/31
+ */
+@Component
+public class OpenAiStreamingModelAdapter implements StreamingModelAdapter {
+
+    @Override
+    public Set<PlatformTypeEnum> supports() {
+        return Set.of(PlatformTypeEnum.OPENAI, PlatformTypeEnum.OPENAI_RESPONSE, PlatformTypeEnum.AZURE_OPENAI);
+    }
+
+    @Override
+    public StreamingChatLanguageModel build(Model model, Platform platform, ModelParams params, List<ChatModelListener> listeners) {
+        var builder = OpenAiStreamingChatModel.builder()
+                .apiKey(platform.getApiKey())
+                .baseUrl(platform.getBaseUrl())
+                .modelName(model.getName())
+                .listeners(listeners);
+
+        if (params != null) {
+            // 应用模型配置参数（如果有）
+            if (params.getTemperature() != null) {
+                builder.temperature(params.getTemperature());
+            }
+
+            if (params.getMaxTokens() != null) {
+                builder.maxTokens(params.getMaxTokens());
+            }
+        }
+        // 停止或断线时关闭上游连接
+        return OkHttpStreamCancellation.install(builder.build());
+    }
+}
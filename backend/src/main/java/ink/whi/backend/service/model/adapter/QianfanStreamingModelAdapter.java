@@ -0,0 +1,52 @@
+package ink.whi.backend.service.model.adapter;
+
+import dev.langchain4j.community.model.qianfan.QianfanStreamingChatModel;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.common.enums.PlatformTypeEnum;
+import ink.whi.backend.common.exception.BusinessException;
+import ink.whi.backend.common.status.StatusEnum;
+import ink.whi.backend.dao.entity.Model;
+import ink.whi.backend.dao.entity.Platform;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 百度千帆，平台apiKey按 "apiKey:secretKey" 填写
+ * <p>
+ * 千帆客户端不支持监听器，不参与按token用量的限流
+ *
+ * @author: qing
+ * @Date: 2025/8/31
+ */
+@Component
+public class QianfanStreamingModelAdapter implements StreamingModelAdapter {
+
+    @Override
+    public Set<PlatformTypeEnum> supports() {
+        return Set.of(PlatformTypeEnum.QIANFAN);
+    }
+
+    @Override
+    public StreamingChatLanguageModel build(Model model, Platform platform, ModelParams params, List<ChatModelListener> listeners) {
+        String[] keys = platform.getApiKey() == null ? new String[0] : platform.getApiKey().split(":", 2);
+        if (keys.length != 2) {
+            throw BusinessException.newInstance(StatusEnum.ILLEGAL_ARGUMENTS_MIXED, "千帆平台的apiKey格式应为 apiKey:secretKey");
+        }
+        var builder = QianfanStreamingChatModel.builder()
+                .apiKey(keys[0])
+                .secretKey(keys[1])
+                .modelName(model.getName());
+        if (platform.getBaseUrl() != null && !platform.getBaseUrl().isBlank()) {
+            builder.baseUrl(platform.getBaseUrl());
+        }
+
+        if (params != null && params.getTemperature() != null) {
+            builder.temperature(params.getTemperature());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,44 @@
+package ink.whi.backend.service.model.adapter;
+
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.common.enums.PlatformTypeEnum;
+import ink.whi.backend.dao.entity.Model;
+import ink.whi.backend.dao.entity.Platform;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 流式模型适配器，按平台类型构建对应的StreamingChatLanguageModel
+ *
+ * @author: qing
+ * @Date: 2025/8/31
+ */
+public interface StreamingModelAdapter {
+
+    /**
+     * 支持的平台类型
+     */
+    Set<PlatformTypeEnum> supports();
+
+    /**
+     * 构建流式模型
+     *
+     * @param model 模型
+     * @param platform 所属平台
+     * @param params 模型参数（temperature、maxTokens），可能为null
+     * @param listeners 模型监听器
+     */
+    StreamingChatLanguageModel build(Model model, Platform platform, ModelParams params, List<ChatModelListener> listeners);
+
+    /**
+     * 路由时的首token超时时间(ms)，首token较慢的平台可以放宽
+     *
+     * @param defaultTimeoutMs 配置的首token超时时间
+     */
+    default long firstTokenTimeoutMs(long defaultTimeoutMs) {
+        return defaultTimeoutMs;
+    }
+}
@@ -0,0 +1,55 @@
+package ink.whi.backend.service.model.adapter;
+
+import ink.whi.backend.common.enums.PlatformTypeEnum;
+import ink.whi.backend.common.exception.BusinessException;
+import ink.whi.backend.common.status.StatusEnum;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 流式模型适配器注册表，新增平台时实现StreamingModelAdapter并注册为Bean即可
+ *
+ * @author: qing
+ * @Date: 2025/8/31
+ */
+@Slf4j
+@Component
+public class StreamingModelAdapterRegistry {
+
+    private final Map<PlatformTypeEnum, StreamingModelAdapter> adapters = new EnumMap<>(PlatformTypeEnum.class);
+
+    @Autowired
+    public StreamingModelAdapterRegistry(List<StreamingModelAdapter> adapterList) {
+        for (StreamingModelAdapter adapter : adapterList) {
+            for (PlatformTypeEnum type : adapter.supports()) {
+                StreamingModelAdapter old = adapters.put(type, adapter);
+                if (old != null) {
+                    throw new IllegalStateException("平台类型重复注册: " + type.getName());
+                }
+            }
+        }
+        log.info("已注册流式模型适配器: {}", adapters.keySet());
+    }
+
+    /**
+     * 获取平台类型对应的适配器
+     * @param type 平台类型
+     */
+    public StreamingModelAdapter get(PlatformTypeEnum type) {
+        StreamingModelAdapter adapter = type == null ? null : adapters.get(type);
+        if (adapter == null) {
+            throw BusinessException.newInstance(StatusEnum.ILLEGAL_ARGUMENTS_MIXED,
+                    "暂不支持该平台类型: " + (type == null ? null : type.getName()));
+        }
+        return adapter;
+    }
+
+    public boolean supports(PlatformTypeEnum type) {
+        return type != null && adapters.containsKey(type);
+    }
+}
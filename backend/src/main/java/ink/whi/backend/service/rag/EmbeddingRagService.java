@@ -2,24 +2,39 @@ package ink.whi.backend.service.rag;
 
 
 import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.data.document.DocumentSplitter;
 import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.Tokenizer;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.openai.OpenAiChatModelName;
-import dev.langchain4j.model.openai.OpenAiTokenizer;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
 import dev.langchain4j.store.embedding.filter.Filter;
 import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
 import ink.whi.backend.common.dto.agent.RetrieveSetting;
 import ink.whi.backend.common.dto.knowledgeBase.ProcessSetting;
+import ink.whi.backend.dao.entity.KbChunk;
+import ink.whi.backend.service.knowledgeBase.KbChunkService;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 import static ink.whi.backend.common.constant.SettingsDefaultConstant.*;
 
@@ -32,9 +47,43 @@ public class EmbeddingRagService implements IRAGService {
 
     private final EmbeddingStore<TextSegment> embeddingStore;
 
-    public EmbeddingRagService(EmbeddingStore<TextSegment> embeddingStore) {
+    private final Tokenizer tokenizer;
+
+    private final KbChunkService kbChunkService;
+
+    /**
+     * 向量模型标识，参与分段哈希计算
+     */
+    private final String embeddingModelId;
+
+    /**
+     * 每批向量化的分段数，也是断点续跑的粒度
+     */
+    @Value("${kb.ingest.batch-size:32}")
+    private int batchSize;
+
+    /**
+     * 知识库内相同内容的分段只向量化和存储一次
+     */
+    @Value("${kb.embedding.dedup:true}")
+    private boolean dedup;
+
+    /**
+     * 向量库写入线程，每个进行中的文档最多占用一个
+     */
+    private final ExecutorService writeExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "embedding-write");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public EmbeddingRagService(EmbeddingStore<TextSegment> embeddingStore, EmbeddingModel embeddingModel, Tokenizer tokenizer,
+                               KbChunkService kbChunkService) {
         this.embeddingStore = embeddingStore;
-        this.embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        this.embeddingModel = embeddingModel;
+        this.tokenizer = tokenizer;
+        this.kbChunkService = kbChunkService;
+        this.embeddingModelId = embeddingModel.getClass().getSimpleName() + ":" + embeddingModel.dimension();
     }
 
     /**
@@ -44,14 +93,227 @@ public class EmbeddingRagService implements IRAGService {
      * @param processSetting 处理设置
      */
     public void ingest(Document document, ProcessSetting processSetting) {
-        log.info("EmbeddingRAG ingest");
-        DocumentSplitter documentSplitter = DocumentSplitters.recursive(processSetting.getBlockSize(), processSetting.getMaxOverlap(), new OpenAiTokenizer(OpenAiChatModelName.GPT_3_5_TURBO));
-        EmbeddingStoreIngestor embeddingStoreIngestor = EmbeddingStoreIngestor.builder()
-                .documentSplitter(documentSplitter)
-                .embeddingModel(embeddingModel)
-                .embeddingStore(embeddingStore)
-                .build();
-        embeddingStoreIngestor.ingest(document);
+        try (Ingestion ingestion = openIngestion(document.metadata(), processSetting, 0, done -> {
+        })) {
+            ingestion.accept(document.text());
+            ingestion.complete();
+        }
+    }
+
+    /**
+     * 开始一次分段写入：逐段接收文档文本，切块后分批向量化并存储，每批写入后回调累计写入的分段数，中断后可从该位置继续
+     * <p>
+     * 每批在向量化线程池中并行计算，写入向量库与下一批的计算重叠进行，同一文档最多有一批等待写入。
+     * 分段ID由条目ID和分段序号生成，重复写入同一批次会覆盖而不是新增；
+     * 带知识库ID时按内容去重，已存在的分段只登记引用，不再向量化
+     *
+     * @param metadata 文档元数据，需包含kbItemId
+     * @param processSetting 处理设置
+     * @param checkpoint 已写入的分段数
+     * @param onBatch 每批写入后的回调，在写入线程中执行
+     */
+    public Ingestion openIngestion(Metadata metadata, ProcessSetting processSetting, int checkpoint, IntConsumer onBatch) {
+        return new Ingestion(metadata, processSetting, checkpoint, onBatch);
+    }
+
+    /**
+     * 分段写入，内存中只保留当前段落、一批待向量化的分段和一批待写入的向量
+     */
+    public class Ingestion implements Consumer<String>, AutoCloseable {
+
+        private final Metadata metadata;
+
+        private final String itemId;
+
+        private final String kbId;
+
+        private final DocumentSplitter splitter;
+
+        private final int checkpoint;
+
+        private final PipelinedWriter writer;
+
+        private final List<TextSegment> batch = new ArrayList<>();
+
+        /**
+         * 本次已提交写入的去重分段，写入完成前再次出现时不重复向量化
+         */
+        private final Set<Integer> submitted = new HashSet<>();
+
+        /**
+         * 复用已有向量的分段数
+         */
+        private int reused;
+
+        /**
+         * 文档内的分段序号，跨段落连续
+         */
+        private int index;
+
+        private Ingestion(Metadata metadata, ProcessSetting processSetting, int checkpoint, IntConsumer onBatch) {
+            this.metadata = metadata;
+            this.itemId = metadata.getString("kbItemId");
+            this.kbId = metadata.getString("kbId");
+            this.splitter = DocumentSplitters.recursive(processSetting.getBlockSize(), processSetting.getMaxOverlap(), tokenizer);
+            this.checkpoint = Math.max(0, checkpoint);
+            this.writer = new PipelinedWriter(onBatch);
+            log.info("EmbeddingRAG ingest, kbItemId: {}, 从{}开始", itemId, this.checkpoint);
+        }
+
+        @Override
+        public void accept(String section) {
+            if (section == null || section.isBlank()) {
+                return;
+            }
+            for (TextSegment segment : splitter.split(Document.from(section, metadata.copy()))) {
+                int current = index++;
+                if (current < checkpoint) {
+                    continue;
+                }
+                segment.metadata().put("index", String.valueOf(current));
+                batch.add(segment);
+                if (batch.size() >= batchSize) {
+                    flush();
+                }
+            }
+        }
+
+        private void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<TextSegment> segments = List.copyOf(batch);
+            batch.clear();
+            // 跳过的分段只出现在第一批之前，同一批次的序号连续
+            int from = index - segments.size();
+            if (dedup && kbId != null && itemId != null) {
+                flushDeduplicated(segments, from);
+                return;
+            }
+            List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+            List<String> ids = new ArrayList<>(segments.size());
+            for (int i = 0; i < segments.size(); i++) {
+                ids.add(segmentId(itemId, from + i));
+            }
+            writer.write(ids, embeddings, segments, index, () -> {
+            });
+        }
+
+        private void flushDeduplicated(List<TextSegment> segments, int from) {
+            List<String> hashes = segments.stream()
+                    .map(segment -> KbChunkService.contentHash(segment.text(), embeddingModelId))
+                    .toList();
+            List<KbChunk> chunks = kbChunkService.acquire(Integer.valueOf(kbId), Integer.valueOf(itemId), from, hashes);
+
+            // 只向量化尚未写入向量库的内容，同一内容只算一次
+            List<Integer> chunkIds = new ArrayList<>();
+            List<String> ids = new ArrayList<>();
+            List<TextSegment> pending = new ArrayList<>();
+            for (int i = 0; i < segments.size(); i++) {
+                KbChunk chunk = chunks.get(i);
+                if (Boolean.TRUE.equals(chunk.getStored()) || !submitted.add(chunk.getId())) {
+                    reused++;
+                    continue;
+                }
+                // 向量由多个条目共享，不记录条目ID和序号
+                Metadata shared = segments.get(i).metadata().copy();
+                shared.remove("kbItemId");
+                shared.remove("index");
+                chunkIds.add(chunk.getId());
+                ids.add(chunk.getEmbeddingId());
+                pending.add(TextSegment.from(segments.get(i).text(), shared));
+            }
+            List<Embedding> embeddings = pending.isEmpty() ? List.of() : embeddingModel.embedAll(pending).content();
+            writer.write(ids, embeddings, pending, index, () -> kbChunkService.markStored(chunkIds));
+        }
+
+        /**
+         * 文档已全部读完，写入剩余的分段
+         */
+        public void complete() {
+            flush();
+            writer.close();
+            log.info("EmbeddingRAG ingest完成, kbItemId: {}, 分段数: {}, 复用: {}", itemId, index, reused);
+        }
+
+        /**
+         * 等待已提交的写入结束，未调用complete时剩余分段丢弃
+         */
+        @Override
+        public void close() {
+            writer.close();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        writeExecutor.shutdown();
+    }
+
+    /**
+     * 异步写入向量库，按批次顺序执行，提交下一批前等待上一批完成
+     */
+    private class PipelinedWriter implements AutoCloseable {
+
+        private final IntConsumer onBatch;
+
+        private CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+
+        PipelinedWriter(IntConsumer onBatch) {
+            this.onBatch = onBatch;
+        }
+
+        void write(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments, int written, Runnable afterStore) {
+            await();
+            pending = CompletableFuture.runAsync(() -> {
+                if (!ids.isEmpty()) {
+                    embeddingStore.addAll(ids, embeddings, segments);
+                }
+                afterStore.run();
+                onBatch.accept(written);
+            }, writeExecutor);
+        }
+
+        /**
+         * 等待上一批写入结束，失败只抛出一次，之后的close不会重复抛出同一个异常
+         */
+        private void await() {
+            try {
+                pending.join();
+            } catch (CompletionException e) {
+                pending = CompletableFuture.completedFuture(null);
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            await();
+        }
+    }
+
+    private static String segmentId(String itemId, int index) {
+        if (itemId == null) {
+            return UUID.randomUUID().toString();
+        }
+        return UUID.nameUUIDFromBytes((itemId + ":" + index).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * 删除条目已写入的向量，共享的去重分段在引用数降为0时删除
+     *
+     * @param kbItemId 知识库条目ID
+     */
+    public void removeByItem(Integer kbItemId) {
+        List<String> orphans = kbChunkService.release(kbItemId);
+        if (!orphans.isEmpty()) {
+            embeddingStore.removeAll(orphans);
+        }
+        // 未去重写入的向量
+        embeddingStore.removeAll(new IsEqualTo("kbItemId", kbItemId.toString()));
     }
 
 
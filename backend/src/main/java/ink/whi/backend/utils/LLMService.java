@@ -4,23 +4,41 @@ import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.model.output.TokenUsage;
 import dev.langchain4j.service.TokenStream;
+import ink.whi.backend.cache.PromptPrefixCache;
 import ink.whi.backend.cache.SseEmitterCache;
 import ink.whi.backend.common.enums.MsgRoleEnum;
+import ink.whi.backend.common.enums.SseEventEnum;
 import ink.whi.backend.common.exception.BusinessException;
+import ink.whi.backend.common.exception.StreamCancelledException;
 import ink.whi.backend.common.status.StatusEnum;
 import ink.whi.backend.common.dto.message.MessageDTO;
+import ink.whi.backend.common.dto.sse.SessionInfo;
+import ink.whi.backend.helper.SseEmitterHelper;
+import ink.whi.backend.helper.SseReplayBuffer;
+import ink.whi.backend.helper.SseTokenWriter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
 
 import static dev.langchain4j.data.message.SystemMessage.systemMessage;
 
@@ -32,9 +50,66 @@ import static dev.langchain4j.data.message.SystemMessage.systemMessage;
 @Component
 public class LLMService {
 
+    private static final String SUMMARY_PREFIX = "以下是之前对话内容的摘要：\n";
+
+    /**
+     * 回放缓存回答时每个片段的字符数
+     */
+    private static final int REPLAY_CHUNK_CHARS = 4;
+
+    private static final String IDLE_TIMEOUT_MESSAGE = "模型响应超时";
+
+    private static final String BUSY_MESSAGE = "该会话正在生成中，请稍后再试";
+
     @Autowired
     private SseEmitterCache cache;
 
+    @Autowired
+    private SseEmitterHelper sseEmitterHelper;
+
+    @Autowired
+    private PromptPrefixCache promptPrefixCache;
+
+    @Resource(name = "chatExecutor")
+    private ExecutorService chatExecutor;
+
+    @Value("${chat.sse.flush-tokens:16}")
+    private int flushTokens;
+
+    @Value("${chat.sse.flush-interval-ms:30}")
+    private long flushIntervalMs;
+
+    /**
+     * 响应式接口中客户端未消费的最大帧数
+     */
+    @Value("${chat.sse.max-pending-frames:256}")
+    private int maxPendingFrames;
+
+    /**
+     * 上游超过该时间(ms)没有输出时中断请求并返回error事件，<=0不检查
+     */
+    @Value("${chat.stream.idle-timeout-ms:300000}")
+    private long idleTimeoutMs;
+
+    /**
+     * 检查上游是否停滞的定时线程
+     */
+    private ScheduledExecutorService watchdog;
+
+    @PostConstruct
+    public void init() {
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stream-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        watchdog.shutdown();
+    }
+
     /**
      * 构建工具列表（预留方法）
      * @param toolList 工具名称列表
@@ -56,73 +131,121 @@ public class LLMService {
      * @return 构建好的聊天消息列表
      */
     public List<ChatMessage> buildChatMessages(List<MessageDTO> messages, String systemMessage) {
+        return buildChatMessages(messages, systemMessage, null);
+    }
+
+    /**
+     * 构建聊天消息列表
+     * @param messages 历史消息列表
+     * @param systemMessage 系统提示词
+     * @param summary 更早历史对话的摘要（可选）
+     * @return 构建好的聊天消息列表
+     */
+    public List<ChatMessage> buildChatMessages(List<MessageDTO> messages, String systemMessage, String summary) {
+        List<ChatMessage> chatMessages = buildHead(systemMessage, summary);
+        if (messages != null) {
+            for (MessageDTO msgDTO : messages) {
+                chatMessages.add(toChatMessage(msgDTO));
+            }
+        }
+        return chatMessages;
+    }
+
+    /**
+     * 增量构建会话的聊天消息列表，复用上一轮的前缀，只转换新增的历史消息
+     * @param uuid 会话UUID
+     * @param messages 历史消息列表
+     * @param systemMessage 系统提示词
+     * @param summary 更早历史对话的摘要（可选）
+     * @return 构建好的聊天消息列表
+     */
+    public List<ChatMessage> buildChatMessages(String uuid, List<MessageDTO> messages, String systemMessage, String summary) {
+        return promptPrefixCache.build(uuid, buildHead(systemMessage, summary),
+                messages == null ? List.of() : messages, this::toChatMessage);
+    }
+
+    private List<ChatMessage> buildHead(String systemMessage, String summary) {
         List<ChatMessage> chatMessages = new ArrayList<>();
 
         // 添加系统消息
         chatMessages.add(systemMessage(systemMessage));
 
-        if (messages != null) {
-            for (MessageDTO msgDTO : messages) {
-                MsgRoleEnum role = MsgRoleEnum.formRole(msgDTO.getRole());
-                if (role == null) {
-                    throw BusinessException.newInstance(StatusEnum.ILLEGAL_ARGUMENTS_MIXED,
-                            "不支持的消息角色: " + msgDTO.getRole());
-                }
-                ChatMessage chatMessage = role.createMessage(msgDTO.getContent());
-                chatMessages.add(chatMessage);
-            }
+        // 更早的历史以摘要形式提供
+        if (summary != null && !summary.isBlank()) {
+            chatMessages.add(systemMessage(SUMMARY_PREFIX + summary));
         }
         return chatMessages;
     }
 
+    private ChatMessage toChatMessage(MessageDTO msgDTO) {
+        MsgRoleEnum role = MsgRoleEnum.formRole(msgDTO.getRole());
+        if (role == null) {
+            throw BusinessException.newInstance(StatusEnum.ILLEGAL_ARGUMENTS_MIXED,
+                    "不支持的消息角色: " + msgDTO.getRole());
+        }
+        return role.createMessage(msgDTO.getContent());
+    }
+
     /**
      * 注册TokenStream处理器
+     * <p>
+     * 客户端断线不会中断生成，输出继续写入会话的SseReplayBuffer，重连后补发；
+     * 停止、会话被替换或上游超过idleTimeoutMs没有输出时关闭上游连接
      *
      * @param tokenStream Token流
-     * @param emitter SSE连接
      * @param uuid 会话UUID
      * @param consumer 请求完成后回调
      */
-    public void registerStreamingHandler(TokenStream tokenStream, SseEmitter emitter, String uuid, BiConsumer<AiMessage, TokenUsage> consumer) {
+    public void registerStreamingHandler(TokenStream tokenStream, String uuid, BiConsumer<AiMessage, TokenUsage> consumer) {
+        // 只在注册时查一次缓存，之后直接读会话状态
+        SessionInfo session = cache.getSessionInfo(uuid);
+        SseReplayBuffer buffer = session.getReplayBuffer();
         StringBuilder curContent = new StringBuilder();
-        AtomicBoolean stopHandled = new AtomicBoolean(false);
+        SseTokenWriter writer = sseEmitterHelper.createTokenWriter(buffer);
+        AtomicLong lastActivity = new AtomicLong(System.nanoTime());
 
-        // fixme 目前停止只是表面停止，即不再处理大模型的返回值，但是大模型的输出并没有停止
-        tokenStream.onPartialResponse(token -> {
-                    curContent.append(token);
+        // 停止请求到达时立即执行并关闭上游连接，不必等待下一个token；完成/停止只能处理一次，保证内容只保存一次
+        session.setStopHandler(() -> {
+            if (session.finish(SessionInfo.State.STOPPED)) {
+                session.cancelUpstream();
+                handleStopRequest(session, writer, uuid, snapshot(curContent), consumer);
+            }
+        });
+        // 上游停滞时按超时中断
+        watchIdle(session, lastActivity, () -> {
+            if (session.finish(SessionInfo.State.ERROR)) {
+                log.warn("上游超过{}ms没有输出，中断请求, uuid: {}", idleTimeoutMs, uuid);
+                session.cancelUpstream();
+                writer.close();
+                buffer.finish(SseEventEnum.ERROR, IDLE_TIMEOUT_MESSAGE);
+                sseEmitterHelper.releaseSession(uuid, session);
+            }
+        }, idleTimeoutMs);
 
-                    // 检查session是否存在
-                    if (!cache.exist(uuid)) {
-                        return;
+        tokenStream.onPartialResponse(token -> {
+                    // 已停止或会话已被新请求替换：关闭上游连接；不支持取消句柄的平台靠抛出异常中断
+                    if (!session.isRunning()) {
+                        session.cancelUpstream();
+                        throw new StreamCancelledException(uuid);
                     }
+                    lastActivity.set(System.nanoTime());
 
-                    // 检查停止状态，并防止重复处理
-                    if (cache.isStop(uuid)) {
-                        if (stopHandled.compareAndSet(false, true)) {
-                            handleStopRequest(emitter, uuid, curContent.toString(), consumer);
-                        }
-                        return;
+                    synchronized (curContent) {
+                        curContent.append(token);
                     }
 
-                    try {
-                        // 将token封装为JSON格式 {v: token}
-                        Map<String, String> tokenData = new HashMap<>();
-                        tokenData.put("v", token);
-                        emitter.send(SseEmitter.event().data(tokenData));
-                    } catch (Exception e) {
-                        // 吞掉异常，否则会被onError捕获
-                        log.error("发送SSE数据失败", e);
-                    }
+                    // 按数量/时间合并后以 {v: tokens} 格式发送
+                    writer.write(token);
                 })
                 .onCompleteResponse((response) -> {
-                    // 检查session是否存在
-                    if (!cache.exist(uuid)) {
-                        log.warn("sse被提前关闭，uuid: {}", uuid);
+                    if (!session.finish(SessionInfo.State.COMPLETED)) {
+                        log.warn("sse已停止，忽略完成回调，uuid: {}", uuid);
                         return;
                     }
 
                     try {
-                        emitter.complete();
+                        writer.close();
+                        buffer.finish(null, null);
                         AiMessage aiMessage = response.aiMessage();
                         log.info("流式响应完成, response:{}", response.metadata());
 
@@ -130,53 +253,242 @@ public class LLMService {
                     } catch (Exception e) {
                         // 吞掉异常，否则会被onError捕获
                         log.error("SSE complete失败", e);
+                    } finally {
+                        sseEmitterHelper.releaseSession(uuid, session);
                     }
                 })
                 .onToolExecuted(toolExecution -> log.info("toolExecution:{}", toolExecution))
-                .onError(e -> log.error("handle sse error", e))
-                .start();
+                .onError(e -> {
+                    writer.close();
+                    // 停止、超时或会话被替换后关闭上游连接，读取异常也会走到这里
+                    if (e instanceof StreamCancelledException || !session.isRunning()) {
+                        log.info("上游流已中断, uuid: {}, {}", uuid, e.getMessage());
+                        // 停止/超时处理器已结束时为空操作；会话被替换或停止先于处理器注册时在这里收尾
+                        buffer.finish(SseEventEnum.STOP, "响应已停止");
+                        sseEmitterHelper.releaseSession(uuid, session);
+                        return;
+                    }
+                    if (session.finish(SessionInfo.State.ERROR)) {
+                        log.error("handle sse error", e);
+                        buffer.finish(SseEventEnum.ERROR, e.getMessage());
+                        sseEmitterHelper.releaseSession(uuid, session);
+                    }
+                });
+        // 绑定取消句柄后发起请求，上游响应流登记到该会话
+        session.getStreamHandle().run(tokenStream::start);
+    }
+
+    /**
+     * 上游超过timeoutMs没有输出时执行onStall，会话结束后不再检查
+     * <p>
+     * 每个会话只有一个待执行的检查，按剩余时间重新调度
+     */
+    private void watchIdle(SessionInfo session, AtomicLong lastActivity, Runnable onStall, long delayMs) {
+        if (idleTimeoutMs <= 0) {
+            return;
+        }
+        watchdog.schedule(() -> {
+            if (session.getState() != SessionInfo.State.RUNNING) {
+                return;
+            }
+            long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivity.get());
+            if (idleMs >= idleTimeoutMs) {
+                onStall.run();
+            } else {
+                watchIdle(session, lastActivity, onStall, idleTimeoutMs - idleMs);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 以Flux形式返回流式响应，事件协议与registerStreamingHandler一致（begin/token/stop/error）
+     * <p>
+     * token按数量/时间合并成帧，未被客户端消费的帧最多缓存maxPendingFrames个，超出后中断上游并返回error事件，
+     * 客户端慢时不会在服务端无限堆积
+     *
+     * @param tokenStream Token流
+     * @param uuid 会话UUID
+     * @param consumer 请求完成或停止后回调
+     */
+    public Flux<ServerSentEvent<String>> streamFlux(TokenStream tokenStream, String uuid, BiConsumer<AiMessage, TokenUsage> consumer) {
+        Flux<ServerSentEvent<String>> tokens = Flux.<String>create(sink -> {
+                    StringBuilder curContent = new StringBuilder();
+                    AtomicLong lastActivity = new AtomicLong(System.nanoTime());
+
+                    // 不替换同一会话中生成中的请求（包括SseEmitter方式的请求）
+                    SessionInfo session = cache.putIfIdle(uuid, null, null);
+                    if (session == null) {
+                        sink.error(new IllegalStateException(BUSY_MESSAGE));
+                        return;
+                    }
+                    // 停止：关闭上游连接并保存已生成内容，只执行一次
+                    BooleanSupplier stop = () -> {
+                        if (!session.finish(SessionInfo.State.STOPPED)) {
+                            return false;
+                        }
+                        session.cancelUpstream();
+                        String content = snapshot(curContent);
+                        if (!content.trim().isEmpty()) {
+                            consumer.accept(AiMessage.aiMessage(content), null);
+                        }
+                        return true;
+                    };
+                    session.setStopHandler(() -> {
+                        if (stop.getAsBoolean()) {
+                            sink.error(new StreamCancelledException(uuid));
+                        }
+                    });
+                    watchIdle(session, lastActivity, () -> {
+                        if (session.finish(SessionInfo.State.ERROR)) {
+                            session.cancelUpstream();
+                            sink.error(new IllegalStateException(IDLE_TIMEOUT_MESSAGE));
+                        }
+                    }, idleTimeoutMs);
+                    // 客户端断开或缓冲溢出：按停止处理，保存已生成内容并关闭上游连接
+                    sink.onCancel(stop::getAsBoolean);
+                    sink.onDispose(() -> cache.remove(uuid, session));
+
+                    tokenStream.onPartialResponse(token -> {
+                                if (!session.isRunning()) {
+                                    session.cancelUpstream();
+                                    throw new StreamCancelledException(uuid);
+                                }
+                                lastActivity.set(System.nanoTime());
+                                synchronized (curContent) {
+                                    curContent.append(token);
+                                }
+                                sink.next(token);
+                            })
+                            .onCompleteResponse(response -> {
+                                if (!session.finish(SessionInfo.State.COMPLETED)) {
+                                    return;
+                                }
+                                log.info("流式响应完成, response:{}", response.metadata());
+                                consumer.accept(response.aiMessage(), response.tokenUsage());
+                                sink.complete();
+                            })
+                            .onToolExecuted(toolExecution -> log.info("toolExecution:{}", toolExecution))
+                            .onError(e -> {
+                                if (!session.isRunning()) {
+                                    // 停止、超时或会话被替换后关闭上游连接引起的读取异常
+                                    log.info("上游流已中断, uuid: {}, {}", uuid, e.getMessage());
+                                    if (session.finish(SessionInfo.State.STOPPED)) {
+                                        sink.error(new StreamCancelledException(uuid));
+                                    }
+                                    return;
+                                }
+                                if (session.finish(SessionInfo.State.ERROR)) {
+                                    sink.error(e);
+                                }
+                            });
+                    session.getStreamHandle().run(tokenStream::start);
+                })
+                .bufferTimeout(flushTokens, Duration.ofMillis(Math.max(1, flushIntervalMs)))
+                .onBackpressureBuffer(maxPendingFrames, dropped -> log.warn("客户端消费过慢，中断响应, uuid: {}", uuid),
+                        BufferOverflowStrategy.ERROR)
+                .publishOn(Schedulers.fromExecutorService(chatExecutor), 1)
+                .map(batch -> {
+                    StringBuilder frame = new StringBuilder();
+                    SseTokenWriter.appendFrame(frame, String.join("", batch));
+                    return ServerSentEvent.builder(frame.toString()).build();
+                });
+
+        return Flux.concat(Flux.just(ServerSentEvent.builder("").event(SseEventEnum.BEGIN.getEvent()).build()), tokens)
+                .onErrorResume(StreamCancelledException.class,
+                        e -> Flux.just(ServerSentEvent.builder("响应已停止").event(SseEventEnum.STOP.getEvent()).build()))
+                .onErrorResume(e -> {
+                    log.error("handle flux error, uuid: {}", uuid, e);
+                    return Flux.just(ServerSentEvent.builder(String.valueOf(e.getMessage()))
+                            .event(SseEventEnum.ERROR.getEvent()).build());
+                });
+    }
+
+    /**
+     * 按token协议回放缓存的回答，会话需已通过createEmitter创建
+     *
+     * @param uuid 会话UUID
+     * @param content 缓存的回答
+     */
+    public void replayResponse(String uuid, String content) {
+        SessionInfo session = cache.getSessionInfo(uuid);
+        if (session == null || !session.finish(SessionInfo.State.COMPLETED)) {
+            return;
+        }
+        SseTokenWriter writer = sseEmitterHelper.createTokenWriter(session.getReplayBuffer());
+        try {
+            splitReplay(content).forEach(writer::write);
+            writer.close();
+            session.getReplayBuffer().finish(null, null);
+        } finally {
+            sseEmitterHelper.releaseSession(uuid, session);
+        }
+    }
+
+    /**
+     * 以Flux形式回放缓存的回答，事件协议与streamFlux一致
+     *
+     * @param content 缓存的回答
+     */
+    public Flux<ServerSentEvent<String>> replayFlux(String content) {
+        Flux<ServerSentEvent<String>> tokens = Flux.fromIterable(splitReplay(content))
+                .buffer(flushTokens)
+                .map(batch -> {
+                    StringBuilder frame = new StringBuilder();
+                    SseTokenWriter.appendFrame(frame, String.join("", batch));
+                    return ServerSentEvent.builder(frame.toString()).build();
+                });
+        return Flux.concat(Flux.just(ServerSentEvent.builder("").event(SseEventEnum.BEGIN.getEvent()).build()), tokens);
+    }
+
+    /**
+     * 将回答切成与模型输出粒度相近的片段，不拆开代理对
+     */
+    private static List<String> splitReplay(String content) {
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < content.length()) {
+            int end = Math.min(content.length(), start + REPLAY_CHUNK_CHARS);
+            if (end < content.length() && Character.isHighSurrogate(content.charAt(end - 1))) {
+                end++;
+            }
+            chunks.add(content.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static String snapshot(StringBuilder content) {
+        synchronized (content) {
+            return content.toString();
+        }
     }
 
     /**
      * 处理停止请求 - 优雅停止流式响应（防重复执行）
      *
-     * @param emitter SSE连接
+     * @param session 会话信息
+     * @param writer token写入器
      * @param uuid 会话UUID
      * @param currentContent 当前已生成的内容
      * @param consumer 保存内容的回调函数
      */
-    private void handleStopRequest(SseEmitter emitter, String uuid, String currentContent, BiConsumer<AiMessage, TokenUsage> consumer) {
+    private void handleStopRequest(SessionInfo session, SseTokenWriter writer, String uuid, String currentContent, BiConsumer<AiMessage, TokenUsage> consumer) {
         try {
             log.info("处理停止请求, uuid: {}, 当前内容长度: {}", uuid, currentContent.length());
 
-            // 先检查session是否还存在，防止重复处理
-            if (cache.getSessionInfo(uuid) == null) {
-                log.warn("Session已被清理, uuid: {}, 跳过处理", uuid);
-                return;
-            }
-
-            // 1. 发送停止事件给前端
-            emitter.send(SseEmitter.event()
-                    .name("stop")
-                    .data("响应已停止"));
+            // 1. 发送剩余token和停止事件给前端，并完成SSE连接
+            writer.close();
+            session.getReplayBuffer().finish(SseEventEnum.STOP, "响应已停止");
 
             // 2. 保存当前已生成的内容
             if (!currentContent.trim().isEmpty()) {
                 consumer.accept(AiMessage.aiMessage(currentContent), null);
             }
-
-            // 3. 完成SSE连接
-            emitter.complete();
             log.info("sse响已停止, uuid: {}", uuid);
-
         } catch (Exception e) {
             log.error("处理停止请求失败, uuid: {}", uuid, e);
-            // 发生异常时也要确保SSE连接关闭和缓存清理
-            try {
-                emitter.complete();
-            } catch (Exception ignored) {
-                // 忽略关闭时的异常
-            }
+        } finally {
+            sseEmitterHelper.releaseSession(uuid, session);
         }
     }
 }
@@ -0,0 +1,119 @@
+package ink.whi.backend.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 上游流式请求的取消句柄
+ * <p>
+ * 在run中发起的模型请求会登记到当前句柄（见OkHttpStreamCancellation），cancel时直接取消这些请求，
+ * 释放HTTP连接，不依赖下一个token到达。故障转移的每次尝试使用子句柄，取消父句柄时一并取消
+ *
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+@Slf4j
+public class StreamHandle {
+
+    private static final ThreadLocal<StreamHandle> CURRENT = new ThreadLocal<>();
+
+    private final List<Closeable> resources = new ArrayList<>();
+
+    private final List<StreamHandle> children = new ArrayList<>();
+
+    private boolean cancelled;
+
+    /**
+     * 当前线程绑定的句柄，未绑定时返回null
+     */
+    public static StreamHandle current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 绑定当前句柄后执行，期间发起的上游请求登记到该句柄
+     */
+    public void run(Runnable task) {
+        StreamHandle previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            task.run();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 创建子句柄，父句柄已取消时子句柄直接为取消状态
+     */
+    public StreamHandle child() {
+        StreamHandle child = new StreamHandle();
+        synchronized (this) {
+            if (!cancelled) {
+                children.add(child);
+                return child;
+            }
+        }
+        child.cancel();
+        return child;
+    }
+
+    /**
+     * 登记上游响应流
+     * @return 已取消时立即关闭并返回false
+     */
+    public boolean attach(Closeable resource) {
+        synchronized (this) {
+            if (!cancelled) {
+                resources.add(resource);
+                return true;
+            }
+        }
+        closeQuietly(resource);
+        return false;
+    }
+
+    public synchronized void detach(Closeable resource) {
+        resources.remove(resource);
+    }
+
+    /**
+     * 取消：关闭已登记的响应流，之后登记的响应流立即关闭
+     */
+    public void cancel() {
+        List<Closeable> toClose;
+        List<StreamHandle> toCancel;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toClose = new ArrayList<>(resources);
+            toCancel = new ArrayList<>(children);
+            resources.clear();
+            children.clear();
+        }
+        toClose.forEach(StreamHandle::closeQuietly);
+        toCancel.forEach(StreamHandle::cancel);
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    private static void closeQuietly(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException | RuntimeException e) {
+            log.debug("关闭上游响应流失败: {}", e.getMessage());
+        }
+    }
+}
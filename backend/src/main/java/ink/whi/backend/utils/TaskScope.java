@@ -0,0 +1,101 @@
+package ink.whi.backend.utils;
+
+import ink.whi.backend.common.context.ReqInfoContext;
+import ink.whi.backend.common.exception.BusinessException;
+import ink.whi.backend.common.status.StatusEnum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 并发子任务作用域
+ * <p>
+ * fork的任务在线程池中并发执行并继承当前请求上下文，join等待全部完成，
+ * 任一任务失败或超时时中断其余任务并抛出该异常；close时取消所有未完成的任务。
+ * 用法：try (TaskScope scope = new TaskScope(executor)) { fork...; join(); }
+ *
+ * @author: qing
+ * @Date: 2025/8/31
+ */
+public class TaskScope implements AutoCloseable {
+
+    private final ExecutorCompletionService<Object> completionService;
+
+    private final List<Future<?>> futures = new ArrayList<>();
+
+    private final ReqInfoContext.ReqInfo reqInfo;
+
+    public TaskScope(ExecutorService executor) {
+        this.completionService = new ExecutorCompletionService<>(executor);
+        this.reqInfo = ReqInfoContext.getReqInfo();
+    }
+
+    /**
+     * 提交子任务
+     * @param task 子任务
+     * @return 子任务结果，join之后通过resultNow读取
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> fork(Callable<T> task) {
+        Future<Object> future = completionService.submit(() -> {
+            // 线程池中的线程会复用，不能依赖InheritableThreadLocal
+            ReqInfoContext.addReqInfo(reqInfo);
+            try {
+                return task.call();
+            } finally {
+                ReqInfoContext.clear();
+            }
+        });
+        futures.add(future);
+        return (Future<T>) future;
+    }
+
+    /**
+     * 等待所有子任务完成
+     * @param timeoutMs 总超时时间(ms)
+     */
+    public void join(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Future<Object> done = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    throw BusinessException.newInstance(StatusEnum.UNEXPECT_ERROR, "请求处理超时");
+                }
+                // 失败时抛出ExecutionException
+                done.get();
+            }
+        } catch (ExecutionException e) {
+            cancelAll();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            cancelAll();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (RuntimeException e) {
+            cancelAll();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        cancelAll();
+    }
+
+    private void cancelAll() {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
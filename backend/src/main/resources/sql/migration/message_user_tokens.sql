@@ -0,0 +1,8 @@
+-- 升级到按消息内容记录token数的版本时执行一次（新安装直接使用schema.sql，无需执行）
+-- 旧版本用户消息的tokens记录的是整次请求的输入token，置空后由ContextAssembler按内容重新计算，
+-- 升级后写入的用户消息记录的是本条消息的token数，可直接使用
+USE chat_box_db;
+
+UPDATE `message`
+SET `tokens` = NULL
+WHERE `role` = 1;
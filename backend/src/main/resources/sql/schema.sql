@@ -29,6 +29,8 @@ CREATE TABLE IF NOT EXISTS `conversation`
     `user_id`        int          NOT NULL COMMENT '用户ID',
     `system_message` text                  DEFAULT '' COMMENT '系统提示词',
     `model_params`   varchar(200) NOT NULL DEFAULT '' comment '模型参数',
+    `summary`        text                  DEFAULT NULL COMMENT '历史对话摘要',
+    `summary_message_id` int               DEFAULT NULL COMMENT '摘要覆盖到的最后一条消息ID',
     `create_time`    timestamp    NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     `update_time`    timestamp    NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
     PRIMARY KEY (`id`),
@@ -152,3 +154,55 @@ CREATE TABLE `base_file`
     UNIQUE KEY `uk_uuid` (`uuid`)
 ) ENGINE = InnoDB
   DEFAULT CHARSET = utf8mb4 COMMENT ='文件信息表';
+
+-- 知识库索引任务表
+CREATE TABLE IF NOT EXISTS `kb_ingest_job`
+(
+    `id`                INT          NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+    `kb_id`             INT          NOT NULL COMMENT '所属知识库ID',
+    `kb_item_id`        INT          NOT NULL COMMENT '知识库条目ID',
+    `file_id`           INT          NOT NULL COMMENT '源文件ID',
+    `file_size`         BIGINT                DEFAULT NULL COMMENT '文件大小（字节）',
+    `status`            INT          NOT NULL DEFAULT 0 COMMENT '状态：0-待执行，1-执行中，2-已完成，3-失败',
+    `attempts`          INT          NOT NULL DEFAULT 0 COMMENT '已执行次数',
+    `next_run_time`     DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '下次可执行时间',
+    `lease_owner`       VARCHAR(64)           DEFAULT NULL COMMENT '持有租约的节点',
+    `lease_expire_time` DATETIME              DEFAULT NULL COMMENT '租约到期时间',
+    `checkpoint`        INT          NOT NULL DEFAULT 0 COMMENT '已写入向量库的分段数',
+    `last_error`        VARCHAR(512)          DEFAULT NULL COMMENT '最近一次失败原因',
+    `create_time`       DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    `update_time`       DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_kb_item_id` (`kb_item_id`),
+    KEY `idx_status_next_run` (`status`, `next_run_time`)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4 COMMENT ='知识库索引任务表';
+
+CREATE TABLE IF NOT EXISTS `kb_chunk`
+(
+    `id`              INT         NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+    `kb_id`           INT         NOT NULL COMMENT '所属知识库ID',
+    `content_hash`    CHAR(64)    NOT NULL COMMENT '规范化文本和向量模型的SHA-256',
+    `embedding_id`    VARCHAR(36) NOT NULL COMMENT '向量库中的分段ID',
+    `ref_count`       INT         NOT NULL DEFAULT 0 COMMENT '引用该分段的条目分段数',
+    `stored`          TINYINT     NOT NULL DEFAULT 0 COMMENT '向量是否已写入向量库',
+    `create_time`     DATETIME    NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    `update_time`     DATETIME    NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_kb_hash` (`kb_id`, `content_hash`)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4 COMMENT ='知识库去重分段表';
+
+CREATE TABLE IF NOT EXISTS `kb_chunk_ref`
+(
+    `id`              INT      NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+    `kb_id`           INT      NOT NULL COMMENT '所属知识库ID',
+    `kb_item_id`      INT      NOT NULL COMMENT '知识库条目ID',
+    `seg_index`       INT      NOT NULL COMMENT '条目内的分段序号',
+    `content_hash`    CHAR(64) NOT NULL COMMENT '引用的分段',
+    `create_time`     DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    `update_time`     DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_item_index` (`kb_item_id`, `seg_index`)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4 COMMENT ='知识库条目分段引用表';
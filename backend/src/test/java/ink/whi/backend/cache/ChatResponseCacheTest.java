@@ -0,0 +1,147 @@
+package ink.whi.backend.cache;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import ink.whi.backend.common.dto.message.MessageDTO;
+import ink.whi.backend.common.enums.MsgRoleEnum;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class ChatResponseCacheTest {
+
+    private static final Map<String, float[]> VECTORS = Map.of(
+            "什么是java", new float[]{1, 0, 0},
+            "java是什么", new float[]{0.99f, 0.1f, 0},
+            "今天天气怎么样", new float[]{0, 1, 0});
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+
+    private ChatResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        when(embeddingModel.embed(anyString())).thenAnswer(invocation -> {
+            float[] vector = VECTORS.getOrDefault(invocation.<String>getArgument(0), new float[]{0, 0, 1});
+            return Response.from(Embedding.from(vector));
+        });
+        cache = newCache(true, embeddingModel, MoreExecutors.newDirectExecutorService());
+    }
+
+    private ChatResponseCache newCache(boolean semantic, EmbeddingModel model, ExecutorService executor) {
+        ChatResponseCache cache = new ChatResponseCache();
+        ReflectionTestUtils.setField(cache, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(cache, "embeddingModel", model);
+        ReflectionTestUtils.setField(cache, "chatExecutor", executor);
+        ReflectionTestUtils.setField(cache, "enable", true);
+        ReflectionTestUtils.setField(cache, "maxSize", 100L);
+        ReflectionTestUtils.setField(cache, "ttlMinutes", 60L);
+        ReflectionTestUtils.setField(cache, "semanticEnable", semantic);
+        ReflectionTestUtils.setField(cache, "semanticThreshold", 0.92);
+        ReflectionTestUtils.setField(cache, "semanticMaxSize", 100L);
+        ReflectionTestUtils.setField(cache, "semanticPerScope", 4);
+        ReflectionTestUtils.setField(cache, "semanticTimeoutMs", 50L);
+        cache.init();
+        return cache;
+    }
+
+    private ChatResponseCache.Key key(String recent, String question) {
+        MessageDTO message = new MessageDTO();
+        message.setRole(MsgRoleEnum.User.getRole());
+        message.setContent(recent);
+        return cache.key(1, 2, "system", null, List.of(message), question);
+    }
+
+    private double count(String result) {
+        return meterRegistry.counter("chat.response.cache", "result", result).count();
+    }
+
+    @Test
+    void exactHitIgnoresWhitespaceAndCase() {
+        cache.put(key("hi", "什么是 Java"), "answer");
+
+        assertEquals("answer", cache.get(key("hi", "  什么是   JAVA ")));
+        assertEquals(1, count("exact"));
+        assertEquals(0, count("semantic"));
+    }
+
+    @Test
+    void similarQuestionHitsSemanticTierInSameContext() {
+        cache.put(key("hi", "什么是java"), "answer");
+
+        assertEquals("answer", cache.get(key("hi", "java是什么")));
+        assertEquals(1, count("semantic"));
+
+        // 相似度低于阈值不命中
+        assertNull(cache.get(key("hi", "今天天气怎么样")));
+        assertEquals(1, count("miss"));
+    }
+
+    @Test
+    void otherContextDoesNotEmbedOrHit() {
+        cache.put(key("hi", "什么是java"), "answer");
+
+        assertNull(cache.get(key("hello", "java是什么")));
+
+        // 该上下文没有缓存，不计算问题向量
+        verify(embeddingModel, times(1)).embed(anyString());
+        assertEquals(1, count("miss"));
+    }
+
+    @Test
+    void slowEmbeddingIsTreatedAsMiss() {
+        cache.put(key("hi", "什么是java"), "answer");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ReflectionTestUtils.setField(cache, "chatExecutor", executor);
+            executor.execute(() -> sleep(500));
+
+            assertNull(cache.get(key("hi", "java是什么")));
+            assertEquals(1, count("miss"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void semanticTierIsOffWithoutModel() {
+        cache = newCache(true, null, MoreExecutors.newDirectExecutorService());
+        cache.put(key("hi", "什么是java"), "answer");
+
+        assertEquals("answer", cache.get(key("hi", "什么是java")));
+        assertNull(cache.get(key("hi", "java是什么")));
+        verify(embeddingModel, never()).embed(anyString());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
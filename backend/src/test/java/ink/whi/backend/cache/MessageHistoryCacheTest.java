@@ -0,0 +1,157 @@
+package ink.whi.backend.cache;
+
+import ink.whi.backend.common.dto.message.MessageDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class MessageHistoryCacheTest {
+
+    private static final String UUID = "conv-1";
+
+    private MessageHistoryCache cache;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        cache = new MessageHistoryCache();
+        ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "maxMessages", 100L);
+        ReflectionTestUtils.setField(cache, "expireMinutes", 30L);
+        cache.init();
+    }
+
+    private static MessageDTO message(int id) {
+        MessageDTO message = new MessageDTO();
+        message.setId(id);
+        message.setContent("m" + id);
+        return message;
+    }
+
+    private static List<Integer> ids(List<MessageDTO> messages) {
+        return messages.stream().map(MessageDTO::getId).toList();
+    }
+
+    private List<MessageDTO> load(int... ids) {
+        return cache.get(UUID, () -> {
+            loads.incrementAndGet();
+            List<MessageDTO> list = new ArrayList<>();
+            for (int id : ids) {
+                list.add(message(id));
+            }
+            return list;
+        });
+    }
+
+    @Test
+    void appendAddsToLoadedHistory() {
+        load(1, 2);
+
+        cache.append(UUID, message(3));
+
+        assertEquals(List.of(1, 2, 3), ids(load(1, 2)));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void appendToUncachedConversationIsIgnored() {
+        cache.append(UUID, message(1));
+
+        assertNull(cache.getIfPresent(UUID));
+        // 下次读取时从数据库加载
+        assertEquals(List.of(1), ids(load(1)));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void appendIsDedupedById() {
+        load(1, 2);
+
+        cache.append(UUID, message(2));
+        cache.append(UUID, message(3));
+        cache.append(UUID, message(3));
+
+        assertEquals(List.of(1, 2, 3), ids(cache.getIfPresent(UUID)));
+    }
+
+    @Test
+    void snapshotIsNotAffectedByLaterAppend() {
+        List<MessageDTO> snapshot = load(1);
+        snapshot.add(message(9));
+
+        cache.append(UUID, message(2));
+
+        assertEquals(List.of(1, 9), ids(snapshot));
+        assertEquals(List.of(1, 2), ids(cache.getIfPresent(UUID)));
+    }
+
+    @Test
+    void invalidateForcesReload() {
+        load(1, 2);
+
+        cache.invalidate(UUID);
+
+        assertNull(cache.getIfPresent(UUID));
+        assertEquals(List.of(1), ids(load(1)));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void appendWaitsForLoadInProgress() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<MessageDTO>> loaded = CompletableFuture.supplyAsync(() -> cache.get(UUID, () -> {
+            loading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // 加载结果已包含并发写入的消息2
+            return List.of(message(1), message(2));
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Void> appended = CompletableFuture.runAsync(() -> {
+            cache.append(UUID, message(2));
+            cache.append(UUID, message(3));
+        });
+        release.countDown();
+        appended.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(1, 2), ids(loaded.get(5, TimeUnit.SECONDS)));
+        assertEquals(List.of(1, 2, 3), ids(cache.getIfPresent(UUID)));
+    }
+
+    @Test
+    void conversationsAreEvictedByMessageCount() {
+        ReflectionTestUtils.setField(cache, "maxMessages", 4L);
+        cache.init();
+        cache.get("a", () -> List.of(message(1), message(2)));
+        cache.get("b", () -> List.of(message(3), message(4)));
+
+        // 追加后总消息数超出上限，淘汰最久未访问的会话
+        cache.getIfPresent("b");
+        cache.append("b", message(5));
+
+        assertNull(cache.getIfPresent("a"));
+        assertEquals(List.of(3, 4, 5), ids(cache.getIfPresent("b")));
+    }
+}
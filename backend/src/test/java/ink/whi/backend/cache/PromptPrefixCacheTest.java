@@ -0,0 +1,134 @@
+package ink.whi.backend.cache;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import ink.whi.backend.common.dto.message.MessageDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class PromptPrefixCacheTest {
+
+    private static final String UUID = "conv-1";
+
+    private static final List<ChatMessage> HEAD = List.of(SystemMessage.from("system"));
+
+    private PromptPrefixCache cache;
+
+    private final List<Integer> converted = new ArrayList<>();
+
+    private final Function<MessageDTO, ChatMessage> converter = message -> {
+        converted.add(message.getId());
+        return UserMessage.from(message.getContent());
+    };
+
+    @BeforeEach
+    void setUp() {
+        cache = new PromptPrefixCache();
+    }
+
+    /**
+     * ID从from到to的历史消息
+     */
+    private static List<MessageDTO> history(int from, int to) {
+        List<MessageDTO> messages = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            MessageDTO message = new MessageDTO();
+            message.setId(i);
+            message.setContent("m" + i);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    @Test
+    void nextTurnReusesPrefixAndConvertsOnlyNewMessages() {
+        List<ChatMessage> first = cache.build(UUID, HEAD, history(1, 2), converter);
+        converted.clear();
+
+        List<ChatMessage> second = cache.build(UUID, HEAD, history(1, 4), converter);
+
+        assertEquals(List.of(3, 4), converted);
+        assertEquals(5, second.size());
+        // 前缀中的消息对象原样复用
+        for (int i = 0; i < first.size(); i++) {
+            assertSame(first.get(i), second.get(i));
+        }
+        assertEquals(1, cache.anchor(UUID));
+    }
+
+    @Test
+    void returnedListCanBeAppendedWithoutChangingCache() {
+        List<ChatMessage> first = cache.build(UUID, HEAD, history(1, 2), converter);
+        first.add(UserMessage.from("question"));
+        converted.clear();
+
+        List<ChatMessage> second = cache.build(UUID, HEAD, history(1, 2), converter);
+
+        assertEquals(3, second.size());
+        assertEquals(List.of(), converted);
+    }
+
+    @Test
+    void changedHeadRebuildsPrefix() {
+        cache.build(UUID, HEAD, history(1, 2), converter);
+        converted.clear();
+
+        List<ChatMessage> head = List.of(SystemMessage.from("system"), SystemMessage.from("summary"));
+        List<ChatMessage> messages = cache.build(UUID, head, history(1, 2), converter);
+
+        assertEquals(List.of(1, 2), converted);
+        assertSame(head.get(1), messages.get(1));
+    }
+
+    @Test
+    void differentStartRebuildsPrefix() {
+        List<ChatMessage> first = cache.build(UUID, HEAD, history(1, 4), converter);
+        converted.clear();
+
+        // 窗口前移后起点变化，不复用
+        List<ChatMessage> second = cache.build(UUID, HEAD, history(3, 6), converter);
+
+        assertEquals(List.of(3, 4, 5, 6), converted);
+        assertNotSame(first.get(3), second.get(1));
+        assertEquals(3, cache.anchor(UUID));
+    }
+
+    @Test
+    void editedHistoryRebuildsPrefix() {
+        cache.build(UUID, HEAD, history(1, 4), converter);
+        converted.clear();
+
+        // 前缀中的消息被删除后重建
+        List<MessageDTO> history = history(1, 4);
+        history.remove(2);
+        cache.build(UUID, HEAD, history, converter);
+
+        assertEquals(List.of(1, 2, 4), converted);
+    }
+
+    @Test
+    void evictDropsPrefix() {
+        cache.build(UUID, HEAD, history(1, 2), converter);
+
+        cache.evict(UUID);
+
+        assertNull(cache.anchor(UUID));
+        converted.clear();
+        cache.build(UUID, HEAD, history(1, 2), converter);
+        assertEquals(List.of(1, 2), converted);
+    }
+}
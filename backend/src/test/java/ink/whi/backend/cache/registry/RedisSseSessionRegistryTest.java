@@ -0,0 +1,143 @@
+package ink.whi.backend.cache.registry;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 使用嵌入式Redis模拟两个节点共享同一个Redis
+ *
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class RedisSseSessionRegistryTest {
+
+    private static RedisServer redisServer;
+
+    private static LettuceConnectionFactory connectionFactory;
+
+    private static StringRedisTemplate redisTemplate;
+
+    private RedisSseSessionRegistry nodeA;
+
+    private RedisSseSessionRegistry nodeB;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate.execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+        nodeA = registry("node-a");
+        nodeB = registry("node-b");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        nodeA.destroy();
+        nodeB.destroy();
+    }
+
+    private static RedisSseSessionRegistry registry(String nodeId) {
+        RedisSseSessionRegistry registry = new RedisSseSessionRegistry();
+        ReflectionTestUtils.setField(registry, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(registry, "connectionFactory", connectionFactory);
+        ReflectionTestUtils.setField(registry, "ttlMinutes", 1L);
+        ReflectionTestUtils.setField(registry, "nodeId", nodeId);
+        registry.init();
+        return registry;
+    }
+
+    @Test
+    void sessionIsVisibleToOtherNodes() {
+        nodeA.register("u1");
+
+        assertTrue(nodeB.isActive("u1"));
+        assertFalse(nodeB.isActive("u2"));
+        assertTrue(redisTemplate.getExpire("chat:sse:session:u1") > 0);
+    }
+
+    @Test
+    void onlyOwningNodeCanUnregister() {
+        nodeA.register("u1");
+
+        nodeB.unregister("u1");
+        assertTrue(nodeA.isActive("u1"));
+
+        nodeA.unregister("u1");
+        assertFalse(nodeB.isActive("u1"));
+    }
+
+    @Test
+    void stopRequestReachesOwningNode() throws InterruptedException {
+        CountDownLatch received = new CountDownLatch(1);
+        Queue<String> stopped = new ConcurrentLinkedQueue<>();
+        nodeA.onStop(uuid -> {
+            stopped.add(uuid);
+            received.countDown();
+        });
+        nodeA.register("u1");
+
+        nodeB.requestStop("u1");
+
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        assertTrue(stopped.contains("u1"));
+        assertTrue(nodeA.isStopped("u1"));
+    }
+
+    @Test
+    void stopMarkerOnlySetForActiveSessionAndClearedOnRegister() {
+        nodeB.requestStop("idle");
+        assertFalse(nodeA.isStopped("idle"));
+
+        nodeA.register("u1");
+        nodeB.requestStop("u1");
+        assertTrue(nodeA.isStopped("u1"));
+
+        // 同一会话的新请求不受上一次停止的影响
+        nodeA.register("u1");
+        assertFalse(nodeA.isStopped("u1"));
+
+        nodeB.requestStop("u1");
+        nodeA.unregister("u1");
+        assertFalse(nodeA.isStopped("u1"));
+    }
+}
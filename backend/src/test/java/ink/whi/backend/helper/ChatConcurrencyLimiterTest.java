@@ -0,0 +1,157 @@
+package ink.whi.backend.helper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class ChatConcurrencyLimiterTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ChatConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new ChatConcurrencyLimiter();
+        ReflectionTestUtils.setField(limiter, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(limiter, "userStreams", 1);
+        ReflectionTestUtils.setField(limiter, "platformStreams", 2);
+        ReflectionTestUtils.setField(limiter, "maxWaitMs", 20L);
+        limiter.init();
+    }
+
+    private int entries(String field) {
+        return ((Map<?, ?>) ReflectionTestUtils.getField(limiter, field)).size();
+    }
+
+    private double rejected(String scope) {
+        return meterRegistry.counter("chat.limiter.rejected", "scope", scope).count();
+    }
+
+    @Test
+    void userLimitRejectsAfterWaiting() {
+        ChatConcurrencyLimiter.Permit permit = limiter.acquire(1, 10);
+        assertNotNull(permit);
+
+        long start = System.nanoTime();
+        assertNull(limiter.acquire(1, 10));
+        assertEquals(1, rejected("user"));
+        // 排队等待了maxWaitMs
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(15));
+
+        permit.release();
+        assertNotNull(limiter.acquire(1, 10));
+    }
+
+    @Test
+    void platformLimitIsSharedAcrossUsers() {
+        assertNotNull(limiter.acquire(1, 10));
+        assertNotNull(limiter.acquire(2, 10));
+
+        assertNull(limiter.acquire(3, 10));
+        assertEquals(1, rejected("platform"));
+        // 被平台拒绝时已归还用户3的许可，其他平台不受影响
+        assertNotNull(limiter.acquire(3, 11));
+    }
+
+    @Test
+    void releaseIsIdempotent() {
+        ChatConcurrencyLimiter.Permit first = limiter.acquire(1, 10);
+        first.release();
+        first.release();
+
+        assertNotNull(limiter.acquire(1, 10));
+        // 重复释放没有多归还许可
+        assertNull(limiter.acquire(1, 10));
+    }
+
+    @Test
+    void tryAcquirePlatformDoesNotTakeUserPermit() {
+        ChatConcurrencyLimiter.Permit user = limiter.acquire(1, 10);
+        ChatConcurrencyLimiter.Permit backup = limiter.tryAcquirePlatform(10);
+        assertNotNull(user);
+        assertNotNull(backup);
+
+        assertNull(limiter.tryAcquirePlatform(10));
+        assertEquals(1, rejected("platform"));
+
+        backup.release();
+        assertNotNull(limiter.tryAcquirePlatform(10));
+    }
+
+    @Test
+    void nullKeysAreNotLimited() {
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(limiter.acquire(null, null));
+            assertNotNull(limiter.tryAcquirePlatform(null));
+        }
+    }
+
+    @Test
+    void idleEntriesAreEvicted() {
+        ChatConcurrencyLimiter.Permit first = limiter.acquire(1, 10);
+        ChatConcurrencyLimiter.Permit second = limiter.acquire(2, 10);
+        assertEquals(2, entries("userPermits"));
+        assertEquals(1, entries("platformPermits"));
+
+        // 平台仍有持有者时保留
+        first.release();
+        assertEquals(1, entries("userPermits"));
+        assertEquals(1, entries("platformPermits"));
+
+        second.release();
+        assertEquals(0, entries("userPermits"));
+        assertEquals(0, entries("platformPermits"));
+    }
+
+    @Test
+    void rejectedRequestsDoNotLeaveEntries() {
+        ChatConcurrencyLimiter.Permit permit = limiter.acquire(1, 10);
+        assertNull(limiter.acquire(1, 10));
+        assertNotNull(limiter.acquire(2, 10));
+        assertNull(limiter.acquire(3, 10));
+        assertNull(limiter.tryAcquirePlatform(10));
+
+        // 被拒绝的用户3没有留下条目
+        assertEquals(2, entries("userPermits"));
+
+        permit.release();
+        // 重新创建的信号量仍按上限计数
+        ChatConcurrencyLimiter.Permit again = limiter.acquire(1, 10);
+        assertNotNull(again);
+        assertNull(limiter.acquire(1, 10));
+    }
+
+    @Test
+    void releasePlatformKeepsUserPermit() {
+        ChatConcurrencyLimiter.Permit first = limiter.acquire(1, 10);
+        assertNotNull(limiter.acquire(2, 10));
+        assertNull(limiter.tryAcquirePlatform(10));
+
+        first.releasePlatform();
+        first.releasePlatform();
+        ChatConcurrencyLimiter.Permit backup = limiter.tryAcquirePlatform(10);
+        assertNotNull(backup);
+        // 只归还了一次平台许可，用户许可仍被占用
+        assertNull(limiter.tryAcquirePlatform(10));
+        assertNull(limiter.acquire(1, 11));
+
+        first.release();
+        assertNull(limiter.tryAcquirePlatform(10));
+        assertNotNull(limiter.acquire(1, 11));
+    }
+}
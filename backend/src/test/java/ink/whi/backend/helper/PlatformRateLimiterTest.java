@@ -0,0 +1,107 @@
+package ink.whi.backend.helper;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.listener.ChatModelErrorContext;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class PlatformRateLimiterTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private PlatformRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        limiter = new PlatformRateLimiter();
+        ReflectionTestUtils.setField(limiter, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(limiter, "requestsPerMinute", 2);
+        ReflectionTestUtils.setField(limiter, "tokensPerMinute", 0L);
+        ReflectionTestUtils.setField(limiter, "maxWaitMs", 20L);
+        ReflectionTestUtils.setField(limiter, "initialCooldownMs", 1000L);
+        ReflectionTestUtils.setField(limiter, "maxCooldownMs", 60_000L);
+    }
+
+    private static ChatModelErrorContext error(String message) {
+        ChatModelErrorContext context = mock(ChatModelErrorContext.class);
+        when(context.error()).thenReturn(new RuntimeException(message));
+        return context;
+    }
+
+    @Test
+    void requestQuotaIsPerPlatform() {
+        assertTrue(limiter.acquire(1));
+        assertTrue(limiter.acquire(1));
+
+        // 下一个配额要30s后才恢复，超过maxWaitMs
+        assertFalse(limiter.acquire(1));
+        assertTrue(limiter.acquire(2));
+        assertEquals(1, meterRegistry.counter("chat.rate.rejected", "platform", "1").count());
+    }
+
+    @Test
+    void tryAcquireDoesNotWait() {
+        ReflectionTestUtils.setField(limiter, "maxWaitMs", 60_000L);
+        assertTrue(limiter.tryAcquire(1));
+        assertTrue(limiter.tryAcquire(1));
+
+        long start = System.nanoTime();
+        assertFalse(limiter.tryAcquire(1));
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+    }
+
+    @Test
+    void rateLimitErrorPausesPlatform() {
+        ReflectionTestUtils.setField(limiter, "requestsPerMinute", 0);
+        ChatModelListener listener = limiter.listener(1);
+
+        listener.onError(error("429 Too Many Requests: Please try again in 20s"));
+
+        assertFalse(limiter.acquire(1));
+        assertFalse(limiter.tryAcquire(1));
+        assertTrue(limiter.acquire(2));
+        assertEquals(1, meterRegistry.counter("chat.rate.throttled", "platform", "1").count());
+    }
+
+    @Test
+    void otherErrorsDoNotPausePlatform() {
+        ReflectionTestUtils.setField(limiter, "requestsPerMinute", 0);
+
+        limiter.listener(1).onError(error("invalid api key"));
+
+        assertTrue(limiter.acquire(1));
+    }
+
+    @Test
+    void tokenDebtBlocksNewRequests() {
+        ReflectionTestUtils.setField(limiter, "requestsPerMinute", 0);
+        ReflectionTestUtils.setField(limiter, "tokensPerMinute", 25L);
+        ChatModelResponseContext context = mock(ChatModelResponseContext.class);
+        when(context.chatResponse()).thenReturn(ChatResponse.builder()
+                .aiMessage(AiMessage.from("ok"))
+                .tokenUsage(new TokenUsage(10, 20))
+                .build());
+
+        assertTrue(limiter.acquire(1));
+        limiter.listener(1).onResponse(context);
+
+        assertFalse(limiter.acquire(1));
+    }
+}
@@ -0,0 +1,166 @@
+package ink.whi.backend.helper;
+
+import ink.whi.backend.common.enums.SseEventEnum;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class SseReplayBufferTest {
+
+    private static void send(SseReplayBuffer buffer, String frame) {
+        byte[] data = frame.getBytes(StandardCharsets.UTF_8);
+        buffer.send(data, data.length);
+    }
+
+    /**
+     * 以字节一次写出的token帧，如 id:1\ndata:{"v":"a"}\n\n
+     */
+    @SuppressWarnings("unchecked")
+    private static List<String> sent(SseEmitter emitter, int count) throws IOException {
+        ArgumentCaptor<Set<ResponseBodyEmitter.DataWithMediaType>> captor = ArgumentCaptor.forClass(Set.class);
+        verify(emitter, times(count)).send(captor.capture());
+        return captor.getAllValues().stream()
+                .map(items -> items.stream()
+                        .map(data -> new String((byte[]) data.getData(), StandardCharsets.UTF_8))
+                        .collect(Collectors.joining()))
+                .toList();
+    }
+
+    /**
+     * 结束事件
+     */
+    private static String ended(SseEmitter emitter) throws IOException {
+        ArgumentCaptor<SseEmitter.SseEventBuilder> captor = ArgumentCaptor.forClass(SseEmitter.SseEventBuilder.class);
+        verify(emitter).send(captor.capture());
+        return captor.getValue().build().stream()
+                .map(data -> String.valueOf(data.getData()))
+                .collect(Collectors.joining());
+    }
+
+    @Test
+    void framesAreSentWithIncreasingIds() throws IOException {
+        SseEmitter emitter = mock(SseEmitter.class);
+        SseReplayBuffer buffer = new SseReplayBuffer(8, emitter);
+
+        send(buffer, "{\"v\":\"a\"}");
+        send(buffer, "{\"v\":\"b\"}");
+
+        List<String> events = sent(emitter, 2);
+        assertEquals("id:1\ndata:{\"v\":\"a\"}\n\n", events.get(0));
+        assertEquals("id:2\ndata:{\"v\":\"b\"}\n\n", events.get(1));
+    }
+
+    @Test
+    void reattachReplaysMissedFrames() throws IOException {
+        SseEmitter first = mock(SseEmitter.class);
+        SseReplayBuffer buffer = new SseReplayBuffer(8, first);
+        send(buffer, "{\"v\":\"a\"}");
+        buffer.detach(first);
+        send(buffer, "{\"v\":\"b\"}");
+        send(buffer, "{\"v\":\"c\"}");
+
+        SseEmitter second = mock(SseEmitter.class);
+        assertTrue(buffer.attach(second, 1));
+        send(buffer, "{\"v\":\"d\"}");
+
+        List<String> events = sent(second, 3);
+        assertTrue(events.get(0).contains("id:2\n"));
+        assertTrue(events.get(1).contains("id:3\n"));
+        assertTrue(events.get(2).contains("id:4\n"));
+        assertFalse(buffer.isDetachedFor(0));
+    }
+
+    @Test
+    void reattachFailsWhenFramesWereOverwritten() {
+        SseReplayBuffer buffer = new SseReplayBuffer(2, null);
+        for (int i = 0; i < 5; i++) {
+            send(buffer, "{\"v\":\"" + i + "\"}");
+        }
+
+        assertFalse(buffer.attach(mock(SseEmitter.class), 1));
+        assertFalse(buffer.attach(mock(SseEmitter.class), 6));
+    }
+
+    @Test
+    void reattachAfterFinishReplaysAndSendsEndEvent() throws IOException {
+        SseReplayBuffer buffer = new SseReplayBuffer(8, null);
+        send(buffer, "{\"v\":\"a\"}");
+        buffer.finish(SseEventEnum.STOP, "stopped");
+
+        SseEmitter emitter = mock(SseEmitter.class);
+        assertTrue(buffer.attach(emitter, 0));
+
+        List<String> events = sent(emitter, 1);
+        assertTrue(events.get(0).startsWith("id:1\n"));
+        assertTrue(ended(emitter).contains("event:" + SseEventEnum.STOP.getEvent()));
+        verify(emitter).complete();
+    }
+
+    @Test
+    void sendFailureDetachesOnceAndKeepsBuffering() throws IOException {
+        SseEmitter emitter = mock(SseEmitter.class);
+        doThrow(new IOException("broken pipe")).when(emitter).send(anySet());
+        SseReplayBuffer buffer = new SseReplayBuffer(8, emitter);
+        AtomicInteger detached = new AtomicInteger();
+        buffer.setOnDetach(detached::incrementAndGet);
+
+        send(buffer, "{\"v\":\"a\"}");
+        send(buffer, "{\"v\":\"b\"}");
+
+        assertEquals(1, detached.get());
+        verify(emitter, times(1)).send(anySet());
+        assertTrue(buffer.isDetachedFor(0));
+
+        SseEmitter second = mock(SseEmitter.class);
+        assertTrue(buffer.attach(second, 0));
+        sent(second, 2);
+    }
+
+    @Test
+    void detachOfStaleEmitterIsIgnored() {
+        SseEmitter first = mock(SseEmitter.class);
+        SseReplayBuffer buffer = new SseReplayBuffer(8, first);
+        SseEmitter second = mock(SseEmitter.class);
+        buffer.attach(second, 0);
+
+        buffer.detach(first);
+
+        assertFalse(buffer.isDetachedFor(0));
+    }
+
+    @Test
+    void finishedBufferIsNeverReportedDetached() throws IOException {
+        SseEmitter emitter = mock(SseEmitter.class);
+        SseReplayBuffer buffer = new SseReplayBuffer(8, emitter);
+
+        buffer.finish(null, null);
+        send(buffer, "{\"v\":\"a\"}");
+
+        assertTrue(buffer.isFinished());
+        assertFalse(buffer.isDetachedFor(0));
+        verify(emitter, never()).send(anySet());
+        verify(emitter).complete();
+    }
+}
@@ -0,0 +1,127 @@
+package ink.whi.backend.helper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class SseTokenWriterTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ScheduledExecutorService scheduler;
+
+    private SseReplayBuffer buffer;
+
+    /**
+     * 发送的帧，帧缓冲区会被复用，在调用时解码
+     */
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        buffer = mock(SseReplayBuffer.class);
+        doAnswer(invocation -> sent.add(new String(invocation.<byte[]>getArgument(0), 0,
+                invocation.<Integer>getArgument(1), StandardCharsets.UTF_8)))
+                .when(buffer).send(any(byte[].class), anyInt());
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private SseTokenWriter writer(int flushTokens, long flushIntervalMs) {
+        return new SseTokenWriter(buffer, flushTokens, flushIntervalMs, scheduler, Runnable::run,
+                meterRegistry.counter("flush"), meterRegistry.counter("tokens"), meterRegistry.timer("flush.time"));
+    }
+
+    @Test
+    void flushesWhenTokenThresholdReached() {
+        SseTokenWriter writer = writer(3, 60_000);
+
+        writer.write("a");
+        writer.write("b");
+        assertTrue(sent.isEmpty());
+
+        writer.write("c");
+        assertEquals(List.of("{\"v\":\"abc\"}"), sent);
+        assertEquals(3, meterRegistry.counter("tokens").count());
+    }
+
+    @Test
+    void flushesPendingTokensAfterInterval() {
+        SseTokenWriter writer = writer(100, 20);
+
+        writer.write("a");
+        writer.write("b");
+
+        verify(buffer, timeout(1000)).send(any(byte[].class), anyInt());
+        assertEquals(List.of("{\"v\":\"ab\"}"), sent);
+    }
+
+    @Test
+    void closeFlushesRemainingAndIgnoresLaterWrites() {
+        SseTokenWriter writer = writer(100, 60_000);
+
+        writer.write("a");
+        writer.close();
+        writer.write("b");
+        writer.flush();
+
+        assertEquals(List.of("{\"v\":\"a\"}"), sent);
+    }
+
+    @Test
+    void emptyTokensAreSkipped() {
+        SseTokenWriter writer = writer(1, 60_000);
+
+        writer.write("");
+        writer.write(null);
+
+        verify(buffer, never()).send(any(byte[].class), anyInt());
+    }
+
+    @Test
+    void frameIsEncodedAsUtf8AndBufferIsReused() {
+        SseTokenWriter writer = writer(1, 60_000);
+        String longText = "长".repeat(200);
+
+        writer.write("中\"😀\n");
+        writer.write(longText);
+        writer.write("a");
+
+        assertEquals(List.of("{\"v\":\"中\\\"😀\\n\"}", "{\"v\":\"" + longText + "\"}", "{\"v\":\"a\"}"), sent);
+    }
+
+    @Test
+    void appendFrameEscapesJson() {
+        StringBuilder out = new StringBuilder();
+
+        SseTokenWriter.appendFrame(out, "\"q\"\\\n\r\t\u0001中");
+
+        assertEquals("{\"v\":\"\\\"q\\\"\\\\\\n\\r\\t\\u0001中\"}", out.toString());
+    }
+}
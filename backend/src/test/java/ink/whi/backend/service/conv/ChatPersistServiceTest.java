@@ -0,0 +1,279 @@
+package ink.whi.backend.service.conv;
+
+import ink.whi.backend.common.dto.chat.ChatReq;
+import ink.whi.backend.dao.entity.Conversation;
+import ink.whi.backend.dao.entity.Message;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class ChatPersistServiceTest {
+
+    private static final String UUID = "conv-1";
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final MessageService messageService = mock(MessageService.class);
+
+    private final ConversationService conversationService = mock(ConversationService.class);
+
+    /**
+     * 第一次批量写入在此阻塞，用于控制写入线程的进度
+     */
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    private final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+
+    private final AtomicInteger writes = new AtomicInteger();
+
+    @TempDir
+    private Path tempDir;
+
+    private TransactionTemplate transactionTemplate;
+
+    private ChatPersistService service;
+
+    private Conversation conv;
+
+    @BeforeEach
+    void setUp() {
+        transactionTemplate = mock(TransactionTemplate.class);
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        when(messageService.buildUserMessage(any(), any(), any())).thenAnswer(invocation -> message("question"));
+        when(messageService.buildAiMessage(any(), any(), any(), any())).thenAnswer(invocation -> message("answer"));
+        doAnswer(invocation -> {
+            if (writes.incrementAndGet() == 1) {
+                firstWriteStarted.countDown();
+                gate.await();
+            }
+            return null;
+        }).when(messageService).saveBatchMessages(anyList());
+
+        service = newService();
+
+        conv = new Conversation();
+        conv.setId(1);
+        conv.setUuid(UUID);
+        conv.setUserId(7);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        gate.countDown();
+        service.destroy();
+    }
+
+    private static Message message(String content) {
+        Message message = new Message();
+        message.setConversationUuid(UUID);
+        message.setContent(content);
+        return message;
+    }
+
+    private ChatPersistService newService() {
+        ChatPersistService persistService = new ChatPersistService();
+        ReflectionTestUtils.setField(persistService, "messageService", messageService);
+        ReflectionTestUtils.setField(persistService, "conversationService", conversationService);
+        ReflectionTestUtils.setField(persistService, "transactionTemplate", transactionTemplate);
+        ReflectionTestUtils.setField(persistService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(persistService, "batchSize", 200);
+        ReflectionTestUtils.setField(persistService, "flushIntervalMs", 10L);
+        ReflectionTestUtils.setField(persistService, "offerTimeoutMs", 10L);
+        ReflectionTestUtils.setField(persistService, "maxRetries", 2);
+        ReflectionTestUtils.setField(persistService, "retryBackoffMs", 10L);
+        ReflectionTestUtils.setField(persistService, "deadLetterFile", deadLetterFile().toString());
+        return persistService;
+    }
+
+    private Path deadLetterFile() {
+        return tempDir.resolve("dead-letter.jsonl");
+    }
+
+    private void start(int queueCapacity) {
+        ReflectionTestUtils.setField(service, "queueCapacity", queueCapacity);
+        service.init();
+    }
+
+    private void submit(Runnable afterCommit) {
+        service.submit(conv, new ChatReq(), "answer", 1, 2, afterCommit);
+    }
+
+    @Test
+    void turnIsWrittenThenCachedThenCallbackRuns() throws InterruptedException {
+        start(10);
+        gate.countDown();
+        CountDownLatch committed = new CountDownLatch(1);
+
+        submit(committed::countDown);
+
+        assertTrue(committed.await(5, TimeUnit.SECONDS));
+        verify(messageService).saveBatchMessages(argThat(messages -> messages.size() == 2));
+        verify(conversationService).touch(argThat(ids -> ids.contains(1)), any());
+        verify(messageService).appendToCache(argThat(messages -> messages.size() == 2));
+    }
+
+    @Test
+    void awaitWrittenBlocksUntilPreviousTurnIsCached() throws InterruptedException {
+        start(10);
+        submit(null);
+        assertTrue(firstWriteStarted.await(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        service.awaitWritten(UUID, 100);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+        verify(messageService, never()).appendToCache(anyList());
+
+        gate.countDown();
+        service.awaitWritten(UUID, 5000);
+        verify(messageService).appendToCache(anyList());
+    }
+
+    @Test
+    void awaitWrittenReturnsImmediatelyForIdleConversation() {
+        start(10);
+        long start = System.nanoTime();
+
+        service.awaitWritten("idle", 5000);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    void failedBatchIsRetriedTurnByTurn() throws InterruptedException {
+        doAnswer(invocation -> {
+            List<Message> messages = invocation.getArgument(0);
+            if (writes.incrementAndGet() == 1) {
+                firstWriteStarted.countDown();
+                gate.await();
+            }
+            if (messages.size() > 2) {
+                throw new IllegalStateException("bad row");
+            }
+            return null;
+        }).when(messageService).saveBatchMessages(anyList());
+        start(10);
+
+        submit(null);
+        assertTrue(firstWriteStarted.await(5, TimeUnit.SECONDS));
+        // 写入线程阻塞期间的两轮合成一批
+        submit(null);
+        submit(null);
+        gate.countDown();
+        service.awaitWritten(UUID, 5000);
+
+        verify(messageService).saveBatchMessages(argThat(messages -> messages.size() == 4));
+        // 整批失败后逐轮重试，每轮都写入成功并追加到缓存
+        verify(messageService, times(3)).saveBatchMessages(argThat(messages -> messages.size() == 2));
+        verify(messageService, times(3)).appendToCache(anyList());
+    }
+
+    @Test
+    void fullQueueFallsBackToSyncWriteAndNextTurnStillWaitsForEarlierOnes() throws InterruptedException {
+        start(1);
+        submit(null);
+        assertTrue(firstWriteStarted.await(5, TimeUnit.SECONDS));
+        // 写入线程阻塞在第一轮，第二轮占满队列，第三轮在当前线程同步写入
+        submit(null);
+        submit(null);
+
+        assertEquals(1, meterRegistry.counter("chat.persist.sync").count());
+        verify(messageService, times(1)).appendToCache(anyList());
+
+        // 同步写入先完成，但更早的两轮还没写完
+        long start = System.nanoTime();
+        service.awaitWritten(UUID, 100);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+
+        gate.countDown();
+        service.awaitWritten(UUID, 5000);
+        verify(messageService, times(3)).appendToCache(anyList());
+    }
+
+    @Test
+    void failedTurnIsRetriedWithBackoff() {
+        doAnswer(invocation -> {
+            if (writes.incrementAndGet() <= 2) {
+                throw new IllegalStateException("db down");
+            }
+            return null;
+        }).when(messageService).saveBatchMessages(anyList());
+        start(10);
+
+        submit(null);
+        service.awaitWritten(UUID, 5000);
+
+        verify(messageService, times(3)).saveBatchMessages(anyList());
+        verify(messageService).appendToCache(anyList());
+        assertEquals(2, meterRegistry.counter("chat.persist.retry").count());
+        assertFalse(Files.exists(deadLetterFile()));
+    }
+
+    @Test
+    void turnIsDeadLetteredAfterRetriesAndReplayedOnRestart() throws Exception {
+        doAnswer(invocation -> {
+            writes.incrementAndGet();
+            throw new IllegalStateException("db down");
+        }).when(messageService).saveBatchMessages(anyList());
+        start(10);
+        CountDownLatch committed = new CountDownLatch(1);
+
+        submit(committed::countDown);
+        service.awaitWritten(UUID, 5000);
+
+        // 首次写入加两次重试
+        assertEquals(3, writes.get());
+        assertEquals(1, meterRegistry.counter("chat.persist.dead-letter").count());
+        assertEquals(1, Files.readAllLines(deadLetterFile()).size());
+        assertEquals(1, committed.getCount());
+        verify(messageService, never()).appendToCache(anyList());
+
+        // 数据库恢复后重启，死信中的对话重新写入
+        service.destroy();
+        clearInvocations(messageService);
+        doAnswer(invocation -> null).when(messageService).saveBatchMessages(anyList());
+        service = newService();
+        start(10);
+        service.awaitWritten(UUID, 5000);
+
+        verify(messageService).saveBatchMessages(argThat(messages -> messages.size() == 2
+                && UUID.equals(messages.get(0).getConversationUuid())
+                && "answer".equals(messages.get(1).getContent())));
+        verify(messageService).appendToCache(anyList());
+        assertFalse(Files.exists(deadLetterFile()));
+    }
+}
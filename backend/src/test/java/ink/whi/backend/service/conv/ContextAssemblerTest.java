@@ -0,0 +1,149 @@
+package ink.whi.backend.service.conv;
+
+import dev.langchain4j.model.Tokenizer;
+import ink.whi.backend.cache.PromptPrefixCache;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.common.dto.message.MessageDTO;
+import ink.whi.backend.common.enums.MsgRoleEnum;
+import ink.whi.backend.dao.entity.Conversation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class ContextAssemblerTest {
+
+    private static final String UUID = "conv-1";
+
+    private final PromptPrefixCache promptPrefixCache = mock(PromptPrefixCache.class);
+
+    private final Tokenizer tokenizer = mock(Tokenizer.class);
+
+    private ContextAssembler assembler;
+
+    private Conversation conv;
+
+    @BeforeEach
+    void setUp() {
+        // 按字符数计算token，便于构造预算
+        when(tokenizer.estimateTokenCountInText(anyString())).thenAnswer(invocation -> invocation.<String>getArgument(0).length());
+        when(promptPrefixCache.anchor(UUID)).thenReturn(null);
+        assembler = new ContextAssembler();
+        ReflectionTestUtils.setField(assembler, "promptPrefixCache", promptPrefixCache);
+        ReflectionTestUtils.setField(assembler, "tokenizer", tokenizer);
+        ReflectionTestUtils.setField(assembler, "maxContextTokens", 1000);
+        ReflectionTestUtils.setField(assembler, "maxMessages", 64);
+        ReflectionTestUtils.setField(assembler, "slideMessages", 4);
+
+        conv = new Conversation();
+        conv.setUuid(UUID);
+    }
+
+    /**
+     * 用户和AI交替的消息，ID从1开始，每条记录10个token
+     */
+    private static List<MessageDTO> history(int size) {
+        List<MessageDTO> messages = new ArrayList<>();
+        for (int i = 1; i <= size; i++) {
+            MessageDTO message = new MessageDTO();
+            message.setId(i);
+            message.setRole(i % 2 == 1 ? MsgRoleEnum.User.getRole() : MsgRoleEnum.Assistant.getRole());
+            message.setContent("m" + i);
+            message.setTokens(10);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private static List<Integer> ids(List<MessageDTO> messages) {
+        return messages.stream().map(MessageDTO::getId).toList();
+    }
+
+    private List<MessageDTO> assemble(List<MessageDTO> history) {
+        return assembler.assemble(conv, history, "", "");
+    }
+
+    @Test
+    void budgetKeepsNewestMessagesStartingWithUser() {
+        ReflectionTestUtils.setField(assembler, "maxContextTokens", 35);
+
+        // 预算内最多3条(4-6)，第4条是AI消息被丢弃
+        assertEquals(List.of(5, 6), ids(assemble(history(6))));
+    }
+
+    @Test
+    void promptAndReservedOutputReduceBudget() {
+        ReflectionTestUtils.setField(assembler, "maxContextTokens", 100);
+        conv.setModelParams(ModelParams.builder().maxTokens(40).build());
+
+        // 100 - 系统提示词10 - 用户消息8 - 输出预留40 = 42，可放4条
+        List<MessageDTO> messages = assembler.assemble(conv, history(10), "s".repeat(10), "u".repeat(8));
+
+        assertEquals(List.of(7, 8, 9, 10), ids(messages));
+
+        conv.setModelParams(ModelParams.builder().maxTokens(100).build());
+        assertTrue(assemble(history(10)).isEmpty());
+    }
+
+    @Test
+    void contextWindowLimitsRounds() {
+        conv.setModelParams(ModelParams.builder().contextWindow(2).build());
+
+        assertEquals(List.of(7, 8, 9, 10), ids(assemble(history(10))));
+    }
+
+    @Test
+    void messagesCoveredBySummaryAreSkipped() {
+        conv.setSummaryMessageId(6);
+
+        assertEquals(List.of(7, 8, 9, 10), ids(assemble(history(10))));
+    }
+
+    @Test
+    void missingTokenCountIsEstimated() {
+        List<MessageDTO> history = history(2);
+        history.get(1).setTokens(null);
+        history.get(1).setContent("x".repeat(30));
+
+        assertEquals(10, assembler.countTokens(history.get(0)));
+        assertEquals(30, assembler.countTokens(history.get(1)));
+    }
+
+    @Test
+    void windowKeepsPreviousAnchor() {
+        when(promptPrefixCache.anchor(UUID)).thenReturn(3);
+
+        // 预算足够时仍从上一轮的起点开始，前缀可以复用
+        assertEquals(List.of(3, 4, 5, 6, 7, 8), ids(assemble(history(8))));
+    }
+
+    @Test
+    void windowSlidesFurtherWhenAnchorIsPushedOut() {
+        ReflectionTestUtils.setField(assembler, "maxContextTokens", 60);
+        when(promptPrefixCache.anchor(UUID)).thenReturn(1);
+
+        // 预算内为5-10，起点1已被挤出，多丢弃4条，之后几轮从9开始
+        assertEquals(List.of(9, 10), ids(assemble(history(10))));
+    }
+
+    @Test
+    void anchorCoveredBySummaryDoesNotSlide() {
+        ReflectionTestUtils.setField(assembler, "maxContextTokens", 60);
+        when(promptPrefixCache.anchor(UUID)).thenReturn(1);
+        conv.setSummaryMessageId(2);
+
+        assertEquals(List.of(5, 6, 7, 8, 9, 10), ids(assemble(history(10))));
+    }
+}
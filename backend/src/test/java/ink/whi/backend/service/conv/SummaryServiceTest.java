@@ -0,0 +1,160 @@
+package ink.whi.backend.service.conv;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import ink.whi.backend.common.dto.message.MessageDTO;
+import ink.whi.backend.common.enums.MsgRoleEnum;
+import ink.whi.backend.dao.entity.Conversation;
+import ink.whi.backend.helper.ChatConcurrencyLimiter;
+import ink.whi.backend.helper.PlatformRateLimiter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class SummaryServiceTest {
+
+    private static final String UUID = "conv-1";
+
+    private static final int PLATFORM_ID = 3;
+
+    private final MessageService messageService = mock(MessageService.class);
+
+    private final ConversationService conversationService = mock(ConversationService.class);
+
+    private final ContextAssembler contextAssembler = mock(ContextAssembler.class);
+
+    private final ChatConcurrencyLimiter concurrencyLimiter = mock(ChatConcurrencyLimiter.class);
+
+    private final PlatformRateLimiter platformRateLimiter = mock(PlatformRateLimiter.class);
+
+    private final ChatConcurrencyLimiter.Permit permit = mock(ChatConcurrencyLimiter.Permit.class);
+
+    private final StreamingChatLanguageModel chatModel = mock(StreamingChatLanguageModel.class);
+
+    private SummaryService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new SummaryService();
+        ReflectionTestUtils.setField(service, "messageService", messageService);
+        ReflectionTestUtils.setField(service, "conversationService", conversationService);
+        ReflectionTestUtils.setField(service, "contextAssembler", contextAssembler);
+        ReflectionTestUtils.setField(service, "concurrencyLimiter", concurrencyLimiter);
+        ReflectionTestUtils.setField(service, "platformRateLimiter", platformRateLimiter);
+        ReflectionTestUtils.setField(service, "enable", true);
+        ReflectionTestUtils.setField(service, "triggerTokens", 1000);
+        ReflectionTestUtils.setField(service, "keepMessages", 3);
+
+        Conversation conv = new Conversation();
+        conv.setId(1);
+        conv.setUuid(UUID);
+        conv.setSummary("old summary");
+        conv.setSummaryMessageId(10);
+        when(conversationService.getByUuid(UUID)).thenReturn(conv);
+        when(contextAssembler.countTokens(any())).thenReturn(200);
+        when(concurrencyLimiter.tryAcquirePlatform(PLATFORM_ID)).thenReturn(permit);
+        when(platformRateLimiter.tryAcquire(PLATFORM_ID)).thenReturn(true);
+        doAnswer(invocation -> {
+            invocation.<StreamingChatResponseHandler>getArgument(1)
+                    .onCompleteResponse(ChatResponse.builder().aiMessage(AiMessage.from("new summary")).build());
+            return null;
+        }).when(chatModel).chat(anyList(), any(StreamingChatResponseHandler.class));
+    }
+
+    /**
+     * 摘要之后的消息，用户和AI交替，ID从11开始
+     */
+    private void history(int size) {
+        List<MessageDTO> messages = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            MessageDTO message = new MessageDTO();
+            message.setId(11 + i);
+            message.setRole(i % 2 == 0 ? MsgRoleEnum.User.getRole() : MsgRoleEnum.Assistant.getRole());
+            message.setContent("m" + (11 + i));
+            messages.add(message);
+        }
+        when(messageService.queryMessagesAfter(UUID, 10)).thenReturn(messages);
+    }
+
+    private void summarize() {
+        ReflectionTestUtils.invokeMethod(service, "summarize", UUID, PLATFORM_ID, chatModel);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void olderMessagesAreMergedIntoSummaryAndRecentOnesKept() {
+        history(8);
+
+        summarize();
+
+        // 保留最近3条且从用户消息开始，即保留ID 15-18
+        verify(conversationService).updateSummary(1, "new summary", 14);
+        ArgumentCaptor<List<ChatMessage>> prompt = ArgumentCaptor.forClass(List.class);
+        verify(chatModel).chat(prompt.capture(), any(StreamingChatResponseHandler.class));
+        String content = ((UserMessage) prompt.getValue().get(1)).singleText();
+        assertTrue(content.contains("old summary"));
+        assertTrue(content.contains("m14"));
+        assertFalse(content.contains("m15"));
+        verify(permit).release();
+    }
+
+    @Test
+    void belowThresholdDoesNotCallModel() {
+        history(4);
+
+        summarize();
+
+        verify(concurrencyLimiter, never()).tryAcquirePlatform(anyInt());
+        verify(chatModel, never()).chat(anyList(), any(StreamingChatResponseHandler.class));
+        verify(conversationService, never()).updateSummary(anyInt(), anyString(), anyInt());
+    }
+
+    @Test
+    void busyPlatformSkipsWithoutTakingRateQuota() {
+        history(8);
+        when(concurrencyLimiter.tryAcquirePlatform(PLATFORM_ID)).thenReturn(null);
+
+        summarize();
+
+        verify(platformRateLimiter, never()).tryAcquire(any());
+        verify(chatModel, never()).chat(anyList(), any(StreamingChatResponseHandler.class));
+        verify(conversationService, never()).updateSummary(anyInt(), anyString(), anyInt());
+    }
+
+    @Test
+    void exhaustedRateQuotaSkipsAndReleasesPermit() {
+        history(8);
+        when(platformRateLimiter.tryAcquire(PLATFORM_ID)).thenReturn(false);
+
+        summarize();
+
+        verify(chatModel, never()).chat(anyList(), any(StreamingChatResponseHandler.class));
+        verify(conversationService, never()).updateSummary(eq(1), anyString(), anyInt());
+        verify(permit).release();
+    }
+}
@@ -0,0 +1,149 @@
+package ink.whi.backend.service.knowledgeBase;
+
+import ink.whi.backend.common.enums.IngestJobStatusEnum;
+import ink.whi.backend.dao.entity.BaseFile;
+import ink.whi.backend.dao.entity.IngestJob;
+import ink.whi.backend.dao.entity.KnowledgeBaseItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+@SpringJUnitConfig(KbTestConfig.class)
+class IngestJobServiceTest {
+
+    @Autowired
+    private IngestJobService ingestJobService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private IngestJobService target;
+
+    @BeforeEach
+    void setUp() {
+        KbTestConfig.truncate(jdbcTemplate);
+        target = AopTestUtils.getTargetObject(ingestJobService);
+        ReflectionTestUtils.setField(target, "leaseMs", 60_000L);
+        ReflectionTestUtils.setField(target, "maxAttempts", 5);
+        ReflectionTestUtils.setField(target, "initialBackoffMs", 5000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        KbTestConfig.truncate(jdbcTemplate);
+    }
+
+    private IngestJob enqueue(int kbItemId) {
+        KnowledgeBaseItem item = new KnowledgeBaseItem();
+        item.setId(kbItemId);
+        item.setKbId(1);
+        BaseFile file = new BaseFile();
+        file.setId(100 + kbItemId);
+        file.setFileSize(1024L);
+        return ingestJobService.enqueue(item, file);
+    }
+
+    private IngestJob reload(IngestJob job) {
+        return ingestJobService.getById(job.getId());
+    }
+
+    @Test
+    void jobIsClaimedByOneNodeOnly() {
+        IngestJob job = enqueue(1);
+
+        List<IngestJob> first = ingestJobService.claim("node-a", 10);
+        List<IngestJob> second = ingestJobService.claim("node-b", 10);
+
+        assertEquals(1, first.size());
+        assertTrue(second.isEmpty());
+        IngestJob stored = reload(job);
+        assertEquals(IngestJobStatusEnum.RUNNING, stored.getStatus());
+        assertEquals("node-a", stored.getLeaseOwner());
+        assertEquals(1, stored.getAttempts());
+    }
+
+    @Test
+    void expiredLeaseIsTakenOverAndOldOwnerIsFenced() {
+        enqueue(1);
+        // 领取后租约立即过期
+        ReflectionTestUtils.setField(target, "leaseMs", -1000L);
+        IngestJob stale = ingestJobService.claim("node-a", 10).get(0);
+        ReflectionTestUtils.setField(target, "leaseMs", 60_000L);
+
+        List<IngestJob> takenOver = ingestJobService.claim("node-b", 10);
+        assertEquals(1, takenOver.size());
+        IngestJob current = takenOver.get(0);
+        assertEquals(2, current.getAttempts());
+
+        // 原节点的续约、进度和完成都不再生效
+        assertFalse(ingestJobService.renew(stale));
+        assertFalse(ingestJobService.checkpoint(stale, 10));
+        assertFalse(ingestJobService.complete(stale));
+        assertEquals(0, reload(current).getCheckpoint());
+
+        assertTrue(ingestJobService.checkpoint(current, 10));
+        assertTrue(ingestJobService.complete(current));
+        IngestJob stored = reload(current);
+        assertEquals(IngestJobStatusEnum.DONE, stored.getStatus());
+        assertEquals(10, stored.getCheckpoint());
+        assertNull(stored.getLeaseOwner());
+    }
+
+    @Test
+    void failedJobIsRequeuedWithBackoff() {
+        IngestJob job = enqueue(1);
+        IngestJob claimed = ingestJobService.claim("node-a", 10).get(0);
+
+        assertEquals(IngestJobStatusEnum.PENDING, ingestJobService.fail(claimed, new IllegalStateException("boom")));
+
+        IngestJob stored = reload(job);
+        assertEquals("boom", stored.getLastError());
+        assertNull(stored.getLeaseOwner());
+        // 退避时间内不会被再次领取
+        assertTrue(ingestJobService.claim("node-b", 10).isEmpty());
+    }
+
+    @Test
+    void jobFailsAfterMaxAttempts() {
+        ReflectionTestUtils.setField(target, "maxAttempts", 2);
+        ReflectionTestUtils.setField(target, "initialBackoffMs", 0L);
+        IngestJob job = enqueue(1);
+
+        IngestJob first = ingestJobService.claim("node-a", 10).get(0);
+        assertEquals(IngestJobStatusEnum.PENDING, ingestJobService.fail(first, new IllegalStateException("boom")));
+        IngestJob second = ingestJobService.claim("node-a", 10).get(0);
+        assertEquals(IngestJobStatusEnum.FAILED, ingestJobService.fail(second, new IllegalStateException("boom")));
+
+        assertEquals(IngestJobStatusEnum.FAILED, reload(job).getStatus());
+        assertTrue(ingestJobService.claim("node-a", 10).isEmpty());
+        // 租约已失效时不再修改状态
+        assertNull(ingestJobService.fail(second, new IllegalStateException("late")));
+    }
+
+    @Test
+    void completeFailsAfterJobIsDeleted() {
+        enqueue(1);
+        IngestJob claimed = ingestJobService.claim("node-a", 10).get(0);
+
+        ingestJobService.removeById(claimed.getId());
+
+        assertFalse(ingestJobService.renew(claimed));
+        assertFalse(ingestJobService.complete(claimed));
+    }
+}
@@ -0,0 +1,160 @@
+package ink.whi.backend.service.knowledgeBase;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import ink.whi.backend.dao.entity.BaseFile;
+import ink.whi.backend.dao.entity.IngestJob;
+import ink.whi.backend.dao.entity.KbChunk;
+import ink.whi.backend.dao.entity.KbChunkRef;
+import ink.whi.backend.dao.entity.KnowledgeBaseItem;
+import ink.whi.backend.dao.mapper.KbChunkRefMapper;
+import ink.whi.backend.dao.mapper.KnowledgeBaseItemMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+@SpringJUnitConfig(KbTestConfig.class)
+class KbChunkServiceTest {
+
+    private static final int KB_ID = 1;
+
+    private static final String SHARED = KbChunkService.contentHash("shared", "m");
+
+    private static final String ONLY_A = KbChunkService.contentHash("only a", "m");
+
+    private static final String ONLY_B = KbChunkService.contentHash("only b", "m");
+
+    @Autowired
+    private KbChunkService kbChunkService;
+
+    @Autowired
+    private IngestJobService ingestJobService;
+
+    @Autowired
+    private KnowledgeBaseItemMapper knowledgeBaseItemMapper;
+
+    @Autowired
+    private KbChunkRefMapper kbChunkRefMapper;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        KbTestConfig.truncate(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        KbTestConfig.truncate(jdbcTemplate);
+    }
+
+    /**
+     * 创建条目及其索引任务
+     */
+    private Integer newItem() {
+        KnowledgeBaseItem item = new KnowledgeBaseItem();
+        item.setKbId(KB_ID);
+        item.setTitle("item");
+        knowledgeBaseItemMapper.insert(item);
+        BaseFile file = new BaseFile();
+        file.setId(item.getId());
+        file.setFileSize(1024L);
+        ingestJobService.enqueue(item, file);
+        return item.getId();
+    }
+
+    private KbChunk chunk(String hash) {
+        return kbChunkService.lambdaQuery()
+                .eq(KbChunk::getKbId, KB_ID)
+                .eq(KbChunk::getContentHash, hash)
+                .one();
+    }
+
+    private long refs(Integer kbItemId) {
+        return kbChunkRefMapper.selectCount(Wrappers.<KbChunkRef>lambdaQuery().eq(KbChunkRef::getKbItemId, kbItemId));
+    }
+
+    @Test
+    void contentHashIgnoresWhitespaceButNotModel() {
+        assertEquals(KbChunkService.contentHash(" a  b\n", "m"), KbChunkService.contentHash("a b", "m"));
+        assertFalse(KbChunkService.contentHash("a b", "m").equals(KbChunkService.contentHash("a b", "n")));
+    }
+
+    @Test
+    void sharedContentIsStoredOnceAndRefCounted() {
+        Integer a = newItem();
+        Integer b = newItem();
+
+        List<KbChunk> chunksA = kbChunkService.acquire(KB_ID, a, 0, List.of(SHARED, ONLY_A));
+        List<KbChunk> chunksB = kbChunkService.acquire(KB_ID, b, 0, List.of(ONLY_B, SHARED));
+
+        assertEquals(chunksA.get(0).getId(), chunksB.get(1).getId());
+        assertEquals(chunksA.get(0).getEmbeddingId(), chunksB.get(1).getEmbeddingId());
+        assertEquals(2, chunk(SHARED).getRefCount());
+        assertEquals(1, chunk(ONLY_A).getRefCount());
+        assertFalse(chunk(SHARED).getStored());
+
+        kbChunkService.markStored(List.of(chunksA.get(0).getId()));
+        assertTrue(chunk(SHARED).getStored());
+    }
+
+    @Test
+    void chunkIsRemovedWhenLastReferenceIsReleased() {
+        Integer a = newItem();
+        Integer b = newItem();
+        kbChunkService.acquire(KB_ID, a, 0, List.of(SHARED, ONLY_A));
+        kbChunkService.acquire(KB_ID, b, 0, List.of(SHARED));
+        String sharedEmbeddingId = chunk(SHARED).getEmbeddingId();
+        String onlyAEmbeddingId = chunk(ONLY_A).getEmbeddingId();
+
+        // 仍被条目b引用的分段保留
+        assertEquals(List.of(onlyAEmbeddingId), kbChunkService.release(a));
+        assertEquals(1, chunk(SHARED).getRefCount());
+        assertNull(chunk(ONLY_A));
+        assertEquals(0, refs(a));
+
+        assertEquals(List.of(sharedEmbeddingId), kbChunkService.release(b));
+        assertNull(chunk(SHARED));
+        assertTrue(kbChunkService.release(b).isEmpty());
+    }
+
+    @Test
+    void replayedBatchIsNotCountedTwice() {
+        Integer a = newItem();
+        kbChunkService.acquire(KB_ID, a, 0, List.of(SHARED, ONLY_A));
+
+        // 中断后从第0段重放，并继续登记后续分段
+        kbChunkService.acquire(KB_ID, a, 0, List.of(SHARED, ONLY_A));
+        kbChunkService.acquire(KB_ID, a, 2, List.of(SHARED));
+
+        assertEquals(3, refs(a));
+        assertEquals(2, chunk(SHARED).getRefCount());
+        assertEquals(1, chunk(ONLY_A).getRefCount());
+    }
+
+    @Test
+    void acquireAfterItemDeletedIsRejected() {
+        Integer a = newItem();
+        ingestJobService.remove(Wrappers.<IngestJob>lambdaQuery().eq(IngestJob::getKbItemId, a));
+
+        assertThrows(IllegalStateException.class, () -> kbChunkService.acquire(KB_ID, a, 0, List.of(SHARED)));
+
+        assertEquals(0, refs(a));
+        assertNull(chunk(SHARED));
+    }
+}
@@ -0,0 +1,67 @@
+package ink.whi.backend.service.knowledgeBase;
+
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.h2.Driver;
+import org.mybatis.spring.annotation.MapperScan;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+import javax.sql.DataSource;
+
+/**
+ * 知识库索引测试的最小上下文：H2内存库 + MyBatis-Plus，只加载任务和分段相关的Service
+ *
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+@Configuration
+@EnableTransactionManagement(proxyTargetClass = true)
+@MapperScan("ink.whi.backend.dao.mapper")
+@Import({IngestJobService.class, KbChunkService.class})
+class KbTestConfig {
+
+    static final String[] TABLES = {"kb_chunk_ref", "kb_chunk", "kb_ingest_job", "knowledge_base_item"};
+
+    @Bean
+    DataSource dataSource() {
+        DataSource dataSource = new SimpleDriverDataSource(new Driver(),
+                "jdbc:h2:mem:kb;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", "sa", "");
+        new ResourceDatabasePopulator(new ClassPathResource("sql/kb-test-schema.sql")).execute(dataSource);
+        return dataSource;
+    }
+
+    @Bean
+    SqlSessionFactory sqlSessionFactory(DataSource dataSource) throws Exception {
+        MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        return factoryBean.getObject();
+    }
+
+    @Bean
+    PlatformTransactionManager transactionManager(DataSource dataSource) {
+        return new DataSourceTransactionManager(dataSource);
+    }
+
+    @Bean
+    JdbcTemplate jdbcTemplate(DataSource dataSource) {
+        return new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * 清空测试数据
+     */
+    static void truncate(JdbcTemplate jdbcTemplate) {
+        for (String table : TABLES) {
+            jdbcTemplate.execute("TRUNCATE TABLE " + table + " RESTART IDENTITY");
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package ink.whi.backend.service.model;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import ink.whi.backend.helper.ChatConcurrencyLimiter;
+import ink.whi.backend.utils.StreamHandle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class FailoverStreamingChatModelTest {
+
+    private static final ChatRequest REQUEST = ChatRequest.builder().messages(UserMessage.from("hi")).build();
+
+    private ScheduledExecutorService scheduler;
+
+    private ModelRouter router;
+
+    private ChatConcurrencyLimiter.Permit permit;
+
+    private ChatConcurrencyLimiter.Permit primaryPermit;
+
+    /**
+     * 模拟平台实例：在独立线程中返回token或错误，hang为true时一直不响应
+     */
+    static class FakeModel implements StreamingChatLanguageModel {
+
+        private final List<String> tokens;
+
+        private final Throwable error;
+
+        private final boolean hang;
+
+        private final CountDownLatch called = new CountDownLatch(1);
+
+        private volatile StreamHandle handle;
+
+        FakeModel(List<String> tokens, Throwable error, boolean hang) {
+            this.tokens = tokens;
+            this.error = error;
+            this.hang = hang;
+        }
+
+        static FakeModel answering(String... tokens) {
+            return new FakeModel(List.of(tokens), null, false);
+        }
+
+        static FakeModel failing(Throwable error) {
+            return new FakeModel(List.of(), error, false);
+        }
+
+        static FakeModel hanging() {
+            return new FakeModel(List.of(), null, true);
+        }
+
+        @Override
+        public void chat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+            handle = StreamHandle.current();
+            called.countDown();
+            if (hang) {
+                return;
+            }
+            new Thread(() -> {
+                if (error != null) {
+                    handler.onError(error);
+                    return;
+                }
+                tokens.forEach(handler::onPartialResponse);
+                handler.onCompleteResponse(ChatResponse.builder()
+                        .aiMessage(AiMessage.from(String.join("", tokens)))
+                        .build());
+            }).start();
+        }
+
+        @Override
+        public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        boolean wasCalled() {
+            return called.getCount() == 0;
+        }
+    }
+
+    static class RecordingHandler implements StreamingChatResponseHandler {
+
+        private final StringBuffer text = new StringBuffer();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile ChatResponse response;
+
+        private volatile Throwable error;
+
+        @Override
+        public void onPartialResponse(String token) {
+            text.append(token);
+        }
+
+        @Override
+        public void onCompleteResponse(ChatResponse completeResponse) {
+            response = completeResponse;
+            done.countDown();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        router = mock(ModelRouter.class);
+        permit = mock(ChatConcurrencyLimiter.Permit.class);
+        primaryPermit = mock(ChatConcurrencyLimiter.Permit.class);
+        when(router.acquireBackup(any())).thenReturn(permit);
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private static ModelRouter.Candidate candidate(int id, StreamingChatLanguageModel model, long firstTokenTimeoutMs) {
+        return new ModelRouter.Candidate(id, id * 10, model, firstTokenTimeoutMs);
+    }
+
+    private FailoverStreamingChatModel failover(ModelRouter.Candidate... candidates) {
+        return new FailoverStreamingChatModel(List.of(candidates), primaryPermit, router, scheduler);
+    }
+
+    @Test
+    void errorFailsOverToNextCandidate() throws InterruptedException {
+        FakeModel primary = FakeModel.failing(new IllegalStateException("500"));
+        FakeModel backup = FakeModel.answering("he", "llo");
+        RecordingHandler handler = new RecordingHandler();
+
+        failover(candidate(1, primary, 10_000), candidate(2, backup, 10_000)).chat(REQUEST, handler);
+        handler.await();
+
+        assertNull(handler.error);
+        assertEquals("hello", handler.text.toString());
+        assertNotNull(handler.response);
+        verify(router).recordFailover();
+        // 备份实例占用的平台许可在完成时归还
+        verify(router).acquireBackup(any());
+        verify(permit).release();
+    }
+
+    @Test
+    void firstTokenTimeoutSwitchesAndClosesStalledRequest() throws InterruptedException {
+        FakeModel primary = FakeModel.hanging();
+        FakeModel backup = FakeModel.answering("ok");
+        RecordingHandler handler = new RecordingHandler();
+
+        failover(candidate(1, primary, 50), candidate(2, backup, 10_000)).chat(REQUEST, handler);
+        handler.await();
+
+        assertEquals("ok", handler.text.toString());
+        assertTrue(primary.handle.isCancelled());
+        assertFalse(backup.handle.isCancelled());
+        verify(router).recordFailover();
+    }
+
+    @Test
+    void hedgeWinnerClosesLosingRequest() throws InterruptedException {
+        when(router.hedgeDelayMs(any())).thenReturn(20L);
+        FakeModel primary = FakeModel.hanging();
+        FakeModel backup = FakeModel.answering("ok");
+        ModelRouter.Candidate backupCandidate = candidate(2, backup, 10_000);
+        RecordingHandler handler = new RecordingHandler();
+
+        failover(candidate(1, primary, 10_000), backupCandidate).chat(REQUEST, handler);
+        handler.await();
+
+        assertEquals("ok", handler.text.toString());
+        assertTrue(primary.handle.isCancelled());
+        verify(router, timeout(1000)).recordHedge();
+        verify(router).recordFirstToken(eq(backupCandidate), anyLong());
+        verify(router, never()).recordFailover();
+        // 落败的首选实例立即归还平台许可，用户许可留给调用方在对话结束时释放
+        verify(primaryPermit).releasePlatform();
+        verify(primaryPermit, never()).release();
+    }
+
+    @Test
+    void limitedBackupIsSkipped() throws InterruptedException {
+        when(router.acquireBackup(any())).thenReturn(null);
+        IllegalStateException error = new IllegalStateException("500");
+        FakeModel backup = FakeModel.answering("ok");
+        RecordingHandler handler = new RecordingHandler();
+
+        failover(candidate(1, FakeModel.failing(error), 10_000), candidate(2, backup, 10_000)).chat(REQUEST, handler);
+        handler.await();
+
+        assertSame(error, handler.error);
+        assertFalse(backup.wasCalled());
+    }
+
+    @Test
+    void lastErrorIsReturnedWhenAllCandidatesFail() throws InterruptedException {
+        IllegalStateException last = new IllegalStateException("503");
+        RecordingHandler handler = new RecordingHandler();
+
+        failover(candidate(1, FakeModel.failing(new IllegalStateException("500")), 10_000),
+                candidate(2, FakeModel.failing(last), 10_000)).chat(REQUEST, handler);
+        handler.await();
+
+        assertSame(last, handler.error);
+        verify(permit, timeout(1000)).release();
+    }
+
+    @Test
+    void cancellingSessionHandleClosesRunningAttempts() throws InterruptedException {
+        FakeModel primary = FakeModel.hanging();
+        StreamHandle session = new StreamHandle();
+
+        session.run(() -> failover(candidate(1, primary, 10_000), candidate(2, FakeModel.answering("ok"), 10_000))
+                .chat(REQUEST, new RecordingHandler()));
+        assertTrue(primary.called.await(5, TimeUnit.SECONDS));
+        assertFalse(primary.handle.isCancelled());
+
+        session.cancel();
+
+        assertTrue(primary.handle.isCancelled());
+    }
+}
@@ -0,0 +1,59 @@
+package ink.whi.backend.service.model.adapter;
+
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.dao.entity.Model;
+import ink.whi.backend.dao.entity.Platform;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class DashScopeStreamingModelAdapterTest {
+
+    private final DashScopeStreamingModelAdapter adapter = new DashScopeStreamingModelAdapter();
+
+    private final ChatModelListener listener = mock(ChatModelListener.class);
+
+    private Model model;
+
+    private Platform platform;
+
+    @BeforeEach
+    void setUp() {
+        model = new Model();
+        model.setName("qwen-plus");
+        platform = new Platform();
+        platform.setApiKey("sk-test");
+    }
+
+    @Test
+    void paramsAreMapped() {
+        StreamingChatLanguageModel built = adapter.build(model, platform,
+                ModelParams.builder().temperature(0.5).maxTokens(512).build(), List.of(listener));
+
+        assertEquals("sk-test", ReflectionTestUtils.getField(built, "apiKey"));
+        assertEquals("qwen-plus", ReflectionTestUtils.getField(built, "modelName"));
+        assertEquals(0.5f, ReflectionTestUtils.getField(built, "temperature"));
+        assertEquals(512, ReflectionTestUtils.getField(built, "maxTokens"));
+        assertEquals(List.of(listener), ReflectionTestUtils.getField(built, "listeners"));
+    }
+
+    @Test
+    void missingParamsUsePlatformDefaults() {
+        StreamingChatLanguageModel built = adapter.build(model, platform, null, List.of());
+
+        assertNull(ReflectionTestUtils.getField(built, "temperature"));
+        assertNull(ReflectionTestUtils.getField(built, "maxTokens"));
+    }
+}
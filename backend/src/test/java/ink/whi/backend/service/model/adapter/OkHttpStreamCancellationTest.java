@@ -0,0 +1,176 @@
+package ink.whi.backend.service.model.adapter;
+
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import ink.whi.backend.utils.StreamHandle;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.sse.EventSource;
+import okhttp3.sse.EventSourceListener;
+import okhttp3.sse.EventSources;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class OkHttpStreamCancellationTest {
+
+    private HttpServer server;
+
+    /**
+     * 服务端写入失败（连接已被客户端关闭）时计数
+     */
+    private final CountDownLatch serverAborted = new CountDownLatch(1);
+
+    private OkHttpClient client;
+
+    static class RecordingListener extends EventSourceListener {
+
+        private final CountDownLatch firstEvent = new CountDownLatch(1);
+
+        private final CountDownLatch failed = new CountDownLatch(1);
+
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void onEvent(EventSource eventSource, String id, String type, String data) {
+            firstEvent.countDown();
+        }
+
+        @Override
+        public void onClosed(EventSource eventSource) {
+            closed.countDown();
+        }
+
+        @Override
+        public void onFailure(EventSource eventSource, Throwable t, Response response) {
+            failed.countDown();
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // 每100ms写一个事件，共50个，模拟仍在生成的上游
+        server.createContext("/stream", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream body = exchange.getResponseBody()) {
+                for (int i = 0; i < 50; i++) {
+                    body.write(("data: " + i + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                    Thread.sleep(100);
+                }
+            } catch (IOException e) {
+                serverAborted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.createContext("/short", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            byte[] body = "data: done\n\n".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        client = OkHttpStreamCancellation.cancellable(new OkHttpClient());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private Request request(String path) {
+        return new Request.Builder()
+                .url("http://127.0.0.1:" + server.getAddress().getPort() + path)
+                .build();
+    }
+
+    @Test
+    void cancelClosesRunningStream() throws InterruptedException {
+        StreamHandle handle = new StreamHandle();
+        RecordingListener listener = new RecordingListener();
+
+        handle.run(() -> EventSources.createFactory(client).newEventSource(request("/stream"), listener));
+        assertTrue(listener.firstEvent.await(5, TimeUnit.SECONDS));
+
+        handle.cancel();
+
+        // 不等后续事件，客户端立即失败，服务端随后写入失败
+        assertTrue(listener.failed.await(1, TimeUnit.SECONDS));
+        assertTrue(serverAborted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancelledHandleFailsNewRequest() throws InterruptedException {
+        StreamHandle handle = new StreamHandle();
+        handle.cancel();
+        RecordingListener listener = new RecordingListener();
+
+        handle.run(() -> EventSources.createFactory(client).newEventSource(request("/stream"), listener));
+
+        assertTrue(listener.failed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, listener.firstEvent.getCount());
+    }
+
+    @Test
+    void requestWithoutHandleIsUnaffected() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+
+        EventSources.createFactory(client).newEventSource(request("/short"), listener);
+
+        assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, listener.failed.getCount());
+    }
+
+    @Test
+    void finishedStreamIsDetachedFromHandle() throws InterruptedException {
+        StreamHandle handle = new StreamHandle();
+        RecordingListener listener = new RecordingListener();
+
+        handle.run(() -> EventSources.createFactory(client).newEventSource(request("/short"), listener));
+        assertTrue(listener.closed.await(5, TimeUnit.SECONDS));
+
+        // 读完后解除登记
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!((List<?>) ReflectionTestUtils.getField(handle, "resources")).isEmpty()
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(((List<?>) ReflectionTestUtils.getField(handle, "resources")).isEmpty());
+    }
+
+    @Test
+    void installReplacesOpenAiHttpClient() {
+        OpenAiStreamingChatModel model = OpenAiStreamingChatModel.builder()
+                .apiKey("test")
+                .modelName("gpt-4o-mini")
+                .build();
+
+        OkHttpStreamCancellation.install(model);
+
+        Object openAiClient = ReflectionTestUtils.getField(model, "client");
+        OkHttpClient okHttpClient = (OkHttpClient) ReflectionTestUtils.getField(openAiClient, "okHttpClient");
+        assertEquals(client.dispatcher(), okHttpClient.dispatcher());
+    }
+}
@@ -0,0 +1,76 @@
+package ink.whi.backend.service.model.adapter;
+
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.dao.entity.Model;
+import ink.whi.backend.dao.entity.Platform;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class OllamaStreamingModelAdapterTest {
+
+    private final OllamaStreamingModelAdapter adapter = new OllamaStreamingModelAdapter();
+
+    private final ChatModelListener listener = mock(ChatModelListener.class);
+
+    private Model model;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(adapter, "timeoutSeconds", 300L);
+        model = new Model();
+        model.setName("qwen2.5:7b");
+    }
+
+    private static Object field(Object target, String path) {
+        for (String name : path.split("\\.")) {
+            target = ReflectionTestUtils.getField(target, name);
+        }
+        return target;
+    }
+
+    @Test
+    void paramsAreMappedToOptions() {
+        Platform platform = new Platform();
+        platform.setBaseUrl("http://ollama:11434");
+
+        StreamingChatLanguageModel built = adapter.build(model, platform,
+                ModelParams.builder().temperature(0.3).maxTokens(256).build(), List.of(listener));
+
+        assertEquals("qwen2.5:7b", field(built, "modelName"));
+        assertEquals("http://ollama:11434", field(built, "client.baseUrl"));
+        assertEquals(0.3, field(built, "options.temperature"));
+        // maxTokens对应Ollama的numPredict
+        assertEquals(256, field(built, "options.numPredict"));
+        assertEquals(List.of(listener), field(built, "listeners"));
+    }
+
+    @Test
+    void blankBaseUrlUsesLocalDefault() {
+        Platform platform = new Platform();
+        platform.setBaseUrl(" ");
+
+        StreamingChatLanguageModel built = adapter.build(model, platform, null, List.of());
+
+        assertEquals("http://localhost:11434", field(built, "client.baseUrl"));
+        assertNull(field(built, "options.temperature"));
+    }
+
+    @Test
+    void firstTokenTimeoutCoversModelLoading() {
+        assertEquals(300_000, adapter.firstTokenTimeoutMs(10_000));
+        assertEquals(600_000, adapter.firstTokenTimeoutMs(600_000));
+    }
+}
@@ -0,0 +1,59 @@
+package ink.whi.backend.service.model.adapter;
+
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import ink.whi.backend.common.dto.chat.ModelParams;
+import ink.whi.backend.common.exception.BusinessException;
+import ink.whi.backend.dao.entity.Model;
+import ink.whi.backend.dao.entity.Platform;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class QianfanStreamingModelAdapterTest {
+
+    private final QianfanStreamingModelAdapter adapter = new QianfanStreamingModelAdapter();
+
+    private Model model;
+
+    private Platform platform;
+
+    @BeforeEach
+    void setUp() {
+        model = new Model();
+        model.setName("ERNIE-Speed-128K");
+        platform = new Platform();
+    }
+
+    @Test
+    void apiKeyIsSplitIntoKeyAndSecret() {
+        platform.setApiKey("ak:sk:with-colon");
+
+        StreamingChatLanguageModel built = adapter.build(model, platform,
+                ModelParams.builder().temperature(0.7).maxTokens(100).build(), List.of());
+
+        Object client = ReflectionTestUtils.getField(built, "client");
+        assertEquals("ak", ReflectionTestUtils.getField(client, "apiKey"));
+        // 只按第一个冒号拆分
+        assertEquals("sk:with-colon", ReflectionTestUtils.getField(client, "secretKey"));
+        assertEquals("ERNIE-Speed-128K", ReflectionTestUtils.getField(built, "modelName"));
+        assertEquals(0.7, ReflectionTestUtils.getField(built, "temperature"));
+    }
+
+    @Test
+    void apiKeyWithoutSecretIsRejected() {
+        platform.setApiKey("ak");
+        assertThrows(BusinessException.class, () -> adapter.build(model, platform, null, List.of()));
+
+        platform.setApiKey(null);
+        assertThrows(BusinessException.class, () -> adapter.build(model, platform, null, List.of()));
+    }
+}
@@ -0,0 +1,144 @@
+package ink.whi.backend.utils;
+
+import ink.whi.backend.common.context.ReqInfoContext;
+import ink.whi.backend.common.exception.BusinessException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author: qing
+ * @Date: 2025/9/3
+ */
+class TaskScopeTest {
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReqInfoContext.clear();
+        executor.shutdownNow();
+    }
+
+    /**
+     * 阻塞直到被中断，中断时计数
+     */
+    private static Object blockUntilInterrupted(CountDownLatch interrupted) {
+        try {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            interrupted.countDown();
+        }
+        return null;
+    }
+
+    @Test
+    void forkedTasksSeeRequestContextOnPooledThreads() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            // 先创建线程，避免通过InheritableThreadLocal继承上下文
+            assertNull(single.submit(ReqInfoContext::getReqInfo).get(5, TimeUnit.SECONDS));
+            ReqInfoContext.ReqInfo reqInfo = new ReqInfoContext.ReqInfo();
+            reqInfo.setUserId(42);
+            ReqInfoContext.addReqInfo(reqInfo);
+
+            try (TaskScope scope = new TaskScope(single)) {
+                Future<Integer> userId = scope.fork(ReqInfoContext::getUserId);
+                Future<String> value = scope.fork(() -> "ok");
+                scope.join(5000);
+
+                assertEquals(42, userId.resultNow());
+                assertEquals("ok", value.resultNow());
+            }
+            // 同一个线程后续执行的任务不会读到上一个请求的上下文
+            assertNull(single.submit(ReqInfoContext::getReqInfo).get(5, TimeUnit.SECONDS));
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    void failureCancelsOtherTasks() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        IllegalArgumentException boom = new IllegalArgumentException("boom");
+
+        try (TaskScope scope = new TaskScope(executor)) {
+            scope.fork(() -> {
+                started.countDown();
+                return blockUntilInterrupted(interrupted);
+            });
+            scope.fork(() -> {
+                started.await();
+                throw boom;
+            });
+
+            RuntimeException thrown = assertThrows(RuntimeException.class, () -> scope.join(5000));
+            assertSame(boom, thrown);
+        }
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void checkedExceptionIsWrapped() {
+        try (TaskScope scope = new TaskScope(executor)) {
+            scope.fork(() -> {
+                throw new IOException("io");
+            });
+
+            IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> scope.join(5000));
+            assertInstanceOf(IOException.class, thrown.getCause());
+        }
+    }
+
+    @Test
+    void timeoutCancelsRemainingTasks() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        try (TaskScope scope = new TaskScope(executor)) {
+            scope.fork(() -> {
+                started.countDown();
+                return blockUntilInterrupted(interrupted);
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            assertThrows(BusinessException.class, () -> scope.join(50));
+        }
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void closeWithoutJoinCancelsTasks() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        try (TaskScope scope = new TaskScope(executor)) {
+            scope.fork(() -> {
+                started.countDown();
+                return blockUntilInterrupted(interrupted);
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+        }
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,63 @@
+-- 知识库索引相关表，H2(MODE=MySQL)单元测试使用，字段与sql/schema.sql保持一致
+CREATE TABLE IF NOT EXISTS knowledge_base_item
+(
+    id                           INT          NOT NULL AUTO_INCREMENT,
+    kb_id                        INT          NOT NULL,
+    source_id                    INT                   DEFAULT NULL,
+    source_name                  VARCHAR(255)          DEFAULT NULL,
+    title                        VARCHAR(200)          DEFAULT NULL,
+    process_type                 INT                   DEFAULT NULL,
+    is_enable                    BOOLEAN      NOT NULL DEFAULT TRUE,
+    embedding_status             INT          NOT NULL DEFAULT 0,
+    embedding_status_change_time TIMESTAMP             DEFAULT NULL,
+    create_time                  TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time                  TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS kb_ingest_job
+(
+    id                INT          NOT NULL AUTO_INCREMENT,
+    kb_id             INT          NOT NULL,
+    kb_item_id        INT          NOT NULL,
+    file_id           INT          NOT NULL,
+    file_size         BIGINT                DEFAULT NULL,
+    status            INT          NOT NULL DEFAULT 0,
+    attempts          INT          NOT NULL DEFAULT 0,
+    next_run_time     TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    lease_owner       VARCHAR(64)           DEFAULT NULL,
+    lease_expire_time TIMESTAMP             DEFAULT NULL,
+    checkpoint        INT          NOT NULL DEFAULT 0,
+    last_error        VARCHAR(512)          DEFAULT NULL,
+    create_time       TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time       TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_kb_item_id UNIQUE (kb_item_id)
+);
+
+CREATE TABLE IF NOT EXISTS kb_chunk
+(
+    id           INT         NOT NULL AUTO_INCREMENT,
+    kb_id        INT         NOT NULL,
+    content_hash CHAR(64)    NOT NULL,
+    embedding_id VARCHAR(36) NOT NULL,
+    ref_count    INT         NOT NULL DEFAULT 0,
+    stored       BOOLEAN     NOT NULL DEFAULT FALSE,
+    create_time  TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time  TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_kb_hash UNIQUE (kb_id, content_hash)
+);
+
+CREATE TABLE IF NOT EXISTS kb_chunk_ref
+(
+    id           INT       NOT NULL AUTO_INCREMENT,
+    kb_id        INT       NOT NULL,
+    kb_item_id   INT       NOT NULL,
+    seg_index    INT       NOT NULL,
+    content_hash CHAR(64)  NOT NULL,
+    create_time  TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    update_time  TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_item_index UNIQUE (kb_item_id, seg_index)
+);
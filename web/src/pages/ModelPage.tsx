@@ -58,6 +58,12 @@ const ModelPage: React.FC = () => {
         return 'Anthropic';
       case PlatformType.azure_openai:
         return 'Azure OpenAI';
+      case PlatformType.ollama:
+        return 'Ollama';
+      case PlatformType.dashscope:
+        return 'DashScope';
+      case PlatformType.qianfan:
+        return 'Qianfan';
       default:
         return `未知类型(${type})`;
     }
@@ -50,6 +50,12 @@ const PlatformPage: React.FC = () => {
         return 'Anthropic';
       case PlatformType.azure_openai:
         return 'Azure OpenAI';
+      case PlatformType.ollama:
+        return 'Ollama';
+      case PlatformType.dashscope:
+        return 'DashScope';
+      case PlatformType.qianfan:
+        return 'Qianfan';
       default:
         return `未知类型(${type})`;
     }
@@ -556,6 +562,9 @@ const PlatformPage: React.FC = () => {
               <Option value="gemini">Gemini</Option>
               <Option value="anthropic">Anthropic</Option>
               <Option value="azure_openai">Azure OpenAI</Option>
+              <Option value="ollama">Ollama</Option>
+              <Option value="dashscope">DashScope</Option>
+              <Option value="qianfan">Qianfan</Option>
               {/* Add more platform types as needed */}
             </Select>
           </Form.Item>
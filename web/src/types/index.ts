@@ -114,6 +114,9 @@ export enum PlatformType {
   'gemini' = 2,
   'anthropic' = 3,
   'azure_openai' = 4,
+  'ollama' = 5,
+  'dashscope' = 6,
+  'qianfan' = 7,
   // Add more platform types as needed
 }
 